@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -14,6 +16,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanVisualizer;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
@@ -24,6 +27,11 @@ import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
+    // if true, every query is run as if prefixed with EXPLAIN ANALYZE
+    static boolean analyze = false;
+
+    private static final Pattern EXPLAIN_ANALYZE = Pattern.compile(
+            "^\\s*EXPLAIN\\s+ANALYZE\\s+", Pattern.CASE_INSENSITIVE);
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -212,8 +220,9 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        // the field and the function of each aggregate, in select list order
+        List<String> aggFields = new ArrayList<>();
+        List<String> aggFuns = new ArrayList<>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,15 +232,13 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
                 if (groupByField != null
@@ -246,12 +253,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (groupByField != null && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i), groupByField);
         }
         // sort the data
 
@@ -281,9 +288,21 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, null);
+    }
+
+    /**
+     * Plan a query, returning only the tuples selected by limit if it is not
+     * null.
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, LimitClause limit)
+            throws IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit != null)
+            lp.setLimit(limit.limit, limit.offset);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -463,14 +482,59 @@ public class Parser {
         }
     }
 
+    /**
+     * A trailing LIMIT n [OFFSET m] clause, which Zql does not parse. It is
+     * cut off the statement before the rest is handed to Zql.
+     */
+    public static class LimitClause {
+        private static final Pattern PATTERN = Pattern.compile(
+                "\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*(;?)\\s*$",
+                Pattern.CASE_INSENSITIVE);
+
+        public final int limit;
+        public final int offset;
+
+        LimitClause(int limit, int offset) {
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        /**
+         * @return the clause at the end of statement, or null if there is none
+         */
+        public static LimitClause find(String statement) throws simpledb.ParsingException {
+            Matcher m = PATTERN.matcher(statement);
+            if (!m.find())
+                return null;
+            try {
+                return new LimitClause(Integer.parseInt(m.group(1)),
+                        m.group(2) == null ? 0 : Integer.parseInt(m.group(2)));
+            } catch (NumberFormatException e) {
+                throw new simpledb.ParsingException("LIMIT or OFFSET too large: " + m.group());
+            }
+        }
+
+        /**
+         * @return statement without its LIMIT clause, if any
+         */
+        public static String strip(String statement) {
+            Matcher m = PATTERN.matcher(statement);
+            return m.find() ? statement.substring(0, m.start()) + m.group(3) : statement;
+        }
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        LimitClause limit = LimitClause.find(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(LimitClause.strip(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit != null)
+                    lp.setLimit(limit.limit, limit.offset);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -495,8 +559,26 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                text.write(buf, 0, n);
+            String statement = new String(text.toByteArray(), StandardCharsets.UTF_8);
+            // EXPLAIN ANALYZE runs the statement, then prints its plan with
+            // the actual rows, time and pages of each operator
+            boolean analyzeStatement = analyze;
+            Matcher explainAnalyze = EXPLAIN_ANALYZE.matcher(statement);
+            if (explainAnalyze.find()) {
+                analyzeStatement = true;
+                statement = statement.substring(explainAnalyze.end());
+            }
+            LimitClause limit = LimitClause.find(statement);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    LimitClause.strip(statement).getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
+            if (limit != null && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException("LIMIT is only supported in queries");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,15 +599,21 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
+                    if (query != null) {
+                        query.setProfiled(analyzeStatement);
                         query.execute();
+                        if (analyzeStatement) {
+                            System.out.println("The query plan, as run, is:");
+                            new QueryPlanVisualizer().printQueryPlanTree(query.getProfile(), System.out);
+                        }
+                    }
 
                     if (!inUserTrans && curtrans != null) {
                         curtrans.commit();
@@ -567,11 +655,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit", "offset", "explain analyze" };
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 5) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,7 +669,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-analyze] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -602,6 +690,9 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-analyze")) {
+                    analyze = true;
+                    System.out.println("Explain analyze mode enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
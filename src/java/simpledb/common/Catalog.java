@@ -1,16 +1,22 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PageIoScheduler;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -18,13 +24,31 @@ import java.util.concurrent.ConcurrentHashMap;
  * For now, this is a stub catalog that must be populated with tables by a
  * user program before it can be used -- eventually, this should be converted
  * to a catalog that reads a catalog table from disk.
+ * <p>
+ * Table ids of files are small dense integers handed out by
+ * {@link #getTableIdForFile(File)}, so tables are looked up by indexing an array
+ * rather than hashing. Lookups of such ids take no locks.
  * 
  * @Threadsafe
  */
 public class Catalog {
 
+    /** Ids at or above this (and negative ids) are kept in dbMapTableId only. */
+    private static final int MAX_DENSE_ID = 1 << 16;
+
+    /** Table ids handed out to files, by absolute path. Shared by all catalogs. */
+    private static final ConcurrentHashMap<String, Integer> fileIds = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, String> idFiles = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextFileId = new AtomicInteger();
+    // ids released by releaseTableIdForFile, latest first, handed out again before new ones
+    private static final ConcurrentLinkedDeque<Integer> freeFileIds = new ConcurrentLinkedDeque<>();
+    // files whose ids are saved by saveTableIds; their ids are never released
+    private static final Set<String> savedFiles = ConcurrentHashMap.newKeySet();
+
     private ConcurrentHashMap<Integer, Table> dbMapTableId;
     private ConcurrentHashMap<String, Integer> dbMapTableName;
+    // tables with ids in [0, MAX_DENSE_ID), indexed by id; replaced, never modified
+    private volatile Table[] tablesById = new Table[16];
     public static class Table{
         public DbFile file;
         public String name;
@@ -69,10 +93,18 @@ public class Catalog {
      * @param name the name of the table -- may be an empty string.  May not be null.  
      * @param pkeyField the name of the primary key field
      */
-    public void addTable(DbFile file, String name, String pkeyField) {
+    public synchronized void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
-        this.dbMapTableId.put(file.getId(), new Table(file, name, pkeyField));
-        this.dbMapTableName.put(name, file.getId());
+        int id = file.getId();
+        Table table = new Table(file, name, pkeyField);
+        this.dbMapTableId.put(id, table);
+        this.dbMapTableName.put(name, id);
+        if (id >= 0 && id < MAX_DENSE_ID) {
+            Table[] tables = this.tablesById;
+            tables = Arrays.copyOf(tables, Math.max(tables.length, Integer.highestOneBit(id) * 2));
+            tables[id] = table;
+            this.tablesById = tables;
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -111,10 +143,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        if (this.dbMapTableId.containsKey(tableid)){
-            return this.getDatabaseFile(tableid).getTupleDesc();
-        }
-        throw new NoSuchElementException();
+        return this.getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
@@ -125,19 +154,35 @@ public class Catalog {
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        Table table = dbMapTableId.get(tableid);
+        return getTable(tableid).file;
+    }
+
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table[] tables = this.tablesById;
+        Table table = tableid >= 0 && tableid < tables.length ? tables[tableid] : null;
+        if (table == null) {
+            table = dbMapTableId.get(tableid);
+        }
         if (table == null) {
             throw new NoSuchElementException();
         }
-        return table.file;
+        return table;
+    }
+
+    /**
+     * Returns the size in bytes of the pages of the specified table.
+     * Pages of different tables may differ in size; see {@link DbFile#getPageSize}.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDatabaseFile(tableid).getPageSize();
     }
 
     public String getPrimaryKey(int tableid) throws NoSuchElementException{
         // some code goes here
-        if (this.dbMapTableId.containsKey(tableid)){
-            return this.dbMapTableId.get(tableid).getPkeyField();
-        }
-        throw new NoSuchElementException();
+        return getTable(tableid).getPkeyField();
     }
 
     public Iterator<Integer> tableIdIterator() {
@@ -147,28 +192,146 @@ public class Catalog {
 
     public String getTableName(int id) throws NoSuchElementException{
         // some code goes here
-        if (this.dbMapTableId.containsKey(id)){
-            return this.dbMapTableId.get(id).getName();
-        }
-        throw new NoSuchElementException();
+        return getTable(id).getName();
     }
     
+    /**
+     * Remove a table from the catalog.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public synchronized void removeTable(int tableid) {
+        Table table = this.dbMapTableId.remove(tableid);
+        if (table == null) {
+            return;
+        }
+        this.dbMapTableName.remove(table.name, tableid);
+        Table[] tables = this.tablesById;
+        if (tableid >= 0 && tableid < tables.length && tables[tableid] == table) {
+            tables = tables.clone();
+            tables[tableid] = null;
+            this.tablesById = tables;
+        }
+    }
+
     /** Delete all tables from the catalog */
-    public void clear() {
+    public synchronized void clear() {
         // some code goes here
         this.dbMapTableId.clear();
         this.dbMapTableName.clear();
+        this.tablesById = new Table[16];
+    }
+
+    /**
+     * Returns the table id of the file at the specified location, handing out
+     * an unused id the first time a file is seen. The same file always gets
+     * the same id until it is released by {@link #releaseTableIdForFile},
+     * whichever catalog it is added to; ids of tables loaded by
+     * {@link #loadSchema} are also kept across restarts.
+     * @param f the file backing a table
+     */
+    public static int getTableIdForFile(File f) {
+        return fileIds.computeIfAbsent(f.getAbsolutePath(), path -> {
+            Integer id;
+            do {
+                id = freeFileIds.pollFirst();
+                if (id == null) {
+                    id = nextFileId.getAndIncrement();
+                }
+            } while (idFiles.putIfAbsent(id, path) != null);
+            return id;
+        });
+    }
+
+    /**
+     * Releases the table id of a temporary file that will not be used again,
+     * so that {@link #getTableIdForFile} can hand it out to another file. The
+     * caller must make sure that no catalog, page or lock still refers to the
+     * id, e.g. by removing the table and discarding its pages from the buffer
+     * pool; the queue the buffer pool's {@link PageIoScheduler} keeps for the
+     * id is dropped here. Ids of tables loaded by {@link #loadSchema} are
+     * never released.
+     * @param f the file backing a table
+     */
+    public static void releaseTableIdForFile(File f) {
+        String path = f.getAbsolutePath();
+        if (savedFiles.contains(path)) {
+            return;
+        }
+        Integer id = fileIds.remove(path);
+        if (id != null && idFiles.remove(id, path)) {
+            Database.getBufferPool().getIoScheduler().release(id);
+            freeFileIds.addFirst(id);
+        }
+    }
+
+    /**
+     * Reads table ids saved by {@link #saveTableIds}, so files get the ids
+     * they had before.
+     * @throws IllegalStateException if a file already has another id, or its
+     *         id has already been given to another file; the log refers to
+     *         tables by id, so the file cannot be given a fresh one
+     */
+    private static void loadTableIds(File idFile) throws IOException {
+        if (!idFile.exists()) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(idFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                int id = Integer.parseInt(line.substring(0, space));
+                String path = line.substring(space + 1);
+                Integer current = fileIds.get(path);
+                if (current != null && current != id) {
+                    throw new IllegalStateException(path + " has table id " + current
+                            + " instead of " + id);
+                }
+                String other = idFiles.putIfAbsent(id, path);
+                if (other != null && !other.equals(path)) {
+                    throw new IllegalStateException("table id " + id + " of " + path
+                            + " is already used by " + other);
+                }
+                fileIds.put(path, id);
+                savedFiles.add(path);
+                nextFileId.accumulateAndGet(id + 1, Math::max);
+            }
+        }
+    }
+
+    /** Writes the id of each file as a line "id absolute-path". */
+    private static void saveTableIds(File idFile, List<File> files) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(idFile))) {
+            for (File f : files) {
+                savedFiles.add(f.getAbsolutePath());
+                pw.println(getTableIdForFile(f) + " " + f.getAbsolutePath());
+            }
+        }
     }
     
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form
+     * <pre>name (field type [pk], field type, ...) [pagesize N]</pre>
+     * where the optional trailing pagesize gives the size in bytes of the
+     * pages of that table; without it the table uses the default page size.
+     * <p>
+     * The table ids of the loaded tables are kept in catalogFile.ids, so a
+     * table has the same id every time the schema is loaded.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
         String line = "";
         String baseFolder=new File(new File(catalogFile).getAbsolutePath()).getParent();
+        File idFile = new File(catalogFile + ".ids");
+        List<File> tableFiles = new ArrayList<>();
         try {
+            loadTableIds(idFile);
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
@@ -203,14 +366,24 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                int pageSize = BufferPool.getPageSize();
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                if (options.length == 2 && options[0].equalsIgnoreCase("pagesize")) {
+                    pageSize = Integer.parseInt(options[1]);
+                } else if (!options[0].isEmpty()) {
+                    System.out.println("Unknown table option " + options[0]);
+                    System.exit(0);
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, pageSize);
                 addTable(tabHf,name,primaryKey);
+                tableFiles.add(tabHf.getFile());
                 System.out.println("Added table : " + name + " with schema " + t);
             }
+            saveTableIds(idFile, tableFiles);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
@@ -28,6 +28,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int off) {
+            return new IntField(readInt(data, off));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +51,11 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int off) {
+            return new StringField(new String(data, off + 4, readInt(data, off)), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +74,19 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object read from the
+   *   specified bytes, as {@link #parse(DataInputStream)} reads it from a
+   *   stream of them.
+   * @param data the bytes to read from, e.g. those of a page
+   * @param off the offset in data of the field
+   */
+    public abstract Field parse(byte[] data, int off);
+
+    /** @return the int at off, as written by DataOutputStream.writeInt */
+    private static int readInt(byte[] data, int off) {
+        return (data[off] & 0xff) << 24 | (data[off + 1] & 0xff) << 16
+                | (data[off + 2] & 0xff) << 8 | (data[off + 3] & 0xff);
+    }
+
 }
@@ -0,0 +1,162 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Accumulator keeps the running state of one aggregate operator for every
+ * group of an aggregation, in primitive long arrays indexed by group number
+ * (as assigned by {@link GroupHashTable}). Adding a value to a group costs a
+ * couple of array writes and allocates nothing once the arrays have grown to
+ * the number of groups.
+ */
+final class Accumulator implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    private final Aggregator.Op op;
+    // the sum, min or max of each group; unused for COUNT
+    private long[] values;
+    // the number of rows of each group, or the sum of the counts for SC_AVG
+    private long[] counts;
+    private int size;
+
+    /**
+     * @param op the aggregate operator
+     */
+    Accumulator(Aggregator.Op op) {
+        this.op = op;
+        clear();
+    }
+
+    /**
+     * Forgets every group.
+     */
+    void clear() {
+        values = new long[INITIAL_GROUPS];
+        counts = new long[INITIAL_GROUPS];
+        size = 0;
+    }
+
+    /**
+     * Forgets every group but keeps the arrays, for aggregating one group
+     * at a time.
+     */
+    void reset() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of groups that have had a value added
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Starts the groups up to and including g.
+     */
+    private void extend(int g) {
+        if (g >= values.length) {
+            int n = Math.max(values.length * 2, g + 1);
+            values = Arrays.copyOf(values, n);
+            counts = Arrays.copyOf(counts, n);
+        }
+        long init = op == Aggregator.Op.MIN ? Long.MAX_VALUE
+                : op == Aggregator.Op.MAX ? Long.MIN_VALUE : 0;
+        for (; size <= g; size++) {
+            values[size] = init;
+            counts[size] = 0;
+        }
+    }
+
+    /**
+     * Adds value to the aggregate of group g.
+     */
+    void add(int g, long value) {
+        if (g >= size) {
+            extend(g);
+        }
+        counts[g]++;
+        switch (op) {
+        case MIN:
+            if (value < values[g]) {
+                values[g] = value;
+            }
+            break;
+        case MAX:
+            if (value > values[g]) {
+                values[g] = value;
+            }
+            break;
+        case SUM:
+        case AVG:
+        case SUM_COUNT:
+            values[g] += value;
+            break;
+        case SC_AVG:
+            throw new IllegalStateException("SC_AVG adds sums and counts");
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Adds the sum and count of some rows, as computed by SUM_COUNT, to the
+     * SC_AVG of group g.
+     */
+    void addSumCount(int g, long sum, long count) {
+        if (op != Aggregator.Op.SC_AVG) {
+            throw new IllegalStateException("not an SC_AVG");
+        }
+        if (g >= size) {
+            extend(g);
+        }
+        values[g] += sum;
+        counts[g] += count;
+    }
+
+    /**
+     * Adds n rows to the COUNT of group g.
+     */
+    void addCount(int g, long n) {
+        if (op != Aggregator.Op.COUNT) {
+            throw new IllegalStateException("not a COUNT");
+        }
+        if (g >= size) {
+            extend(g);
+        }
+        counts[g] += n;
+    }
+
+    /**
+     * @return the aggregate of group g; AVG and SC_AVG are rounded toward
+     *         zero, and SUM_COUNT returns the sum
+     */
+    long result(int g) {
+        if (g < 0 || g >= size) {
+            throw new IndexOutOfBoundsException("no group " + g);
+        }
+        switch (op) {
+        case COUNT:
+            return counts[g];
+        case AVG:
+        case SC_AVG:
+            return counts[g] == 0 ? 0 : values[g] / counts[g];
+        default:
+            return values[g];
+        }
+    }
+
+    /**
+     * @return the number of rows of group g
+     */
+    long count(int g) {
+        if (g < 0 || g >= size) {
+            throw new IndexOutOfBoundsException("no group " + g);
+        }
+        return counts[g];
+    }
+}
@@ -1,27 +1,50 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Several aggregates, each a column and an operator, may be computed in
+ * a single pass over the child, grouped by a single column.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
     private OpIterator child;
     private int afield;
     private int gfield;
     private Aggregator.Op aop;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final int maxGroups;
     private OpIterator aggregatorIter; //an iterator 
     private Aggregator aggregator;
     private TupleDesc tupleDesc;
+    private transient TupleBatch batch;
+    // if true, the child is ordered on gfield and each group is aggregated
+    // as it streams past, rather than in the aggregator
+    private boolean streaming = false;
+    // the state of each aggregate over the current group, and the first
+    // tuple of the next group, read ahead
+    private transient Accumulator[] accs;
+    private transient Tuple pending;
+    // if true, a child that is a chain of Filters and Projects over a scan
+    // of a heap file is run as one loop (see FusedPipeline); fused is true
+    // while such a loop has replaced the child
+    private boolean fusionEnabled = true;
+    private transient boolean fused;
 
     private static final long serialVersionUID = 1L;
 
@@ -39,46 +62,297 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, IntegerAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param child     The OpIterator that is feeding us tuples.
+     * @param afield    The column over which we are computing an aggregate.
+     * @param gfield    The column over which we are grouping the result, or -1 if
+     *                  there is no grouping
+     * @param aop       The aggregation operator to use
+     * @param maxGroups the maximum number of groups held in memory; rows of
+     *                  further groups are spilled to disk
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
+        this(child, new int[] { afield }, new Aggregator.Op[] { aop }, gfield, maxGroups);
+    }
+
+    /**
+     * Constructor for several aggregates computed in one pass over child,
+     * sharing one table of groups.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The column of each aggregate.
+     * @param aops    The aggregation operator of each aggregate; only COUNT
+     *                may be used on a string column
+     * @param gfield  The column over which we are grouping the result, or -1 if
+     *                there is no grouping
+     * @throws IllegalArgumentException if afields and aops are empty or do not
+     *                                  have the same length
+     */
+    public Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int gfield) {
+        this(child, afields, aops, gfield, IntegerAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for several aggregates with an explicit memory budget.
+     *
+     * @param child     The OpIterator that is feeding us tuples.
+     * @param afields   The column of each aggregate.
+     * @param aops      The aggregation operator of each aggregate; only COUNT
+     *                  may be used on a string column
+     * @param gfield    The column over which we are grouping the result, or -1 if
+     *                  there is no grouping
+     * @param maxGroups the maximum number of groups held in memory; rows of
+     *                  further groups are spilled to disk
+     * @throws IllegalArgumentException if afields and aops are empty or do not
+     *                                  have the same length
+     */
+    public Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int gfield, int maxGroups) {
         // some code goes here
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        }
         this.child = child;
-        this.afield = afield;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.afield = afields[0];
         this.gfield = gfield;
-        this.aop = aop;
-        //check if there is an exisitng grouping
-            //check if integer or string aggregator, and assign it as a new aggregator
-        if (this.gfield == Aggregator.NO_GROUPING) {
-            if (this.child.getTupleDesc().getFieldType(this.afield) == Type.INT_TYPE) {
-                aggregator = new IntegerAggregator(this.gfield,
-                                                    null,
-                                                    this.afield,
-                                                    this.aop);
-            } else if (this.child.getTupleDesc().getFieldType(this.afield) == Type.STRING_TYPE) {
-                aggregator = new StringAggregator(this.gfield,
-                                                    null,
-                                                    this.afield,
-                                                    this.aop);
+        this.aop = aops[0];
+        this.maxGroups = maxGroups;
+        this.aggregator = newAggregator();
+        this.tupleDesc = resultTupleDesc();
+        //assign aggregate iterator from our newly assigned aggregator
+        this.aggregatorIter = aggregator.iterator();
+
+    }
+
+    /**
+     * @return the schema of the result: the group-by field if there is one,
+     * then each aggregate, which for SUM_COUNT is a sum and a count
+     */
+    private TupleDesc resultTupleDesc() {
+        TupleDesc childTd = this.child.getTupleDesc();
+        List<Type> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (this.gfield != Aggregator.NO_GROUPING) {
+            types.add(childTd.getFieldType(this.gfield));
+            names.add(childTd.getFieldName(this.gfield));
+        }
+        for (int i = 0; i < this.afields.length; i++) {
+            String aname = childTd.getFieldName(this.afields[i]);
+            // aggregates are integers, even a COUNT of strings
+            types.add(Type.INT_TYPE);
+            names.add(aname);
+            if (this.aops[i] == Aggregator.Op.SUM_COUNT) {
+                types.add(Type.INT_TYPE);
+                names.add("count(" + aname + ")");
             }
-            this.tupleDesc = new TupleDesc(new Type[]{this.child.getTupleDesc().getFieldType(this.afield)}, new String[]{String.format("%s", this.child.getTupleDesc().getFieldName(this.afield))});
+        }
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+    }
 
-        } else {
-            if (this.child.getTupleDesc().getFieldType(this.afield) == Type.INT_TYPE) {
-                aggregator = new IntegerAggregator(this.gfield,
-                                                    this.child.getTupleDesc().getFieldType(this.gfield),
-                                                    this.afield,
-                                                    this.aop);
-            } else if (this.child.getTupleDesc().getFieldType(this.afield) == Type.STRING_TYPE) {
-                aggregator = new StringAggregator(this.gfield,
-                                                    this.child.getTupleDesc().getFieldType(this.gfield),
-                                                    this.afield,
-                                                    this.aop);
+    /**
+     * Creates an aggregate over a child that returns the tuples of each group
+     * together, e.g. ordered on gfield by an {@link OrderBy} or a B+ tree
+     * scan on gfield. Each group is returned as soon as the next one starts,
+     * so only the state of one group is held in memory and the first groups
+     * are returned before the input has been read. If the tuples of a group
+     * are not together, the group is returned once for each run of them.
+     *
+     * @param child   The OpIterator that is feeding us tuples, grouped on gfield.
+     * @param afields The column of each aggregate.
+     * @param aops    The aggregation operator of each aggregate.
+     * @param gfield  The column over which we are grouping the result
+     * @throws IllegalArgumentException if there is no grouping
+     */
+    public static Aggregate streaming(OpIterator child, int[] afields, Aggregator.Op[] aops, int gfield) {
+        if (gfield == Aggregator.NO_GROUPING) {
+            throw new IllegalArgumentException("streaming aggregation needs a group-by field");
+        }
+        Aggregate a = new Aggregate(child, afields, aops, gfield);
+        a.streaming = true;
+        return a;
+    }
+
+    /**
+     * @return true if each group is aggregated as it streams past (see
+     *         {@link #streaming})
+     */
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * Creates a two-phase aggregate over the union of several inputs. A
+     * partial Aggregate over each input runs in a thread of its own under a
+     * gathering {@link Exchange}, and the returned Aggregate merges their
+     * results by group. MIN, MAX and SUM are merged with the same operator
+     * and COUNTs are summed. AVG is decomposed into SUM_COUNT partials merged
+     * by SC_AVG, since the average of the partial averages is not the
+     * average. The result has the same schema as a single Aggregate over
+     * all of the inputs.
+     *
+     * @param inputs the partitions of the input, e.g. the consumers of a
+     *               partitioning exchange; they must have the same TupleDesc
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if
+     *               there is no grouping
+     * @param aop    The aggregation operator to use; SUM_COUNT and SC_AVG
+     *               cannot be split
+     */
+    public static Aggregate twoPhase(OpIterator[] inputs, int afield, int gfield, Aggregator.Op aop) {
+        Aggregator.Op partialOp, finalOp;
+        switch (aop) {
+        case MIN:
+        case MAX:
+        case SUM:
+            partialOp = finalOp = aop;
+            break;
+        case COUNT:
+            partialOp = Aggregator.Op.COUNT;
+            finalOp = Aggregator.Op.SUM;
+            break;
+        case AVG:
+            partialOp = Aggregator.Op.SUM_COUNT;
+            finalOp = Aggregator.Op.SC_AVG;
+            break;
+        default:
+            throw new IllegalArgumentException("cannot aggregate " + aop + " in two phases");
+        }
+        OpIterator[] partials = new OpIterator[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            partials[i] = new Aggregate(inputs[i], afield, gfield, partialOp);
+        }
+        // partial results are (group, aggregate[, count]), or just the aggregate
+        if (gfield == Aggregator.NO_GROUPING) {
+            return new Aggregate(Exchange.gather(partials), 0, Aggregator.NO_GROUPING, finalOp);
+        }
+        return new Aggregate(Exchange.gather(partials), 1, 0, finalOp);
+    }
+
+    /**
+     * Creates a two-phase aggregate over parallelism partial aggregates,
+     * each running in its own thread (see {@link #twoPhase}). When child is
+     * a {@link SeqScan} (or a {@link ParallelSeqScan}) of a heap file, each
+     * partial aggregate scans its own range of the pages of the table (see
+     * {@link SeqScan#part}), so no thread reads the whole input. Any other
+     * child is read by a single thread, which deals its tuples out to the
+     * partial aggregates.
+     *
+     * @param child       The OpIterator that is feeding us tuples.
+     * @param afield      The column over which we are computing an aggregate.
+     * @param gfield      The column over which we are grouping the result, or -1 if
+     *                    there is no grouping
+     * @param aop         The aggregation operator to use
+     * @param parallelism the number of partial aggregates
+     */
+    public static Aggregate parallel(OpIterator child, int afield, int gfield, Aggregator.Op aop,
+                                     int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        if (child instanceof SeqScan
+                && Database.getCatalog().getDatabaseFile(((SeqScan) child).getTableId()) instanceof HeapFile) {
+            SeqScan scan = (SeqScan) child;
+            OpIterator[] parts = new OpIterator[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                parts[i] = scan.part(i, parallelism);
             }
-            this.tupleDesc = new TupleDesc(new Type[] {this.child.getTupleDesc().getFieldType(this.gfield), Type.INT_TYPE}, 
-                                            new String[]{String.format("%s", this.child.getTupleDesc().getFieldName(this.gfield)), 
-                                            String.format("%s", this.child.getTupleDesc().getFieldName(this.afield))});
+            return twoPhase(parts, afield, gfield, aop);
         }
-        //assign aggregate iterator from our newly assigned aggregator
-        this.aggregatorIter = aggregator.iterator();
+        return twoPhase(Exchange.roundRobin(new OpIterator[] { child }, parallelism), afield, gfield, aop);
+    }
+
+    /**
+     * Sets whether open() may fuse the child with this Aggregate (see
+     * {@link #isFused}). It is enabled by default.
+     */
+    public void setFusionEnabled(boolean enabled) {
+        this.fusionEnabled = enabled;
+    }
+
+    /**
+     * @return true if the last open() read the input through a single loop
+     *         over the pages of the scanned table, which replaces the
+     *         operators of the child: the child is a chain of Filters and
+     *         Projects over a SeqScan of a heap file
+     */
+    public boolean isFused() {
+        return this.fused;
+    }
+
+    /**
+     * @return a new, empty aggregator for the fields and operators of this
+     *         Aggregate
+     */
+    private Aggregator newAggregator() {
+        return newAggregator(this.gfield, this.afields);
+    }
+
+    /**
+     * @return a new, empty aggregator for the operators of this Aggregate,
+     *         that reads the given group-by and aggregate fields of its
+     *         input, which have the types of those of the child
+     */
+    private Aggregator newAggregator(int gfield, int[] afields) {
+        TupleDesc childTd = this.child.getTupleDesc();
+        Type gtype = this.gfield == Aggregator.NO_GROUPING ? null : childTd.getFieldType(this.gfield);
+        if (this.afields.length == 1 && childTd.getFieldType(this.afield) == Type.STRING_TYPE) {
+            return new StringAggregator(gfield, gtype, afields[0], this.aop, this.maxGroups);
+        }
+        // several aggregates share one IntegerAggregator, which counts strings
+        // but cannot otherwise aggregate them
+        for (int i = 0; i < this.afields.length; i++) {
+            if (childTd.getFieldType(this.afields[i]) == Type.STRING_TYPE
+                    && this.aops[i] != Aggregator.Op.COUNT) {
+                throw new IllegalArgumentException("cannot " + this.aops[i] + " a string field");
+            }
+        }
+        return new IntegerAggregator(gfield, gtype, afields, this.aops, this.maxGroups);
+    }
+
+    /**
+     * Compiles the child into a {@link FusedPipeline} and makes an aggregator
+     * that reads the fields of the tuples it scans.
+     *
+     * @return false if the child cannot be fused
+     */
+    private boolean fuse() throws TransactionAbortedException, DbException {
+        // the count of SC_AVG is read from the field after its sum, which a
+        // projection may have moved
+        for (Aggregator.Op op : this.aops) {
+            if (op == Aggregator.Op.SC_AVG) {
+                return false;
+            }
+        }
+        FusedPipeline pipeline = FusedPipeline.compile(this.child);
+        if (pipeline == null) {
+            return false;
+        }
+        int[] scanFields = new int[this.afields.length];
+        for (int i = 0; i < scanFields.length; i++) {
+            scanFields[i] = pipeline.scanField(this.afields[i]);
+        }
+        int scanGfield = this.gfield == Aggregator.NO_GROUPING ? Aggregator.NO_GROUPING
+                : pipeline.scanField(this.gfield);
+        this.aggregator = newAggregator(scanGfield, scanFields);
+        pipeline.run(this.aggregator);
+        return true;
+    }
 
+    /**
+     * @return true if the groups of the last open() did not all fit in memory
+     */
+    public boolean hasSpilled() {
+        if (this.aggregator instanceof IntegerAggregator) {
+            return ((IntegerAggregator) this.aggregator).hasSpilled();
+        }
+        return this.aggregator instanceof StringAggregator
+                && ((StringAggregator) this.aggregator).hasSpilled();
     }
 
     /**
@@ -132,6 +406,46 @@ public class Aggregate extends Operator {
         return this.aop;
     }
 
+    /**
+     * @return the number of aggregates computed; the methods above describe
+     * the first
+     */
+    public int numAggregates() {
+        return this.afields.length;
+    }
+
+    /**
+     * @return the field of aggregate i in the <b>INPUT</b> tuples
+     */
+    public int aggregateField(int i) {
+        return this.afields[i];
+    }
+
+    /**
+     * @return the operator of aggregate i
+     */
+    public Aggregator.Op aggregateOp(int i) {
+        return this.aops[i];
+    }
+
+    /**
+     * @return the index of aggregate i in the <b>OUTPUT</b> tuples
+     */
+    public int aggregateIndex(int i) {
+        int index = this.gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        for (int j = 0; j < i; j++) {
+            index += this.aops[j] == Aggregator.Op.SUM_COUNT ? 2 : 1;
+        }
+        return index;
+    }
+
+    /**
+     * @return the name of aggregate i in the <b>OUTPUT</b> tuples
+     */
+    public String aggregateFieldName(int i) {
+        return this.tupleDesc.getFieldName(aggregateIndex(i));
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
@@ -141,10 +455,28 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
-        this.child.open();
-        while (this.child.hasNext()) {
-            this.aggregator.mergeTupleIntoGroup(this.child.next());
+        if (this.streaming) {
+            this.accs = new Accumulator[this.aops.length];
+            for (int i = 0; i < this.aops.length; i++) {
+                this.accs[i] = new Accumulator(this.aops[i]);
+            }
+            this.pending = null;
+            this.child.open();
+            return;
         }
+        // start from an empty aggregator, so that reopening does not count the input twice
+        this.fused = this.fusionEnabled && fuse();
+        if (!this.fused) {
+            this.aggregator = newAggregator();
+            BatchOpIterator in = BatchOpIterator.of(this.child);
+            in.open();
+            TupleBatch b;
+            while ((b = in.nextBatch()) != null) {
+                this.aggregator.mergeBatchIntoGroup(b);
+            }
+        }
+        // only once the input has been read is it known whether groups spilled
+        this.aggregatorIter = this.aggregator.iterator();
         this.aggregatorIter.open();
     }
 
@@ -157,15 +489,104 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if (this.streaming) {
+            return nextGroup();
+        }
         if (aggregatorIter.hasNext()) {
             return aggregatorIter.next();
         }
         return null;
     }
 
+    /**
+     * Aggregates the tuples of the child up to the first one of another
+     * group, when streaming.
+     *
+     * @return the result of the group, or null if the child has no more tuples
+     */
+    private Tuple nextGroup() throws TransactionAbortedException, DbException {
+        if (this.pending == null) {
+            if (!this.child.hasNext()) {
+                return null;
+            }
+            this.pending = this.child.next();
+        }
+        Field key = this.pending.getField(this.gfield);
+        for (Accumulator acc : this.accs) {
+            acc.reset();
+        }
+        Tuple t = this.pending;
+        this.pending = null;
+        while (true) {
+            for (int i = 0; i < this.afields.length; i++) {
+                switch (this.aops[i]) {
+                case COUNT:
+                    this.accs[i].addCount(0, 1);
+                    break;
+                case SC_AVG:
+                    this.accs[i].addSumCount(0, ((IntField) t.getField(this.afields[i])).getValue(),
+                            ((IntField) t.getField(this.afields[i] + 1)).getValue());
+                    break;
+                default:
+                    this.accs[i].add(0, ((IntField) t.getField(this.afields[i])).getValue());
+                }
+            }
+            if (!this.child.hasNext()) {
+                break;
+            }
+            t = this.child.next();
+            if (!key.equals(t.getField(this.gfield))) {
+                this.pending = t;
+                break;
+            }
+        }
+        Tuple result = new Tuple(this.tupleDesc);
+        result.setField(0, key);
+        int f = 1;
+        for (int i = 0; i < this.accs.length; i++) {
+            result.setField(f++, new IntField((int) this.accs[i].result(0)));
+            if (this.aops[i] == Aggregator.Op.SUM_COUNT) {
+                result.setField(f++, new IntField((int) this.accs[i].count(0)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the next batch of aggregate results, laid out as for
+     * {@link #fetchNext()}, or null if there are no more.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null) {
+            batch = new TupleBatch(this.tupleDesc);
+        }
+        batch.clear();
+        if (this.streaming) {
+            Tuple t;
+            while (!batch.isFull() && (t = nextGroup()) != null) {
+                batch.addTuple(t);
+            }
+        } else {
+            while (!batch.isFull() && aggregatorIter.hasNext()) {
+                batch.addTuple(aggregatorIter.next());
+            }
+        }
+        return batch.numRows() == 0 ? null : batch;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        if (this.fused) {
+            // the input has been aggregated already, and the child was never
+            // opened
+            aggregatorIter.rewind();
+            return;
+        }
         this.child.rewind();
+        if (this.streaming) {
+            this.pending = null;
+            return;
+        }
         aggregatorIter.rewind();
     }
 
@@ -173,7 +594,8 @@ public class Aggregate extends Operator {
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. Further aggregates follow in the order given
+     * to the constructor.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -189,8 +611,14 @@ public class Aggregate extends Operator {
     public void close() {
         // some code goes here
         super.close();
-        this.child.close();
+        if (!this.fused) {
+            this.child.close();
+        }
+        this.fused = false;
         this.aggregatorIter.close();
+        this.batch = null;
+        this.accs = null;
+        this.pending = null;
     }
 
     @Override
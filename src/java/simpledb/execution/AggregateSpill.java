@@ -0,0 +1,199 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * AggregateSpill holds the input rows of the groups that did not fit in the
+ * memory budget of an aggregator. Once an aggregator's group table is full,
+ * rows of groups already in the table are still aggregated in memory, and
+ * rows of other groups are written to one of {@link #FANOUT}
+ * {@link SpillFile}s by the hash of their group. Each spilled partition is
+ * aggregated on its own afterwards by a new aggregator, which may spill
+ * again with the hash of the next level.
+ * <p>
+ * Spilled rows hold only the fields the aggregate reads: the group-by field
+ * first, followed by the aggregate field(s).
+ */
+final class AggregateSpill {
+
+    /** Number of partitions the spilled rows are split into. */
+    static final int FANOUT = 16;
+
+    private final TupleDesc td;
+    private final int level;
+    private final SpillFile[] parts = new SpillFile[FANOUT];
+    private long rows = 0;
+    private boolean deleted = false;
+
+    /**
+     * @param td the schema of the spilled rows
+     * @param level the number of times the rows have already been spilled
+     */
+    AggregateSpill(TupleDesc td, int level) {
+        this.td = td;
+        this.level = level;
+    }
+
+    /** @return the schema of the spilled rows */
+    TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows spilled */
+    long size() {
+        return rows;
+    }
+
+    /** @return the partition of key at the given level */
+    private static int partition(Field key, int level) {
+        int h = key.hashCode() ^ (level * 0x5bd1e995);
+        h *= 0x9E3779B1;
+        h ^= h >>> 15;
+        return Math.floorMod(h, FANOUT);
+    }
+
+    /**
+     * Writes a row of the group key to its partition.
+     *
+     * @throws UncheckedIOException if the row cannot be written, since
+     *             {@link Aggregator#mergeTupleIntoGroup} cannot throw
+     */
+    void add(Field key, Tuple row) {
+        if (deleted) {
+            throw new IllegalStateException("aggregate partitions have been deleted");
+        }
+        int p = partition(key, level);
+        try {
+            if (parts[p] == null) {
+                parts[p] = new SpillFile(td);
+            }
+            parts[p].add(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot spill aggregate partition", e);
+        }
+        rows++;
+    }
+
+    /** Deletes the spilled partitions. */
+    void delete() {
+        deleted = true;
+        for (int p = 0; p < FANOUT; p++) {
+            if (parts[p] != null) {
+                parts[p].delete();
+                parts[p] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns an iterator over the groups of an aggregator that has spilled:
+     * first the groups held in memory, then those of each partition in turn.
+     * Only one partition is aggregated in memory at a time. Closing the
+     * iterator deletes the partitions, so it cannot be opened again.
+     *
+     * @param memory iterator over the groups held in memory
+     * @param aggregators makes an empty aggregator over spilled rows, for
+     *            the next level
+     */
+    OpIterator iterator(OpIterator memory, Supplier<Aggregator> aggregators) {
+        return new OpIterator() {
+
+            private static final long serialVersionUID = 1L;
+
+            // the partition to aggregate next, and the iterator over the
+            // groups being returned (memory, or those of partition part - 1)
+            private int part;
+            private OpIterator current;
+
+            public void open() throws DbException, TransactionAbortedException {
+                if (deleted) {
+                    throw new IllegalStateException("aggregate partitions have been deleted");
+                }
+                memory.open();
+                current = memory;
+                part = 0;
+            }
+
+            /** Aggregates the next non-empty partition; false if there are no more. */
+            private boolean nextPartition() throws DbException, TransactionAbortedException {
+                if (current != memory) {
+                    current.close();
+                }
+                current = memory;
+                while (part < FANOUT && parts[part] == null) {
+                    part++;
+                }
+                if (part == FANOUT) {
+                    return false;
+                }
+                Aggregator agg = aggregators.get();
+                DbFileIterator it;
+                try {
+                    it = parts[part++].iterator();
+                } catch (IOException e) {
+                    throw new DbException("cannot read aggregate partition: " + e.getMessage());
+                }
+                it.open();
+                while (it.hasNext()) {
+                    agg.mergeTupleIntoGroup(it.next());
+                }
+                it.close();
+                current = agg.iterator();
+                current.open();
+                return true;
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (current == null) {
+                    throw new IllegalStateException("iterator not open");
+                }
+                while (!current.hasNext()) {
+                    if (!nextPartition()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                if (current != memory) {
+                    current.close();
+                }
+                memory.rewind();
+                current = memory;
+                part = 0;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return memory.getTupleDesc();
+            }
+
+            public void close() {
+                if (current != null && current != memory) {
+                    current.close();
+                }
+                current = null;
+                memory.close();
+                delete();
+            }
+        };
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -79,6 +80,20 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every selected row of a batch into the aggregate. The default
+     * implementation builds a tuple per row; aggregators should override it
+     * to read the columns of the batch directly.
+     *
+     * @param batch rows containing an aggregate field and a group-by field
+     */
+    default void mergeBatchIntoGroup(TupleBatch batch) {
+        int[] sel = batch.selection();
+        for (int i = 0; i < batch.numSelected(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(sel[i]));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
@@ -0,0 +1,40 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchOpIterator is implemented by operators that can also produce their
+ * output a batch of rows at a time, which avoids the per-row virtual calls of
+ * {@link OpIterator#hasNext()} and {@link OpIterator#next()}.
+ * <p>
+ * open, rewind and close work as for any OpIterator. Between two of those
+ * calls a consumer must use either nextBatch or hasNext/next, not both.
+ * Operators read their children through {@link #of(OpIterator)}, so a plan
+ * may freely mix batch and tuple-at-a-time operators.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of rows. The batch has at least one selected
+     * row, and is owned by this iterator: it is only valid until the next
+     * call to nextBatch, rewind or close.
+     *
+     * @return the next batch, or null if there are no more rows.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return it, if it can produce batches itself, or else an adapter that
+     *   builds batches from its tuples. Opening, rewinding or closing the
+     *   adapter does the same to it.
+     */
+    static BatchOpIterator of(OpIterator it) {
+        if (it instanceof BatchOpIterator) {
+            return (BatchOpIterator) it;
+        }
+        return new TupleToBatchAdapter(it);
+    }
+}
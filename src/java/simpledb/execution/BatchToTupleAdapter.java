@@ -0,0 +1,73 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a {@link BatchOpIterator} a batch at a time and returns its selected
+ * rows as tuples, so that a plan whose operators run batch at a time can be
+ * consumed tuple at a time (e.g. by {@link Query}).
+ */
+public class BatchToTupleAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchOpIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    /**
+     * @param child the operator to read batches from
+     */
+    public BatchToTupleAdapter(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || pos == batch.numSelected()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(batch.selection()[pos++]);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = BatchOpIterator.of(children[0]);
+    }
+}
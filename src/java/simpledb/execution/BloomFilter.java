@@ -0,0 +1,74 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+import java.io.Serializable;
+
+/**
+ * BloomFilter is a set of join keys that may report keys it does not hold
+ * (with a probability of about 2% at the size chosen here) but never misses
+ * a key it holds. {@link HashEquiJoin} builds one over the keys of its hash
+ * table and hands it to the {@link SeqScan} on its probe side, which drops
+ * rows whose key cannot match before they reach the operators in between.
+ * <p>
+ * Keys are hashed with {@link Field#hashCode()}, so a filter built from
+ * fields of one type must be probed with fields of the same type.
+ */
+final class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // bits per key and bits set per key
+    private static final int BITS_PER_KEY = 10;
+    private static final int PROBES = 3;
+    private static final int MAX_BITS = 1 << 30;
+
+    private final long[] bits;
+    private final int mask;
+
+    /**
+     * @param expectedKeys the number of keys that will be added
+     */
+    BloomFilter(int expectedKeys) {
+        long wanted = Math.max(64L, (long) expectedKeys * BITS_PER_KEY);
+        int n = wanted >= MAX_BITS ? MAX_BITS : Integer.highestOneBit((int) wanted - 1) << 1;
+        this.bits = new long[n >>> 6];
+        this.mask = n - 1;
+    }
+
+    private static int hash1(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // odd, so that the probes of a key are distinct
+    private static int hash2(int h) {
+        h *= 0x85EBCA6B;
+        return (h ^ (h >>> 13)) | 1;
+    }
+
+    /** Adds key to the set. */
+    void add(Field key) {
+        int h = key.hashCode();
+        int a = hash1(h), b = hash2(h);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (a + i * b) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if key was certainly not added, true if it may have been
+     */
+    boolean mightContain(Field key) {
+        int h = key.hashCode();
+        int a = hash1(h), b = hash2(h);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (a + i * b) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+import java.util.List;
+
+/**
+ * CompiledJoinPredicate evaluates a {@link JoinPredicate} between a block of
+ * left tuples and one right tuple at a time, as a block nested-loops join
+ * does. When the join fields of the block are all IntFields, their values are
+ * copied into an int array as the block is loaded, and each right tuple is
+ * compared with them in a loop specialized for the operator, with its own
+ * value read once. Otherwise it falls back to
+ * {@link JoinPredicate#filter(Tuple, Tuple)}.
+ */
+public final class CompiledJoinPredicate {
+
+    private final JoinPredicate p;
+    private List<Tuple> block;
+    // the join field of each tuple of the block, if they are all IntFields
+    private int[] keys = new int[0];
+    private boolean intKeys;
+
+    /**
+     * @param p the predicate to evaluate
+     */
+    public CompiledJoinPredicate(JoinPredicate p) {
+        this.p = p;
+    }
+
+    /**
+     * Sets the block of left tuples that right tuples are compared with.
+     * The block must not change until the next call.
+     */
+    public void load(List<Tuple> block) {
+        this.block = block;
+        int n = block.size();
+        if (keys.length < n) {
+            keys = new int[Math.max(n, keys.length * 2)];
+        }
+        intKeys = true;
+        int field1 = p.getField1();
+        for (int i = 0; i < n; i++) {
+            Field f = block.get(i).getField(field1);
+            if (!(f instanceof IntField)) {
+                intKeys = false;
+                return;
+            }
+            keys[i] = ((IntField) f).getValue();
+        }
+    }
+
+    /**
+     * @return the index of the first tuple of the block at or after from that
+     *         satisfies the predicate with t2, or the size of the block if
+     *         there is none
+     */
+    public int next(Tuple t2, int from) {
+        int n = block.size();
+        Field f2 = t2.getField(p.getField2());
+        if (!intKeys || !(f2 instanceof IntField)) {
+            for (int i = from; i < n; i++) {
+                if (p.filter(block.get(i), t2)) {
+                    return i;
+                }
+            }
+            return n;
+        }
+        int v = ((IntField) f2).getValue();
+        int[] k = keys;
+        int i = from;
+        // one loop per operator, so that the loops have no switch
+        switch (p.getOperator()) {
+        case EQUALS:
+        case LIKE:
+            while (i < n && k[i] != v) i++;
+            break;
+        case NOT_EQUALS:
+            while (i < n && k[i] == v) i++;
+            break;
+        case GREATER_THAN:
+            while (i < n && !(k[i] > v)) i++;
+            break;
+        case GREATER_THAN_OR_EQ:
+            while (i < n && !(k[i] >= v)) i++;
+            break;
+        case LESS_THAN:
+            while (i < n && !(k[i] < v)) i++;
+            break;
+        case LESS_THAN_OR_EQ:
+            while (i < n && !(k[i] <= v)) i++;
+            break;
+        default:
+            throw new IllegalStateException("cannot compile " + p.getOperator());
+        }
+        return i;
+    }
+}
@@ -0,0 +1,190 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+
+import java.io.Serializable;
+
+/**
+ * CompiledPredicate evaluates the conjunction of a chain of {@link Predicate}s
+ * with as little work per row as possible. A comparison of an INT_TYPE field
+ * with an IntField constant is compiled into a loop over the primitive values
+ * of the column for each operator, so that the operator is switched on once
+ * per batch rather than once per row and no {@link Field#compare} call is
+ * made. Other predicates (over strings) fall back to
+ * {@link Predicate#filter(TupleBatch)}.
+ */
+public abstract class CompiledPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param t the tuple to test
+     * @return true if t passes every predicate
+     */
+    public abstract boolean test(Tuple t);
+
+    /**
+     * Removes the rows that do not pass every predicate from the selection
+     * vector of the batch.
+     *
+     * @return the number of rows still selected
+     */
+    public abstract int filter(TupleBatch batch);
+
+    /**
+     * Compiles the conjunction of some predicates, which are evaluated in the
+     * order given.
+     *
+     * @param conjuncts the predicates; there must be at least one
+     */
+    public static CompiledPredicate compile(Predicate... conjuncts) {
+        if (conjuncts.length == 0) {
+            throw new IllegalArgumentException("nothing to compile");
+        }
+        if (conjuncts.length == 1) {
+            return compileOne(conjuncts[0]);
+        }
+        CompiledPredicate[] parts = new CompiledPredicate[conjuncts.length];
+        for (int i = 0; i < conjuncts.length; i++) {
+            parts[i] = compileOne(conjuncts[i]);
+        }
+        return new Conjunction(parts);
+    }
+
+    private static CompiledPredicate compileOne(Predicate p) {
+        if (p.getOperand() instanceof IntField) {
+            // as in IntField.compare, LIKE on integers is equality
+            Predicate.Op op = p.getOp() == Predicate.Op.LIKE ? Predicate.Op.EQUALS : p.getOp();
+            return new IntComparison(p.getField(), op, ((IntField) p.getOperand()).getValue());
+        }
+        return new Interpreted(p);
+    }
+
+    /** field op constant, over INT_TYPE fields */
+    private static final class IntComparison extends CompiledPredicate {
+
+        private static final long serialVersionUID = 1L;
+        private final int field;
+        private final Predicate.Op op;
+        private final int c;
+
+        IntComparison(int field, Predicate.Op op, int c) {
+            this.field = field;
+            this.op = op;
+            this.c = c;
+        }
+
+        public boolean test(Tuple t) {
+            int v = ((IntField) t.getField(field)).getValue();
+            switch (op) {
+            case EQUALS: return v == c;
+            case NOT_EQUALS: return v != c;
+            case GREATER_THAN: return v > c;
+            case GREATER_THAN_OR_EQ: return v >= c;
+            case LESS_THAN: return v < c;
+            case LESS_THAN_OR_EQ: return v <= c;
+            default: throw new IllegalStateException("cannot compile " + op);
+            }
+        }
+
+        public int filter(TupleBatch batch) {
+            Field[] column = batch.column(field);
+            int[] sel = batch.selection();
+            int n = batch.numSelected();
+            int kept = 0;
+            // one loop per operator, so that the loops have no switch
+            switch (op) {
+            case EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (((IntField) column[row]).getValue() == c) sel[kept++] = row;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (((IntField) column[row]).getValue() != c) sel[kept++] = row;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (((IntField) column[row]).getValue() > c) sel[kept++] = row;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (((IntField) column[row]).getValue() >= c) sel[kept++] = row;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (((IntField) column[row]).getValue() < c) sel[kept++] = row;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (((IntField) column[row]).getValue() <= c) sel[kept++] = row;
+                }
+                break;
+            default:
+                throw new IllegalStateException("cannot compile " + op);
+            }
+            batch.setNumSelected(kept);
+            return kept;
+        }
+    }
+
+    /** a predicate that cannot be compiled */
+    private static final class Interpreted extends CompiledPredicate {
+
+        private static final long serialVersionUID = 1L;
+        private final Predicate p;
+
+        Interpreted(Predicate p) {
+            this.p = p;
+        }
+
+        public boolean test(Tuple t) {
+            return p.filter(t);
+        }
+
+        public int filter(TupleBatch batch) {
+            return p.filter(batch);
+        }
+    }
+
+    /** several predicates, each applied to the rows passing the previous */
+    private static final class Conjunction extends CompiledPredicate {
+
+        private static final long serialVersionUID = 1L;
+        private final CompiledPredicate[] parts;
+
+        Conjunction(CompiledPredicate[] parts) {
+            this.parts = parts;
+        }
+
+        public boolean test(Tuple t) {
+            for (CompiledPredicate p : parts) {
+                if (!p.test(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int filter(TupleBatch batch) {
+            int n = batch.numSelected();
+            for (int i = 0; i < parts.length && n > 0; i++) {
+                n = parts[i].filter(batch);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exchange moves tuples between threads, in the style of Volcano's exchange
+ * operator. It runs each of its producers (children) in a thread of its own
+ * and hands their tuples to one or more consumers through bounded queues.
+ * None of the operators above or below an Exchange need to know about
+ * threads: each producer subtree is only ever used by its own thread, and
+ * each Exchange is read by a single consumer.
+ * <p>
+ * An exchange is made with one of the factory methods, according to how the
+ * tuples of the producers are distributed among the consumers:
+ * <ul>
+ * <li>{@link #gather} sends all tuples to a single consumer;</li>
+ * <li>{@link #hashPartition} sends every tuple to the consumer chosen by the
+ * hash of one of its fields, so equal values meet at the same consumer;</li>
+ * <li>{@link #roundRobin} deals tuples out to the consumers in turn;</li>
+ * <li>{@link #broadcast} sends every tuple to every consumer.</li>
+ * </ul>
+ * The last three return one Exchange per consumer. They are usually each
+ * the leaf of a pipeline (e.g. Filter, Project, a partial Aggregate) that is
+ * itself a producer of a gathering Exchange, which runs each pipeline in its
+ * own thread.
+ * <p>
+ * Producers block when a consumer's queue is full, so a slow consumer slows
+ * the producers down instead of letting tuples pile up. Consequently, the
+ * consumers of a partitioning exchange must be read concurrently (e.g. under
+ * a gathering Exchange): reading one to the end before starting another may
+ * block forever. An exception thrown by a producer stops the other producers
+ * and is rethrown to every consumer.
+ * <p>
+ * The producers run whenever at least one of the consumers is open, and are
+ * stopped when the last one is closed. Closing a consumer early discards its
+ * remaining tuples. rewind() restarts the producers, reopening them, and so
+ * is only allowed while no other consumer of the same exchange is open.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How an exchange distributes tuples among its consumers. */
+    public enum Mode {
+        GATHER, HASH, ROUND_ROBIN, BROADCAST
+    }
+
+    /** Number of tuples a producer passes to a consumer at a time. */
+    static final int CHUNK_TUPLES = 64;
+
+    /** Number of chunks a consumer's queue holds before producers block. */
+    static final int QUEUE_CHUNKS = 8;
+
+    // put on the queue of every consumer by each producer when it is done
+    private static final List<Tuple> END = Collections.emptyList();
+
+    private final Source source;
+    private final int output;
+    private transient List<Tuple> chunk;
+    private transient int pos;
+    // number of producers whose END this consumer has read
+    private transient int ended;
+
+    private Exchange(Source source, int output) {
+        this.source = source;
+        this.output = output;
+    }
+
+    /**
+     * Creates an exchange that runs every producer in its own thread and
+     * returns all of their tuples, in no particular order.
+     *
+     * @param producers the operators to run; they must have the same TupleDesc
+     */
+    public static Exchange gather(OpIterator... producers) {
+        return new Exchange(new Source(producers, Mode.GATHER, 1, -1), 0);
+    }
+
+    /**
+     * Creates an exchange that sends every tuple of the producers to one of
+     * numConsumers consumers, chosen by the hash of field.
+     *
+     * @param producers the operators to run; they must have the same TupleDesc
+     * @param field the field to partition on
+     * @param numConsumers the number of consumers
+     * @return the consumers
+     */
+    public static Exchange[] hashPartition(OpIterator[] producers, int field, int numConsumers) {
+        return consumers(new Source(producers, Mode.HASH, numConsumers, field));
+    }
+
+    /**
+     * Creates an exchange that deals the tuples of the producers out to
+     * numConsumers consumers in turn.
+     *
+     * @param producers the operators to run; they must have the same TupleDesc
+     * @param numConsumers the number of consumers
+     * @return the consumers
+     */
+    public static Exchange[] roundRobin(OpIterator[] producers, int numConsumers) {
+        return consumers(new Source(producers, Mode.ROUND_ROBIN, numConsumers, -1));
+    }
+
+    /**
+     * Creates an exchange that sends every tuple of the producers to each of
+     * numConsumers consumers.
+     *
+     * @param producers the operators to run; they must have the same TupleDesc
+     * @param numConsumers the number of consumers
+     * @return the consumers
+     */
+    public static Exchange[] broadcast(OpIterator[] producers, int numConsumers) {
+        return consumers(new Source(producers, Mode.BROADCAST, numConsumers, -1));
+    }
+
+    private static Exchange[] consumers(Source source) {
+        Exchange[] consumers = new Exchange[source.numOutputs];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Exchange(source, i);
+        }
+        return consumers;
+    }
+
+    /** @return how this exchange distributes tuples */
+    public Mode getMode() {
+        return source.mode;
+    }
+
+    /** @return the number of consumers of this exchange */
+    public int getNumConsumers() {
+        return source.numOutputs;
+    }
+
+    /** @return which of the consumers of the exchange this is, from 0 */
+    public int getConsumerIndex() {
+        return output;
+    }
+
+    /** @return the field partitioned on, or -1 if the mode is not HASH */
+    public int getPartitionField() {
+        return source.field;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return source.producers[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        source.open(output);
+        chunk = null;
+        ended = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        source.close(output);
+        chunk = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        source.rewind(output);
+        chunk = null;
+        ended = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (chunk == null || pos == chunk.size()) {
+            if (ended == source.producers.length) {
+                return null;
+            }
+            List<Tuple> c;
+            try {
+                c = source.queues[output].take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for exchange producers");
+            }
+            source.rethrowFailure();
+            if (c == END) {
+                ended++;
+                continue;
+            }
+            chunk = c;
+            pos = 0;
+        }
+        return chunk.get(pos++);
+    }
+
+    /**
+     * @return the producers of this exchange, which are shared by all of its
+     *         consumers
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return source.producers.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        source.setProducers(children);
+    }
+
+    public String toString() {
+        return "Exchange(" + source.mode + ", " + output + "/" + source.numOutputs + ")";
+    }
+
+    /**
+     * The state shared by the consumers of one exchange: the producers, the
+     * threads running them and a queue per consumer.
+     */
+    private static final class Source implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private OpIterator[] producers;
+        private final Mode mode;
+        private final int numOutputs;
+        private final int field;
+
+        private transient ArrayBlockingQueue<List<Tuple>>[] queues;
+        // 1 for consumers closed while the producers run; they get no more tuples
+        private transient AtomicIntegerArray closed;
+        private transient boolean[] outputOpen;
+        private transient int openCount;
+        private transient Thread[] threads;
+        private transient volatile boolean cancelled;
+        private transient AtomicReference<Throwable> failure;
+
+        Source(OpIterator[] producers, Mode mode, int numOutputs, int field) {
+            if (producers.length == 0) {
+                throw new IllegalArgumentException("an exchange needs at least one producer");
+            }
+            if (numOutputs < 1) {
+                throw new IllegalArgumentException("an exchange needs at least one consumer");
+            }
+            this.producers = producers.clone();
+            this.mode = mode;
+            this.numOutputs = numOutputs;
+            this.field = field;
+        }
+
+        synchronized void setProducers(OpIterator[] children) {
+            if (threads != null) {
+                throw new IllegalStateException("cannot replace the producers of an open exchange");
+            }
+            producers = children.clone();
+        }
+
+        synchronized void open(int output) {
+            if (outputOpen == null) {
+                outputOpen = new boolean[numOutputs];
+            }
+            if (outputOpen[output]) {
+                return;
+            }
+            if (threads != null && closed.get(output) == 1) {
+                throw new IllegalStateException(
+                        "cannot reopen a consumer of an exchange while other consumers are open");
+            }
+            outputOpen[output] = true;
+            openCount++;
+            if (threads == null) {
+                start();
+            }
+        }
+
+        synchronized void close(int output) {
+            if (outputOpen == null || !outputOpen[output]) {
+                return;
+            }
+            outputOpen[output] = false;
+            openCount--;
+            if (openCount == 0) {
+                stop();
+            } else {
+                closed.set(output, 1);
+                queues[output].clear();
+            }
+        }
+
+        synchronized void rewind(int output) throws DbException {
+            if (outputOpen == null || !outputOpen[output]) {
+                throw new IllegalStateException("Exchange not yet open");
+            }
+            if (openCount > 1) {
+                throw new DbException("cannot rewind a consumer of an exchange while other consumers are open");
+            }
+            stop();
+            start();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void start() {
+            queues = new ArrayBlockingQueue[numOutputs];
+            for (int i = 0; i < numOutputs; i++) {
+                queues[i] = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+            }
+            closed = new AtomicIntegerArray(numOutputs);
+            failure = new AtomicReference<>();
+            cancelled = false;
+            threads = new Thread[producers.length];
+            for (int i = 0; i < producers.length; i++) {
+                final int producer = i;
+                threads[i] = new Thread(() -> produce(producer), "Exchange-" + mode + "-" + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+        }
+
+        /** Stops the producer threads and waits for them to exit. */
+        private void stop() {
+            if (threads == null) {
+                return;
+            }
+            cancelled = true;
+            boolean interrupted = false;
+            for (Thread t : threads) {
+                t.interrupt();
+            }
+            for (Thread t : threads) {
+                while (t.isAlive()) {
+                    try {
+                        t.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            threads = null;
+            for (ArrayBlockingQueue<List<Tuple>> q : queues) {
+                q.clear();
+            }
+        }
+
+        /** Body of a producer thread: run the producer and distribute its tuples. */
+        private void produce(int producer) {
+            OpIterator child = producers[producer];
+            int buffers = mode == Mode.BROADCAST ? 1 : numOutputs;
+            List<List<Tuple>> out = new ArrayList<>(buffers);
+            for (int i = 0; i < buffers; i++) {
+                out.add(new ArrayList<>(CHUNK_TUPLES));
+            }
+            // start producers at different consumers so they do not deal in lockstep
+            int next = producer % numOutputs;
+            try {
+                child.open();
+                try {
+                    while (!cancelled && failure.get() == null && child.hasNext()) {
+                        Tuple t = child.next();
+                        int i;
+                        switch (mode) {
+                        case HASH:
+                            i = Math.floorMod(t.getField(field).hashCode(), numOutputs);
+                            break;
+                        case ROUND_ROBIN:
+                            i = next;
+                            next = (next + 1) % numOutputs;
+                            break;
+                        default:
+                            i = 0;
+                        }
+                        List<Tuple> buf = out.get(i);
+                        buf.add(t);
+                        if (buf.size() == CHUNK_TUPLES) {
+                            flush(i, buf);
+                            out.set(i, new ArrayList<>(CHUNK_TUPLES));
+                        }
+                    }
+                    for (int i = 0; i < buffers; i++) {
+                        if (!out.get(i).isEmpty()) {
+                            flush(i, out.get(i));
+                        }
+                    }
+                } finally {
+                    child.close();
+                }
+            } catch (InterruptedException e) {
+                // stop() cancelled the exchange
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                try {
+                    for (int i = 0; i < numOutputs; i++) {
+                        send(i, END);
+                    }
+                } catch (InterruptedException e) {
+                    // stop() cancelled the exchange
+                }
+            }
+        }
+
+        /** Sends a full buffer to the consumer(s) it belongs to. */
+        private void flush(int buffer, List<Tuple> chunk) throws InterruptedException {
+            if (mode == Mode.BROADCAST) {
+                // consumers only read chunks, so they can share one
+                for (int i = 0; i < numOutputs; i++) {
+                    send(i, chunk);
+                }
+            } else {
+                send(buffer, chunk);
+            }
+        }
+
+        /**
+         * Puts a chunk on the queue of a consumer, waiting for room unless the
+         * consumer is closed or the exchange is cancelled.
+         */
+        private void send(int output, List<Tuple> chunk) throws InterruptedException {
+            while (!cancelled && closed.get(output) == 0) {
+                if (queues[output].offer(chunk, 10, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+
+        /** Rethrows, in a consumer's thread, the first exception a producer hit. */
+        void rethrowFailure() throws DbException, TransactionAbortedException {
+            Throwable t = failure.get();
+            if (t == null) {
+                return;
+            }
+            if (t instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) t;
+            }
+            if (t instanceof DbException) {
+                throw (DbException) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new DbException("exchange producer failed: " + t);
+        }
+    }
+}
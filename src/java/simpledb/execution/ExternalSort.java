@@ -0,0 +1,393 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ExternalSort sorts tuples that may not fit in memory. Tuples are collected
+ * into a buffer of at most maxTuples; each time it fills, it is sorted and
+ * written to a {@link SpillFile} as a run. The runs are then merged with a
+ * loser tree, in several passes if there are more than {@link #MAX_FAN_IN}
+ * of them. If the tuples fit in the buffer, nothing is written to disk.
+ * <p>
+ * With sortThreads &gt; 0, full buffers are sorted and written by background
+ * threads while the next buffer is filled. Up to sortThreads buffers may
+ * then be waiting to be written besides the one being filled.
+ * <p>
+ * The sort is stable: tuples that compare equal come out in the order they
+ * were added.
+ */
+public class ExternalSort {
+
+    /** Default number of tuples sorted in memory at a time. */
+    public static final int DEFAULT_MAX_TUPLES = 100000;
+
+    /** Maximum number of runs merged at once. */
+    public static final int MAX_FAN_IN = 64;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int maxTuples;
+    private final int sortThreads;
+    private List<Tuple> buffer = new ArrayList<>();
+    private final List<SpillFile> runs = new ArrayList<>();
+    // runs being written by background threads, in the order they were filled
+    private final List<Future<SpillFile>> pending = new ArrayList<>();
+    private ExecutorService sorters;
+    private boolean finished = false;
+
+    /**
+     * Create an empty sort.
+     *
+     * @param td the schema of the tuples to sort
+     * @param comparator the order to sort in
+     * @param maxTuples the maximum number of tuples held in memory
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int maxTuples) {
+        this(td, comparator, maxTuples, 0);
+    }
+
+    /**
+     * Create an empty sort whose runs are generated in the background.
+     *
+     * @param td the schema of the tuples to sort
+     * @param comparator the order to sort in
+     * @param maxTuples the maximum number of tuples per run
+     * @param sortThreads the number of threads sorting and writing runs, or
+     *            0 to write them in the calling thread
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int maxTuples, int sortThreads) {
+        if (maxTuples < 1) {
+            throw new IllegalArgumentException("memory budget must be at least one tuple");
+        }
+        if (sortThreads < 0) {
+            throw new IllegalArgumentException("negative number of sort threads");
+        }
+        this.td = td;
+        this.comparator = comparator;
+        this.maxTuples = maxTuples;
+        this.sortThreads = sortThreads;
+    }
+
+    /**
+     * @return a comparator ordering tuples by one field
+     * @param field the field to sort on
+     * @param asc true for ascending order
+     */
+    public static Comparator<Tuple> byField(int field, boolean asc) {
+        return new TupleComparator(field, asc);
+    }
+
+    /**
+     * Sort every tuple of an operator. The operator must be open; it is left
+     * exhausted.
+     */
+    public static ExternalSort of(OpIterator child, Comparator<Tuple> comparator, int maxTuples)
+            throws DbException, TransactionAbortedException {
+        ExternalSort sort = new ExternalSort(child.getTupleDesc(), comparator, maxTuples);
+        while (child.hasNext()) {
+            sort.add(child.next());
+        }
+        return sort;
+    }
+
+    /**
+     * Add a tuple to sort.
+     *
+     * @throws IllegalStateException if {@link #iterator()} has been called
+     */
+    public void add(Tuple t) throws DbException {
+        if (finished) {
+            throw new IllegalStateException("cannot add tuples once the sort is finished");
+        }
+        buffer.add(t);
+        if (buffer.size() >= maxTuples) {
+            spill(buffer);
+            buffer = new ArrayList<>();
+        }
+    }
+
+    private void spill(List<Tuple> tuples) throws DbException {
+        if (sortThreads == 0) {
+            runs.add(writeRun(tuples));
+            return;
+        }
+        if (sorters == null) {
+            sorters = Executors.newFixedThreadPool(sortThreads, r -> {
+                Thread th = new Thread(r, "external-sort");
+                th.setDaemon(true);
+                return th;
+            });
+        }
+        // bound the memory held by buffers waiting to be written
+        while (pending.size() >= sortThreads) {
+            awaitOldest();
+        }
+        pending.add(sorters.submit(() -> writeRun(tuples)));
+    }
+
+    private void awaitOldest() throws DbException {
+        Future<SpillFile> f = pending.remove(0);
+        try {
+            runs.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while writing a sort run");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof DbException ? (DbException) cause
+                    : new DbException("cannot write sort run: " + cause);
+        }
+    }
+
+    /** Waits for the background threads to write every pending run. */
+    private void awaitRuns() throws DbException {
+        while (!pending.isEmpty()) {
+            awaitOldest();
+        }
+        if (sorters != null) {
+            sorters.shutdown();
+            sorters = null;
+        }
+    }
+
+    /** @return true if some tuples have been written to disk */
+    public boolean hasSpilled() {
+        return !runs.isEmpty() || !pending.isEmpty();
+    }
+
+    /** @return the number of sorted runs on disk */
+    public int numRuns() {
+        return runs.size() + pending.size();
+    }
+
+    /**
+     * Returns an iterator over the tuples added so far, in sorted order. The
+     * iterator can be rewound, and this method can be called again to read
+     * the tuples any number of times, but no tuple can be added any more.
+     */
+    public DbFileIterator iterator() throws DbException {
+        if (!finished) {
+            finished = true;
+            if (hasSpilled()) {
+                if (!buffer.isEmpty()) {
+                    spill(buffer);
+                }
+                buffer = null;
+                awaitRuns();
+                mergeDown();
+            } else {
+                buffer.sort(comparator);
+            }
+        }
+        if (runs.isEmpty()) {
+            return new ListIterator(buffer);
+        }
+        return new MergeIterator(new ArrayList<>(runs));
+    }
+
+    /** Delete the runs on disk and drop the tuples in memory. */
+    public void delete() {
+        try {
+            awaitRuns();
+        } catch (DbException e) {
+            // the runs that were written are still deleted below
+        }
+        for (SpillFile f : runs) {
+            f.delete();
+        }
+        runs.clear();
+        buffer = new ArrayList<>();
+    }
+
+    private SpillFile writeRun(List<Tuple> tuples) throws DbException {
+        tuples.sort(comparator);
+        try {
+            SpillFile run = new SpillFile(td);
+            for (Tuple t : tuples) {
+                run.add(t);
+            }
+            return run;
+        } catch (IOException e) {
+            throw new DbException("cannot write sort run: " + e.getMessage());
+        }
+    }
+
+    /** Merges runs MAX_FAN_IN at a time until at most MAX_FAN_IN are left. */
+    private void mergeDown() throws DbException {
+        while (runs.size() > MAX_FAN_IN) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                MergeIterator it = new MergeIterator(new ArrayList<>(group));
+                try {
+                    SpillFile run = new SpillFile(td);
+                    it.open();
+                    while (it.hasNext()) {
+                        run.add(it.next());
+                    }
+                    merged.add(run);
+                } catch (IOException | TransactionAbortedException e) {
+                    throw new DbException("cannot merge sort runs: " + e.getMessage());
+                } finally {
+                    it.close();
+                }
+                for (SpillFile f : group) {
+                    f.delete();
+                }
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+    }
+
+    private static class ListIterator extends AbstractDbFileIterator {
+        private final List<Tuple> tuples;
+        private int pos = -1;
+
+        ListIterator(List<Tuple> tuples) {
+            this.tuples = tuples;
+        }
+
+        public void open() {
+            pos = 0;
+        }
+
+        protected Tuple readNext() {
+            if (pos < 0 || pos >= tuples.size()) {
+                return null;
+            }
+            return tuples.get(pos++);
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            pos = -1;
+        }
+    }
+
+    /**
+     * Merges sorted runs with a loser tree: each internal node of a
+     * tournament over the runs' head tuples keeps the run that lost there,
+     * so replacing the winner only replays the matches on its path to the
+     * root, log2(k) comparisons for k runs. Ties go to the earliest run, to
+     * keep the sort stable.
+     */
+    private class MergeIterator extends AbstractDbFileIterator {
+        private final List<SpillFile> sources;
+        private DbFileIterator[] its;
+        private Tuple[] heads;
+        // tree[0] is the winning run, tree[1..k-1] the losers of the internal
+        // nodes; the leaf of run i is node k + i
+        private int[] tree;
+
+        MergeIterator(List<SpillFile> sources) {
+            this.sources = sources;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            int k = sources.size();
+            its = new DbFileIterator[k];
+            heads = new Tuple[k];
+            tree = new int[Math.max(1, k)];
+            Arrays.fill(tree, -1);
+            for (int i = 0; i < k; i++) {
+                try {
+                    its[i] = sources.get(i).iterator();
+                } catch (IOException e) {
+                    throw new DbException("cannot read sort run: " + e.getMessage());
+                }
+                its[i].open();
+                heads[i] = its[i].hasNext() ? its[i].next() : null;
+                replay(i);
+            }
+        }
+
+        /** @return true if run a's head comes before run b's; exhausted runs come last */
+        private boolean beats(int a, int b) {
+            if (heads[a] == null) {
+                return false;
+            }
+            if (heads[b] == null) {
+                return true;
+            }
+            int c = comparator.compare(heads[a], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        /** Replays the matches from the leaf of run i up to the root. */
+        private void replay(int i) {
+            int winner = i;
+            for (int node = (its.length + i) / 2; node > 0; node /= 2) {
+                if (tree[node] == -1) {
+                    // still building: the other side of this node has not played yet
+                    tree[node] = winner;
+                    return;
+                }
+                if (beats(tree[node], winner)) {
+                    int t = tree[node];
+                    tree[node] = winner;
+                    winner = t;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (its == null || its.length == 0) {
+                return null;
+            }
+            int w = tree[0];
+            Tuple t = heads[w];
+            if (t == null) {
+                return null;
+            }
+            heads[w] = its[w].hasNext() ? its[w].next() : null;
+            replay(w);
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (its != null) {
+                for (DbFileIterator it : its) {
+                    if (it != null) {
+                        it.close();
+                    }
+                }
+            }
+            its = null;
+            heads = null;
+            tree = null;
+        }
+    }
+}
@@ -3,19 +3,30 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
  * Filter is an operator that implements a relational select.
+ * <p>
+ * A chain of Filters directly over each other is evaluated by the top one:
+ * when it is opened, it compiles its predicate and those of the Filters below
+ * it into one {@link CompiledPredicate} and reads the first operator below
+ * the chain itself.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
     private final Predicate p;
     private OpIterator child;
+    private transient BatchOpIterator batchChild;
+    // the predicates of this Filter and the Filters below it, and the
+    // operator below them that is read
+    private transient CompiledPredicate compiled;
+    private transient OpIterator source;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -48,6 +59,28 @@ public class Filter extends Operator {
         // some code goes here
         super.open();
         child.open();
+        compile();
+    }
+
+    /**
+     * Compiles the predicates of the chain of Filters starting here, the
+     * lowest first, and finds the operator below them.
+     */
+    private void compile() {
+        List<Predicate> chain = new ArrayList<>();
+        chain.add(this.p);
+        OpIterator it = this.child;
+        while (it instanceof Filter) {
+            Filter f = (Filter) it;
+            chain.add(f.p);
+            it = f.child;
+        }
+        Collections.reverse(chain);
+        if (this.source != it) {
+            this.source = it;
+            this.batchChild = null;
+        }
+        this.compiled = CompiledPredicate.compile(chain.toArray(new Predicate[0]));
     }
 
     @Override
@@ -74,15 +107,37 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        while (child.hasNext()){
-            Tuple tuple = child.next();
-            if (p.filter(tuple)) {
+        while (source.hasNext()){
+            Tuple tuple = source.next();
+            if (compiled.test(tuple)) {
                 return tuple;
             }
         }
         return null;
     }
 
+    /**
+     * Reads batches from the operator below the chain of Filters and removes
+     * the rows that do not pass every predicate from their selection vectors.
+     *
+     * @return The next batch with at least one row passing the filter, or
+     *         null if there are no more
+     * @see CompiledPredicate#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batchChild == null) {
+            batchChild = BatchOpIterator.of(source);
+        }
+        BatchOpIterator in = batchChild;
+        TupleBatch batch;
+        while ((batch = in.nextBatch()) != null) {
+            if (compiled.filter(batch) > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -99,6 +154,8 @@ public class Filter extends Operator {
         */
         if (children.length == 1) {
             this.child = children[0];
+            this.batchChild = null;
+            this.source = null;
         }
     }
 
@@ -0,0 +1,144 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.SlotPredicate;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FusedPipeline is a chain of {@link Filter}s and {@link Project}s over a
+ * {@link SeqScan} of a {@link HeapFile}, compiled into a single loop over
+ * the slots of the pages of the file. The predicates of the Filters are
+ * rewritten to refer to the fields of the scanned tuples and compiled, with
+ * those pushed down into the scan, into one {@link SlotPredicate}, which
+ * is tested before a slot is decoded, and the Projects into a map from their
+ * output fields to those of the scanned tuples. The loop passes the tuples
+ * of the pages that satisfy the predicates straight to an
+ * {@link Aggregator}, so no operator of the chain is called and no
+ * projected tuple or batch is built.
+ * <p>
+ * The operators of the chain are not opened: they are only read to compile
+ * the pipeline.
+ */
+final class FusedPipeline {
+
+    // pages requested from the buffer pool at a time
+    private static final int READAHEAD_PAGES = 8;
+
+    private final SeqScan scan;
+    private final HeapFile file;
+    // null if there are no predicates
+    private final SlotPredicate predicate;
+    // the field of the scanned tuples that each field at the top of the
+    // chain is
+    private final int[] fields;
+
+    private FusedPipeline(SeqScan scan, HeapFile file, SlotPredicate predicate, int[] fields) {
+        this.scan = scan;
+        this.file = file;
+        this.predicate = predicate;
+        this.fields = fields;
+    }
+
+    /**
+     * Compiles the chain of operators below and including top.
+     *
+     * @return the compiled pipeline, or null if top is not a chain of
+     *         Filters and Projects over a SeqScan of a HeapFile
+     */
+    static FusedPipeline compile(OpIterator top) {
+        List<OpIterator> chain = new ArrayList<>();
+        OpIterator it = top;
+        while (it instanceof Filter || it instanceof Project) {
+            chain.add(it);
+            it = ((Operator) it).getChildren()[0];
+        }
+        // a ParallelSeqScan reads with several threads, and a runtime filter
+        // is applied by the scan itself
+        if (it == null || it.getClass() != SeqScan.class || ((SeqScan) it).hasRuntimeFilter()) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) it;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof HeapFile)) {
+            return null;
+        }
+
+        // walk up from the scan, rewriting each predicate and projection in
+        // terms of the fields of the scanned tuples, which are read whole
+        // from the pages even if the scan returns only some of them
+        int[] fields = new int[scan.getTupleDesc().numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = scan.tableField(i);
+        }
+        List<Predicate> predicates = new ArrayList<>(scan.getPushedPredicates());
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            OpIterator op = chain.get(i);
+            if (op instanceof Filter) {
+                Predicate p = ((Filter) op).getPredicate();
+                predicates.add(new Predicate(fields[p.getField()], p.getOp(), p.getOperand()));
+            } else {
+                int[] ids = ((Project) op).fieldIds();
+                int[] projected = new int[ids.length];
+                for (int j = 0; j < ids.length; j++) {
+                    projected[j] = fields[ids[j]];
+                }
+                fields = projected;
+            }
+        }
+        SlotPredicate predicate = predicates.isEmpty() ? null
+                : new SlotPredicate(file.getTupleDesc(), predicates.toArray(new Predicate[0]));
+        return new FusedPipeline(scan, (HeapFile) file, predicate, fields);
+    }
+
+    /**
+     * @param field a field of the tuples at the top of the chain
+     * @return the field of the scanned tuples it is
+     */
+    int scanField(int field) {
+        return this.fields[field];
+    }
+
+    /**
+     * Runs the pipeline, merging each scanned tuple that satisfies the
+     * predicates into agg, which must read the fields of the scanned tuples
+     * (see {@link #scanField}). Only the pages the scan reads are looped
+     * over (see {@link SeqScan#part}).
+     */
+    void run(Aggregator agg) throws TransactionAbortedException, DbException {
+        int numPages = this.file.numPages();
+        int endPage = this.scan.endPage(numPages);
+        int tableId = this.file.getId();
+        TransactionId tid = this.scan.getTransactionId();
+        SlotPredicate p = this.predicate;
+        List<PageId> pids = new ArrayList<>(READAHEAD_PAGES);
+        for (int first = this.scan.firstPage(numPages); first < endPage; first += READAHEAD_PAGES) {
+            pids.clear();
+            for (int pageNo = first; pageNo < Math.min(endPage, first + READAHEAD_PAGES); pageNo++) {
+                pids.add(new HeapPageId(tableId, pageNo));
+            }
+            for (Page page : Database.getBufferPool().getPages(tid, pids, Permissions.READ_ONLY)) {
+                HeapPage hp = (HeapPage) page;
+                int slots = hp.getNumSlots();
+                for (int i = 0; i < slots; i++) {
+                    Tuple t = p == null ? hp.getTuple(i) : hp.getTuple(i, p);
+                    if (t != null) {
+                        agg.mergeTupleIntoGroup(t);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * GroupHashTable numbers the distinct group-by values seen by an aggregator:
+ * the first distinct value is group 0, the next group 1 and so on, so that
+ * the aggregate state of each group can be kept in primitive arrays indexed
+ * by group number (see {@link Accumulator}).
+ * <p>
+ * It is an open-addressing table with linear probing. INT_TYPE keys are kept
+ * as primitive ints; other keys are kept as the Field of the first tuple of
+ * the group along with its hash code, which is compared before calling
+ * equals. Looking up a key that is already present allocates nothing.
+ */
+final class GroupHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    private final boolean intKeys;
+    // group number + 1 of the key hashed to each slot, 0 if the slot is empty
+    private int[] slots;
+    private int mask;
+    // the key and the hash of each group, by group number
+    private int[] ints;
+    private Field[] fields;
+    private int[] hashes;
+    private int size;
+
+    /**
+     * @param keyType the type of the group-by field
+     */
+    GroupHashTable(Type keyType) {
+        this.intKeys = keyType == Type.INT_TYPE;
+        clear();
+    }
+
+    /**
+     * Forgets every group.
+     */
+    void clear() {
+        slots = new int[INITIAL_GROUPS * 2];
+        mask = slots.length - 1;
+        if (intKeys) {
+            ints = new int[INITIAL_GROUPS];
+        } else {
+            fields = new Field[INITIAL_GROUPS];
+            hashes = new int[INITIAL_GROUPS];
+        }
+        size = 0;
+    }
+
+    /**
+     * @return the number of groups
+     */
+    int size() {
+        return size;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot holding the group of the non-INT_TYPE key, or the
+     *         empty slot where it would be inserted
+     */
+    private int slotOf(Field key, int h) {
+        int slot = mix(h) & mask;
+        while (slots[slot] != 0) {
+            int g = slots[slot] - 1;
+            if (hashes[g] == h && fields[g].equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the slot holding the group of the INT_TYPE key, or the empty
+     *         slot where it would be inserted
+     */
+    private int slotOf(int key) {
+        int slot = mix(key) & mask;
+        while (slots[slot] != 0) {
+            if (ints[slots[slot] - 1] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the group number of key, or -1 if key has not been seen
+     */
+    int find(Field key) {
+        if (intKeys) {
+            return slots[slotOf(((IntField) key).getValue())] - 1;
+        }
+        return slots[slotOf(key, key.hashCode())] - 1;
+    }
+
+    /**
+     * @return the group number of key, adding a new group if key has not
+     *         been seen
+     */
+    int groupOf(Field key) {
+        if (intKeys) {
+            return groupOf(((IntField) key).getValue());
+        }
+        int h = key.hashCode();
+        int slot = slotOf(key, h);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if (size == fields.length) {
+            fields = Arrays.copyOf(fields, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        fields[size] = key;
+        hashes[size] = h;
+        return insert(slot);
+    }
+
+    /**
+     * @return the group number of the INT_TYPE key, adding a new group if
+     *         key has not been seen
+     */
+    int groupOf(int key) {
+        int slot = slotOf(key);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if (size == ints.length) {
+            ints = Arrays.copyOf(ints, size * 2);
+        }
+        ints[size] = key;
+        return insert(slot);
+    }
+
+    /**
+     * Makes the empty slot point to a new group, whose key has been stored,
+     * and grows the table if it is more than half full.
+     */
+    private int insert(int slot) {
+        int g = size++;
+        slots[slot] = g + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return g;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int g = 0; g < size; g++) {
+            int slot = mix(intKeys ? ints[g] : hashes[g]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = g + 1;
+        }
+    }
+
+    /**
+     * @return the group-by value of group g
+     */
+    Field key(int g) {
+        if (g < 0 || g >= size) {
+            throw new IndexOutOfBoundsException("no group " + g);
+        }
+        return intKeys ? new IntField(ints[g]) : fields[g];
+    }
+}
@@ -2,27 +2,98 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. It builds a hash table on the left
+ * (outer) relation and probes it with the right (inner) relation, which is
+ * read once. If the left relation has more tuples than the memory budget,
+ * both relations are partitioned by the hash of their join field: partition
+ * 0 of the left relation stays in memory and is joined while the right
+ * relation is read, and the other partitions are written to
+ * {@link SpillFile}s and joined one pair at a time afterwards. Partitions
+ * that are still too large are partitioned again, with a different hash.
+ * <p>
+ * If the left relation fits in memory and the right one is read by a
+ * {@link SeqScan}, possibly below filters, the keys of the hash table are
+ * handed to the scan as a {@link BloomFilter} once they are known, and the
+ * scan drops the right tuples that cannot match.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
+    private final int maxBuildTuples;
+    private boolean runtimeFilterEnabled = true;
+
+    /** Number of partitions the relations are split into when they spill. */
+    public static final int FANOUT = 16;
+
+    /**
+     * Number of times a partition may be partitioned again. A partition that
+     * is still too large after that (e.g. a single key with many tuples) is
+     * joined a memory budget at a time, reading its right side once per
+     * budget.
+     */
+    static final int MAX_LEVELS = 3;
+
+    // a pair of spilled partitions to join, and how often they were partitioned
+    private static final class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+    }
+
+    // build side: the hash table and, once spilling, the spilled partitions
+    transient private int mapSize = 0;
+    transient private boolean spilled = false;
+    // true while partition 0 of the first partitioning is in the hash table
+    transient private boolean memPartition = false;
+    transient private SpillFile[] buildParts = null;
+    transient private SpillFile[] probeParts = null;
+    transient private Deque<Partition> pending = null;
+    transient private Partition current = null;
+    transient private DbFileIterator currentBuild = null;
+    transient private DbFileIterator currentProbe = null;
+    transient private TupleBatch spillBatch = null;
+
+    // state of nextBatch(): the probe batch being read, the position in its
+    // selection vector, and the build tuples still to be joined with the
+    // probe row at probePos - 1
+    transient private BatchOpIterator batchChild2 = null;
+    transient private TupleBatch out = null;
+    transient private TupleBatch probeBatch = null;
+    transient private int probePos = 0;
+    transient private List<Tuple> matches = null;
+    transient private int matchPos = 0;
+    transient private boolean done = false;
+
+    // state of fetchNext(), which returns the rows of nextBatch() one by one
+    transient private TupleBatch tupleBatch = null;
+    transient private int tuplePos = 0;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -31,9 +102,29 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param maxBuildTuples
+     *            the maximum number of left tuples held in memory
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxBuildTuples) {
+        if (maxBuildTuples < 1) {
+            throw new IllegalArgumentException("memory budget must be at least one tuple");
+        }
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.maxBuildTuples = maxBuildTuples;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -44,7 +135,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,49 +145,402 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
+
+    /** @return the maximum number of left tuples held in memory */
+    public int getMaxBuildTuples() {
+        return maxBuildTuples;
+    }
+
+    /**
+     * Sets whether the keys of the hash table are handed to the scan of the
+     * right relation (on by default).
+     */
+    public void setRuntimeFilterEnabled(boolean enabled) {
+        this.runtimeFilterEnabled = enabled;
+    }
+
+    /** @return true if the last build did not fit in memory */
+    public boolean hasSpilled() {
+        return spilled;
+    }
+
     final Map<Object, List<Tuple>> map = new HashMap<>();
+    /** Default number of left tuples held in memory. */
     public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    /** @return the partition of key after level + 1 partitionings */
+    private static int partition(Field key, int level) {
+        int h = key.hashCode() ^ (level * 0x5bd1e995);
+        h *= 0x9E3779B1;
+        h ^= h >>> 15;
+        return Math.floorMod(h, FANOUT);
+    }
+
+    private void addToMap(Tuple t) {
+        map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+        mapSize++;
+    }
+
+    private static void spill(SpillFile[] parts, int p, TupleDesc td, Tuple t) throws DbException {
+        try {
+            if (parts[p] == null) {
+                parts[p] = new SpillFile(td);
+            }
+            parts[p].add(t);
+        } catch (IOException e) {
+            throw new DbException("cannot spill join partition: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the left relation into the hash table, partitioning it as soon
+     * as it exceeds the memory budget.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        deleteSpillFiles();
         map.clear();
+        mapSize = 0;
+        spilled = false;
+        TupleDesc td = child1.getTupleDesc();
+        int field1 = pred.getField1();
         while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            Tuple t = child1.next();
+            if (!spilled) {
+                addToMap(t);
+                if (mapSize > maxBuildTuples) {
+                    startSpilling();
+                }
+            } else {
+                int p = partition(t.getField(field1), 0);
+                if (p == 0 && memPartition) {
+                    addToMap(t);
+                    if (mapSize > maxBuildTuples) {
+                        spillMemPartition();
+                    }
+                } else {
+                    spill(buildParts, p, td, t);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the scan the right tuples come from, through filters and the
+     *         wrappers of EXPLAIN ANALYZE, or null if they come from another
+     *         operator
+     */
+    private SeqScan probeScan() {
+        OpIterator it = child2;
+        while (it instanceof Filter || it instanceof ProfiledOpIterator) {
+            it = it instanceof Filter ? ((Filter) it).getChildren()[0]
+                    : ((ProfiledOpIterator) it).getOperator();
+        }
+        if (it instanceof SeqScan) {
+            return (SeqScan) it;
+        }
+        return null;
+    }
+
+    /**
+     * Hands the keys of the hash table to the scan of the right relation, if
+     * every left tuple is in the table; the scan has not read any tuple yet.
+     */
+    private void publishRuntimeFilter() {
+        SeqScan scan = probeScan();
+        if (scan == null) {
+            return;
+        }
+        if (spilled || !runtimeFilterEnabled) {
+            scan.setRuntimeFilter(0, null);
+            return;
+        }
+        BloomFilter filter = new BloomFilter(map.size());
+        for (Object key : map.keySet()) {
+            filter.add((Field) key);
+        }
+        scan.setRuntimeFilter(pred.getField2(), filter);
+    }
+
+    /** Keeps partition 0 of the hash table in memory and spills the rest. */
+    private void startSpilling() throws DbException {
+        spilled = true;
+        memPartition = true;
+        buildParts = new SpillFile[FANOUT];
+        probeParts = new SpillFile[FANOUT];
+        pending = new ArrayDeque<>();
+        TupleDesc td = child1.getTupleDesc();
+        Iterator<Map.Entry<Object, List<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, List<Tuple>> e = it.next();
+            int p = partition((Field) e.getKey(), 0);
+            if (p != 0) {
+                for (Tuple t : e.getValue()) {
+                    spill(buildParts, p, td, t);
+                }
+                mapSize -= e.getValue().size();
+                it.remove();
+            }
+        }
+        if (mapSize > maxBuildTuples) {
+            spillMemPartition();
+        }
+    }
+
+    /** Spills partition 0 too, when it alone exceeds the memory budget. */
+    private void spillMemPartition() throws DbException {
+        TupleDesc td = child1.getTupleDesc();
+        for (List<Tuple> l : map.values()) {
+            for (Tuple t : l) {
+                spill(buildParts, 0, td, t);
+            }
+        }
+        map.clear();
+        mapSize = 0;
+        memPartition = false;
+    }
+
+    private void deleteSpillFiles() {
+        for (SpillFile[] parts : new SpillFile[][] { buildParts, probeParts }) {
+            if (parts != null) {
+                for (SpillFile f : parts) {
+                    if (f != null) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+        buildParts = null;
+        probeParts = null;
+        if (pending != null) {
+            for (Partition q : pending) {
+                q.build.delete();
+                q.probe.delete();
+            }
+            pending = null;
+        }
+        finishPartition();
+    }
+
+    private void finishPartition() {
+        if (currentBuild != null) {
+            currentBuild.close();
+            currentBuild = null;
+        }
+        if (currentProbe != null) {
+            currentProbe.close();
+            currentProbe = null;
+        }
+        if (current != null) {
+            current.build.delete();
+            current.probe.delete();
+            current = null;
+        }
+    }
+
+    /**
+     * Called when the right relation has been read: queues every pair of
+     * spilled partitions that can produce matches.
+     */
+    private void queuePartitions() {
+        for (int p = 0; p < FANOUT; p++) {
+            if (buildParts[p] != null && probeParts[p] != null) {
+                pending.add(new Partition(buildParts[p], probeParts[p], 0));
+            } else if (buildParts[p] != null) {
+                buildParts[p].delete();
+            } else if (probeParts[p] != null) {
+                probeParts[p].delete();
+            }
+        }
+        buildParts = null;
+        probeParts = null;
+        map.clear();
+        mapSize = 0;
+    }
+
+    /**
+     * Makes the next queued partition current, partitioning it again first
+     * if it does not fit in memory, and loads (the first part of) its left
+     * side into the hash table.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        finishPartition();
+        while (!pending.isEmpty()) {
+            Partition q = pending.poll();
+            if (q.build.size() > maxBuildTuples && q.level < MAX_LEVELS) {
+                repartition(q);
+                continue;
+            }
+            current = q;
+            try {
+                currentBuild = q.build.iterator();
+                currentProbe = q.probe.iterator();
+            } catch (IOException e) {
+                throw new DbException("cannot read join partition: " + e.getMessage());
+            }
+            currentBuild.open();
+            currentProbe.open();
+            loadChunk();
+            return true;
+        }
+        return false;
+    }
+
+    /** Loads up to the memory budget of left tuples of the current partition. */
+    private void loadChunk() throws DbException, TransactionAbortedException {
+        map.clear();
+        mapSize = 0;
+        while (mapSize < maxBuildTuples && currentBuild.hasNext()) {
+            addToMap(currentBuild.next());
+        }
+    }
+
+    /** Splits a pair of spilled partitions with the hash of the next level. */
+    private void repartition(Partition q) throws DbException, TransactionAbortedException {
+        int level = q.level + 1;
+        SpillFile[] build = new SpillFile[FANOUT];
+        SpillFile[] probe = new SpillFile[FANOUT];
+        try {
+            DbFileIterator it = q.build.iterator();
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                spill(build, partition(t.getField(pred.getField1()), level), q.build.getTupleDesc(), t);
+            }
+            it.close();
+            it = q.probe.iterator();
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                spill(probe, partition(t.getField(pred.getField2()), level), q.probe.getTupleDesc(), t);
+            }
+            it.close();
+        } catch (IOException e) {
+            throw new DbException("cannot read join partition: " + e.getMessage());
+        } finally {
+            q.build.delete();
+            q.probe.delete();
+        }
+        for (int p = 0; p < FANOUT; p++) {
+            if (build[p] != null && probe[p] != null) {
+                pending.push(new Partition(build[p], probe[p], level));
+            } else if (build[p] != null) {
+                build[p].delete();
+            } else if (probe[p] != null) {
+                probe[p].delete();
+            }
         }
-        return cnt > 0;
+    }
 
+    /**
+     * Returns the next batch of right tuples to probe the hash table with:
+     * first from the right child, then from the spilled partitions. While
+     * the right child is read, rows that belong to spilled partitions are
+     * written out and removed from the batch.
+     *
+     * @return the next batch, or null if there are no more right tuples
+     */
+    private TupleBatch nextProbeBatch() throws DbException, TransactionAbortedException {
+        int field2 = pred.getField2();
+        while (current == null) {
+            TupleBatch b = batchChild2.nextBatch();
+            if (b == null) {
+                if (!spilled) {
+                    return null;
+                }
+                queuePartitions();
+                if (!nextPartition()) {
+                    return null;
+                }
+                break;
+            }
+            if (!spilled) {
+                return b;
+            }
+            // keep the rows of the in-memory partition, spill the others
+            Field[] keys = b.column(field2);
+            int[] sel = b.selection();
+            int kept = 0;
+            for (int i = 0; i < b.numSelected(); i++) {
+                int row = sel[i];
+                int p = partition(keys[row], 0);
+                if (p == 0 && memPartition) {
+                    sel[kept++] = row;
+                } else if (buildParts[p] != null) {
+                    spill(probeParts, p, b.getTupleDesc(), b.getTuple(row));
+                }
+            }
+            b.setNumSelected(kept);
+            if (kept > 0) {
+                return b;
+            }
+        }
+        if (spillBatch == null) {
+            spillBatch = new TupleBatch(child2.getTupleDesc());
+        }
+        while (true) {
+            spillBatch.clear();
+            while (!spillBatch.isFull() && currentProbe.hasNext()) {
+                spillBatch.addTuple(currentProbe.next());
+            }
+            if (spillBatch.numRows() > 0) {
+                return spillBatch;
+            }
+            if (currentBuild.hasNext()) {
+                // the partition did not fit: join its next part
+                loadChunk();
+                currentProbe.rewind();
+            } else if (!nextPartition()) {
+                return null;
+            }
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build();
+        publishRuntimeFilter();
+        done = false;
+        resetBatchState();
         super.open();
     }
 
+    private void resetBatchState() {
+        probeBatch = null;
+        probePos = 0;
+        matches = null;
+        matchPos = 0;
+        tupleBatch = null;
+        tuplePos = 0;
+    }
+
     public void close() {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
+        SeqScan scan = probeScan();
+        if (scan != null) {
+            scan.setRuntimeFilter(0, null);
+        }
+        deleteSpillFiles();
         this.map.clear();
+        this.out=null;
+        this.spillBatch=null;
+        resetBatchState();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        build();
+        publishRuntimeFilter();
+        done = false;
+        resetBatchState();
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -111,53 +555,69 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        while (tupleBatch == null || tuplePos == tupleBatch.numSelected()) {
+            tupleBatch = nextBatch();
+            tuplePos = 0;
+            if (tupleBatch == null) {
+                return null;
+            }
         }
+        return tupleBatch.getTuple(tupleBatch.selection()[tuplePos++]);
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+    /**
+     * Returns the next batch of joined rows, in the same order as
+     * {@link #fetchNext()}. The right (inner) relation is read a batch at a
+     * time and probed against the hash table built from the left relation.
+     *
+     * @return The next batch of joined rows, or null if there are no more.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null) {
+            out = new TupleBatch(comboTD);
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        if (batchChild2 == null) {
+            batchChild2 = BatchOpIterator.of(child2);
         }
-
-        return null;
+        out.clear();
+        int field2 = pred.getField2();
+        while (!done && !out.isFull()) {
+            if (matches != null) {
+                // finish the probe row at probePos - 1
+                int row = probeBatch.selection()[probePos - 1];
+                while (matchPos < matches.size() && !out.isFull()) {
+                    out.addJoined(matches.get(matchPos++), probeBatch, row);
+                }
+                if (matchPos < matches.size()) {
+                    break;
+                }
+                matches = null;
+            }
+            if (probeBatch == null || probePos == probeBatch.numSelected()) {
+                probeBatch = nextProbeBatch();
+                probePos = 0;
+                if (probeBatch == null) {
+                    done = true;
+                    break;
+                }
+            }
+            Field[] keys = probeBatch.column(field2);
+            int[] sel = probeBatch.selection();
+            while (probePos < probeBatch.numSelected()) {
+                List<Tuple> l = map.get(keys[sel[probePos++]]);
+                if (l != null) {
+                    matches = l;
+                    matchPos = 0;
+                    break;
+                }
+            }
+        }
+        return out.numRows() == 0 ? null : out;
     }
 
     @Override
@@ -169,6 +629,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.batchChild2 = null;
     }
-    
+
 }
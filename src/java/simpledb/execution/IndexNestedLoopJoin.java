@@ -0,0 +1,239 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins an outer input with a table that has a B+ tree
+ * on its join field. Instead of scanning the inner table once per outer
+ * tuple as {@link Join} does, it looks up the matching inner tuples of each
+ * outer tuple with {@link BTreeFile#indexIterator}. Outer tuples are read in
+ * blocks and each block is probed in ascending key order, so that probes for
+ * nearby keys go down the same internal pages and read the same leaf pages
+ * while they are still in the buffer pool.
+ * <p>
+ * The inner table is given as a {@link SeqScan}, which is never opened; it
+ * supplies the table, the transaction and the field names. EQUALS and the
+ * range operators are supported; NOT_EQUALS and LIKE cannot use the index.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of outer tuples probed in key order at a time. */
+    public static final int DEFAULT_BLOCK_TUPLES = 1024;
+
+    private final JoinPredicate pred;
+    private OpIterator child1;
+    private SeqScan child2;
+    private final int blockTuples;
+    private final TupleDesc comboTD;
+
+    private transient BTreeFile index;
+    // the current block of outer tuples, sorted on the join field
+    private transient List<Tuple> block;
+    private transient int blockPos;
+    // the outer tuple being probed, and the inner tuples matching it
+    private transient Tuple outerTuple;
+    private transient DbFileIterator probe;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Scan of the right(inner) table, which must be stored in a
+     *            BTreeFile keyed on the join field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_TUPLES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Scan of the right(inner) table, which must be stored in a
+     *            BTreeFile keyed on the join field
+     * @param blockTuples
+     *            the number of outer tuples sorted and probed together
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan child2, int blockTuples) {
+        if (!canProbe(p.getOperator())) {
+            throw new IllegalArgumentException("an index cannot evaluate " + p.getOperator());
+        }
+        if (blockTuples < 1) {
+            throw new IllegalArgumentException("block must hold at least one tuple");
+        }
+        if (!isIndexedOn(child2, p.getField2())) {
+            throw new IllegalArgumentException("table " + child2.getTableName()
+                    + " has no B+ tree on field " + p.getField2());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockTuples = blockTuples;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if an index lookup can find the tuples matching op
+     */
+    public static boolean canProbe(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return true if the table scanned by scan is a BTreeFile keyed on field
+     */
+    public static boolean isIndexedOn(SeqScan scan, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    /**
+     * @return the operator op' such that "a op b" holds iff "b op' a" does
+     */
+    private static Predicate.Op swap(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        index = (BTreeFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+        child1.open();
+        block = new ArrayList<>();
+        blockPos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        endProbe();
+        child1.close();
+        block = null;
+        index = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        endProbe();
+        child1.rewind();
+        block.clear();
+        blockPos = 0;
+    }
+
+    private void endProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        outerTuple = null;
+    }
+
+    /**
+     * Reads the next block of outer tuples and sorts it on the join field.
+     *
+     * @return false if the outer input is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        blockPos = 0;
+        while (block.size() < blockTuples && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        block.sort(ExternalSort.byField(pred.getField1(), true));
+        return !block.isEmpty();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(td1n + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. A result tuple is a left tuple followed by a right tuple;
+     * within a block of outer tuples, results come in ascending order of the
+     * outer join field.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        Predicate.Op op = swap(pred.getOperator());
+        while (true) {
+            if (probe != null && probe.hasNext()) {
+                return merge(outerTuple, probe.next());
+            }
+            endProbe();
+            if (blockPos >= block.size() && !nextBlock()) {
+                return null;
+            }
+            outerTuple = block.get(blockPos++);
+            probe = index.indexIterator(child2.getTransactionId(),
+                    new IndexPredicate(op, outerTuple.getField(pred.getField1())));
+            probe.open();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = (SeqScan) children[1];
+    }
+}
@@ -1,7 +1,7 @@
 package simpledb.execution;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import simpledb.common.DbException;
@@ -9,28 +9,57 @@ import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Several aggregates may be computed in the same pass, each a (field,
+ * operator) pair: the groups are numbered once per row by a shared
+ * {@link GroupHashTable}, and each aggregate keeps its own
+ * {@link Accumulator}. COUNT does not read its field, so it may count a
+ * field of any type.
+ * <p>
+ * At most maxGroups groups are held in memory. Once that many groups have
+ * been seen, rows of further groups are hash-partitioned to temporary files
+ * ({@link AggregateSpill}) and each partition is aggregated on its own when
+ * the results are iterated over.
+ * <p>
+ * SUM_COUNT returns the sum and the count of each group, in two fields.
+ * SC_AVG reads such pairs, with the sum in the aggregate field and the count
+ * in the field after it, and returns the average of each group.
  */
 public class IntegerAggregator implements Aggregator {
     private final int gbfield;
     private final Type gbfieldtype;
-    private int afield;
-    private Op what;
+    private final int[] afields;
+    private final Op[] whats;
 
-    protected Map<Field, Integer> gbHash;
-    protected Map<Field, int[]> gbAvgHash;
-    private Field nonGbKey;
+    /** Default number of groups held in memory. */
+    public static final int DEFAULT_MAX_GROUPS = 100000;
+
+    private final int maxGroups;
+    // the number of times the input rows have been spilled already
+    private final int level;
+
+    // numbers the groups; null if there is no grouping, with a single group 0
+    private final GroupHashTable groups;
+    // the state of each aggregate, by group number
+    private final Accumulator[] accs;
+    // rows of the groups that did not fit in memory, or null
+    private AggregateSpill spill;
+    // the schema of spilled rows, and the field of each aggregate in them
+    private final TupleDesc spillTd;
+    private final int[] spillFields;
 
     private static final long serialVersionUID = 1L;
 
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -44,149 +73,309 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, what, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Aggregate constructor with an explicit memory budget.
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            the aggregation operator
+     * @param maxGroups
+     *            the maximum number of groups held in memory
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups) {
+        this(gbfield, gbfieldtype, new int[] { afield }, new Op[] { what }, maxGroups, 0);
+    }
+
+    /**
+     * Constructor for several aggregates computed in one pass.
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afields
+     *            the 0-based index of the field of each aggregate
+     * @param whats
+     *            the operator of each aggregate
+     * @param maxGroups
+     *            the maximum number of groups held in memory
+     * @throws IllegalArgumentException if afields and whats are empty or do
+     *             not have the same length
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int[] afields, Op[] whats, int maxGroups) {
+        this(gbfield, gbfieldtype, afields, whats, maxGroups, 0);
+    }
+
+    private IntegerAggregator(int gbfield, Type gbfieldtype, int[] afields, Op[] whats,
+                              int maxGroups, int level) {
         //some code goes here
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("memory budget must be at least one group");
+        }
+        if (afields.length == 0 || afields.length != whats.length) {
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        }
         this.gbfield = gbfield; //grouping of groupby field
         this.gbfieldtype = gbfieldtype; //type of groupby field
-        this.afield = afield; //aggregate field number
-        this.what = what; //sql opperand function
-        this.gbHash = new HashMap<>(); //stores a hashmap of the field and its value
-        this.gbAvgHash = new HashMap<>();
-        this.nonGbKey = null;
+        this.afields = afields.clone(); //aggregate field numbers
+        this.whats = whats.clone(); //sql opperand functions
+        this.maxGroups = maxGroups;
+        this.level = level;
+        this.groups = gbfield == Aggregator.NO_GROUPING ? null : new GroupHashTable(gbfieldtype);
+        this.accs = new Accumulator[whats.length];
+        for (int i = 0; i < whats.length; i++) {
+            this.accs[i] = new Accumulator(whats[i]);
+        }
+        // spilled rows are the group-by field followed by the value of each
+        // aggregate (and its count for SC_AVG); COUNT needs no value, so it
+        // is pointed at the group-by field
+        List<Type> types = new ArrayList<>();
+        types.add(gbfieldtype);
+        this.spillFields = new int[whats.length];
+        for (int i = 0; i < whats.length; i++) {
+            if (whats[i] == Op.COUNT) {
+                continue;
+            }
+            spillFields[i] = types.size();
+            types.add(Type.INT_TYPE);
+            if (whats[i] == Op.SC_AVG) {
+                types.add(Type.INT_TYPE);
+            }
+        }
+        this.spillTd = gbfield == Aggregator.NO_GROUPING ? null
+                : new TupleDesc(types.toArray(new Type[0]));
+    }
+
+    /**
+     * @return true if some groups did not fit in memory
+     */
+    public boolean hasSpilled() {
+        return spill != null;
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        //first must check for grouping 
+        //first must check for grouping
         Field curGbField;
-        IntField curAgField;
-        int curCountVal;
-        int curSumVal;
-        int curMaxVal;
-        int curMinVal;
 
         if (gbfield ==Aggregator.NO_GROUPING) {
             curGbField = null;
         } else {
             curGbField = tup.getField(gbfield);
         }
-        //get the column
-        curAgField = (IntField) tup.getField(afield);
-        //get value from column
-        Integer curVal = curAgField.getValue();
-
-        switch (this.what) {
-            case MAX: //check if field exists in gbHash, if does not exist insert into the hash
-                if (!gbHash.containsKey(curGbField)) {
-                    gbHash.put(curGbField, curVal);
-                } else { 
-                    curMaxVal = gbHash.get(curGbField);
-                    //compare curVal and curMaxVal, insert larger value into gbHash
-                    gbHash.put(curGbField, Math.max(curMaxVal, curVal));
-                }
-                return;
-
-            case SUM:
-                if (!gbHash.containsKey(curGbField)) {
-                    gbHash.put(curGbField, curVal);
-                } else {
-                    curSumVal = gbHash.get(curGbField);
-                    gbHash.put(curGbField, curSumVal + curVal);
-                }
+        int g = groupOf(curGbField);
+        if (g < 0) {
+            Tuple row = spillRow(curGbField);
+            for (int i = 0; i < afields.length; i++) {
+                Field count = whats[i] == Op.SC_AVG ? tup.getField(afields[i] + 1) : null;
+                spillValue(row, i, tup.getField(afields[i]), count);
+            }
+            spill.add(curGbField, row);
             return;
+        }
+        //get the columns
+        for (int i = 0; i < afields.length; i++) {
+            Field count = whats[i] == Op.SC_AVG ? tup.getField(afields[i] + 1) : null;
+            merge(i, g, tup.getField(afields[i]), count);
+        }
+    }
 
-            case COUNT:
-                if (!gbHash.containsKey(curGbField)){
-                    gbHash.put(curGbField, 1);
-                } else {
-                    curCountVal = gbHash.get(curGbField);
-                    gbHash.put(curGbField, curCountVal +1);
+    /**
+     * Merge every selected row of a batch into the aggregate, reading the
+     * group-by and aggregate columns directly.
+     *
+     * @param batch
+     *            rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        Field[] gbColumn = gbfield == Aggregator.NO_GROUPING ? null : batch.column(gbfield);
+        Field[][] aColumns = new Field[afields.length][];
+        Field[][] countColumns = new Field[afields.length][];
+        for (int i = 0; i < afields.length; i++) {
+            aColumns[i] = batch.column(afields[i]);
+            countColumns[i] = whats[i] == Op.SC_AVG ? batch.column(afields[i] + 1) : null;
+        }
+        int[] sel = batch.selection();
+        int n = batch.numSelected();
+        for (int r = 0; r < n; r++) {
+            int row = sel[r];
+            Field curGbField = gbColumn == null ? null : gbColumn[row];
+            int g = groupOf(curGbField);
+            if (g < 0) {
+                Tuple spilled = spillRow(curGbField);
+                for (int i = 0; i < afields.length; i++) {
+                    spillValue(spilled, i, aColumns[i][row],
+                            countColumns[i] == null ? null : countColumns[i][row]);
                 }
-            return;
+                spill.add(curGbField, spilled);
+                continue;
+            }
+            for (int i = 0; i < afields.length; i++) {
+                merge(i, g, aColumns[i][row], countColumns[i] == null ? null : countColumns[i][row]);
+            }
+        }
+    }
 
-            case MIN:
-                if (!gbHash.containsKey(curGbField)){
-                    gbHash.put(curGbField, curVal);
-                } else {
-                    curMinVal = gbHash.get(curGbField);
-                    gbHash.put(curGbField, Math.min(curMinVal, curVal));
-                }
-            return;
+    /**
+     * @return the group number of curGbField (0 if there is no grouping), or
+     *         -1 if it is a new group and memory is full
+     */
+    private int groupOf(Field curGbField) {
+        if (curGbField == null) {
+            return 0;
+        }
+        return groups.size() < maxGroups ? groups.groupOf(curGbField) : groups.find(curGbField);
+    }
 
-            case AVG:
-                if (!gbAvgHash.containsKey(curGbField)){
-                    gbAvgHash.put(curGbField, new int[]{curVal, 1});
-                } else {
-                    curSumVal = gbAvgHash.get(curGbField)[0];
-                    curCountVal = gbAvgHash.get(curGbField)[1];
-                    gbAvgHash.put(curGbField, new int[]{curSumVal + curVal, curCountVal + 1});
-                }
+    /**
+     * Merge one value into aggregate i of group g. For SC_AVG, curVal is a
+     * sum of curCount values; COUNT reads neither.
+     */
+    private void merge(int i, int g, Field curVal, Field curCount) {
+        switch (whats[i]) {
+        case COUNT:
+            accs[i].addCount(g, 1);
+            break;
+        case SC_AVG:
+            accs[i].addSumCount(g, ((IntField) curVal).getValue(), ((IntField) curCount).getValue());
+            break;
+        default:
+            accs[i].add(g, ((IntField) curVal).getValue());
+        }
+    }
+
+    /**
+     * @return a new row to spill for a group that is not held in memory,
+     *         with only its group-by field set
+     */
+    private Tuple spillRow(Field curGbField) {
+        if (spill == null) {
+            spill = new AggregateSpill(spillTd, level);
+        }
+        Tuple row = new Tuple(spillTd);
+        row.setField(0, curGbField);
+        return row;
+    }
+
+    /**
+     * Set the fields of aggregate i in a row to spill.
+     */
+    private void spillValue(Tuple row, int i, Field curVal, Field curCount) {
+        if (whats[i] == Op.COUNT) {
             return;
         }
+        row.setField(spillFields[i], curVal);
+        if (whats[i] == Op.SC_AVG) {
+            row.setField(spillFields[i] + 1, curCount);
+        }
+    }
+
+    /**
+     * @return the schema of the result tuples
+     */
+    private TupleDesc resultTupleDesc() {
+        List<Type> types = new ArrayList<>();
+        if (gbfield != Aggregator.NO_GROUPING) {
+            types.add(gbfieldtype);
+        }
+        for (Op what : whats) {
+            types.add(Type.INT_TYPE);
+            if (what == Op.SUM_COUNT) {
+                types.add(Type.INT_TYPE);
+            }
+        }
+        return new TupleDesc(types.toArray(new Type[0]));
+    }
+
+    /**
+     * @return true if there are no rows and every aggregate is a COUNT, which
+     *         is 0 over no rows while the other aggregates have no value
+     */
+    private boolean onlyCounts() {
+        for (Op what : whats) {
+            if (what != Op.COUNT) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
      * Create a OpIterator over group aggregate results.
-     * 
+     *
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor; for SUM_COUNT it is the sum followed by the
+     *         count. With several aggregates, their values follow the
+     *         groupVal in the order given to the constructor. If some groups
+     *         were spilled, closing the iterator deletes them.
      */
     public OpIterator iterator() {
         // some code goes here
 
-        return new OpIterator() {
+        OpIterator memory = new OpIterator() {
             private TupleDesc tupleDesc;
             private Tuple[] aggregateVal;
             private int current_index = 0;
 
+            /** Build the result tuple of group g, with the group-by value first. */
+            private Tuple result(Field gbField, int g) {
+                Tuple tuple = new Tuple(tupleDesc);
+                int i = 0;
+                if (gbField != null) {
+                    tuple.setField(i++, gbField);
+                }
+                for (int a = 0; a < accs.length; a++) {
+                    tuple.setField(i++, new IntField((int) accs[a].result(g)));
+                    if (whats[a] == Op.SUM_COUNT) {
+                        tuple.setField(i++, new IntField((int) accs[a].count(g)));
+                    }
+                }
+                return tuple;
+            }
+
             @Override
             public void open() throws DbException, TransactionAbortedException{
+                tupleDesc = resultTupleDesc();
                 if (gbfield == Aggregator.NO_GROUPING) {
-                    // if no grouping
-                    aggregateVal = new Tuple[1];
-                    tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE});
-                    Tuple tuple = new Tuple(tupleDesc);
-                    if (what == Op.AVG) {
-                        // if AVG, access gbAvgHash
-                        tuple.setField(0, new IntField(gbAvgHash.get(nonGbKey)[0] / gbAvgHash.get(nonGbKey)[1]));
+                    // if no grouping, a single value; COUNT of no rows is 0
+                    if (accs[0].size() == 0) {
+                        aggregateVal = new Tuple[onlyCounts() ? 1 : 0];
+                        if (onlyCounts()) {
+                            aggregateVal[0] = new Tuple(tupleDesc);
+                            for (int i = 0; i < accs.length; i++) {
+                                aggregateVal[0].setField(i, new IntField(0));
+                            }
+                        }
                     } else {
-                        // if not AVG, access gbHash
-                        tuple.setField(0, new IntField(gbHash.get(nonGbKey)));
+                        aggregateVal = new Tuple[]{result(null, 0)};
                     }
-                    aggregateVal[0] = tuple;
                 } else {
-                    // if there's grouping
-                    if (what == Op.AVG) {
-                        aggregateVal = new Tuple[gbAvgHash.size()];
-                        tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
-                        int i = 0;
-                        for (Field gbField: gbAvgHash.keySet()) {
-                            Tuple tuple = new Tuple(tupleDesc);
-                            tuple.setField(0, gbField);
-                            tuple.setField(1, new IntField(gbAvgHash.get(gbField)[0] / gbAvgHash.get(gbField)[1]));
-                            aggregateVal[i] = tuple;
-                            i++;
-                        }
-
-                    } else {
-                        aggregateVal = new Tuple[gbHash.size()];
-                        tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
-                        int i = 0;
-                        for (Field gbField: gbHash.keySet()) {
-                            Tuple tuple = new Tuple(tupleDesc);
-                            tuple.setField(0, gbField);
-                            tuple.setField(1, new IntField(gbHash.get(gbField)));
-                            aggregateVal[i] = tuple;
-                            i++;
-                        }
+                    // if there's grouping, one tuple per group in the order
+                    // the groups were first seen
+                    aggregateVal = new Tuple[groups.size()];
+                    for (int g = 0; g < aggregateVal.length; g++) {
+                        aggregateVal[g] = result(groups.key(g), g);
                     }
                 }
             }
@@ -224,9 +413,14 @@ public class IntegerAggregator implements Aggregator {
             public TupleDesc getTupleDesc() {
                 return tupleDesc;
             }
-            
+
         };
 
+        if (spill == null) {
+            return memory;
+        }
+        return spill.iterator(memory, () -> new IntegerAggregator(0, gbfieldtype, spillFields, whats,
+                maxGroups, level + 1));
     }
 
 }
@@ -1,7 +1,9 @@
 package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,12 +11,28 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loops join: the left (outer) child is read in blocks
+ * of tuples held in memory, and the right (inner) child is scanned once per
+ * block rather than once per outer tuple. It evaluates any predicate, and is
+ * the join used for the operators the hash and merge joins cannot handle.
  */
 public class Join extends Operator {
+    /** Default size of an outer block, in pages worth of outer tuples. */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+
     private final JoinPredicate p;
     private OpIterator child1;
     private OpIterator child2;
-    private Tuple tuple1;
+    // the maximum number of outer tuples per block, or 0 for DEFAULT_BLOCK_PAGES pages
+    private final int blockTuples;
+    // the current block of outer tuples, the current inner tuple and the
+    // next outer tuple to compare with it
+    private transient List<Tuple> block;
+    private transient Tuple tuple2;
+    private transient int blockPos;
+    // p, compiled against the current block
+    private transient CompiledJoinPredicate compiled;
 
     private static final long serialVersionUID = 1L;
 
@@ -31,9 +49,31 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
         // some code goes here
+        this(p, child1, child2, 0);
+    }
+
+    /**
+     * Constructor with an explicit outer block size.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockTuples
+     *            The number of outer tuples compared with each inner tuple
+     *            per scan of child2, or 0 for {@link #DEFAULT_BLOCK_PAGES}
+     *            pages worth of tuples
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockTuples) {
+        if (blockTuples < 0) {
+            throw new IllegalArgumentException("negative block size");
+        }
         this.p = p;
         this.child1 = child1;
         this.child2 =child2;
+        this.blockTuples = blockTuples;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -78,7 +118,9 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
-        tuple1 = null;
+        block = new ArrayList<>();
+        compiled = new CompiledJoinPredicate(p);
+        tuple2 = null;
     }
 
     @Override
@@ -87,20 +129,70 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
-        tuple1 = null;
+        block = null;
+        compiled = null;
+        tuple2 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        block.clear();
+        tuple2 = null;
+    }
+
+    /**
+     * @return the maximum number of outer tuples per block
+     */
+    public int getBlockTuples() {
+        if (blockTuples > 0) {
+            return blockTuples;
+        }
+        return Math.max(1, DEFAULT_BLOCK_PAGES * pageSize(child1)
+                / child1.getTupleDesc().getSize());
+    }
+
+    /**
+     * @return the page size of the table scanned below op, through operators
+     *         with a single child, or the buffer pool's page size if there is
+     *         no such table
+     */
+    private static int pageSize(OpIterator op) {
+        while (op instanceof Operator) {
+            OpIterator[] children = ((Operator) op).getChildren();
+            if (children == null || children.length != 1) {
+                return BufferPool.getPageSize();
+            }
+            op = children[0];
+        }
+        if (op instanceof SeqScan) {
+            return Database.getCatalog().getPageSize(((SeqScan) op).getTableId());
+        }
+        return BufferPool.getPageSize();
+    }
+
+    /**
+     * Reads the next block of outer tuples.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int max = getBlockTuples();
+        while (block.size() < max && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        compiled.load(block);
+        return !block.isEmpty();
     }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate. Each inner tuple is compared with every
+     * tuple of the current outer block before the next one is read, so the
+     * results of a block come in inner order.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -116,24 +208,27 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        Tuple tuple2;
         while (true) {
-            if (tuple1==null) {
-                 if (child1.hasNext()) {
-                    tuple1 = child1.next();
-                    child2.rewind();
-                } else {
+            if (block.isEmpty()) {
+                if (!nextBlock()) {
                     return null;
                 }
+                child2.rewind();
             }
 
-            while (child2.hasNext()) {
-                tuple2 = child2.next();
-                if (p.filter(tuple1, tuple2)) {
-                    return Tuple.merge(tuple1, tuple2);
+            if (tuple2 != null) {
+                blockPos = compiled.next(tuple2, blockPos);
+                if (blockPos < block.size()) {
+                    return Tuple.merge(block.get(blockPos++), tuple2);
                 }
             }
-            tuple1 = null;
+            if (child2.hasNext()) {
+                tuple2 = child2.next();
+                blockPos = 0;
+            } else {
+                tuple2 = null;
+                block.clear();
+            }
         }
     }
 
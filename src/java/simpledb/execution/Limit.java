@@ -0,0 +1,106 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit implements LIMIT ... OFFSET: it skips the first offset tuples of its
+ * child and returns at most limit of the following ones. It stops reading
+ * the child as soon as the limit is reached, so a child that produces its
+ * tuples lazily (a scan, or a B+ tree scan standing in for an ORDER BY) is
+ * read no further than needed.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int limit;
+    private final int offset;
+    private int skipped;
+    private int returned;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            The maximum number of tuples to return
+     * @param offset
+     *            The number of tuples of child to skip first
+     * @param child
+     *            The child operator
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        }
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        skipped = 0;
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        skipped = 0;
+        returned = 0;
+    }
+
+    /**
+     * Returns the next tuple of the child after the offset, or null once
+     * limit tuples have been returned or the child is exhausted.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit) {
+            return null;
+        }
+        while (skipped < offset && child.hasNext()) {
+            child.next();
+            skipped++;
+        }
+        if (!child.hasNext()) {
+            return null;
+        }
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -10,17 +11,24 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child's tuples are sorted with an {@link ExternalSort}, so inputs
+ * larger than the memory budget are sorted in runs on disk and merged. The
+ * sorted output is kept until close(), so rewind() replays it without
+ * sorting again.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
     private final int orderByField;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
     private final boolean asc;
+    private final int maxTuples;
+    private final int sortThreads;
+    private transient ExternalSort sort;
+    private transient DbFileIterator it;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,11 +41,32 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, ExternalSort.DEFAULT_MAX_TUPLES, 0);
+    }
+
+    /**
+     * Creates a new OrderBy node with an explicit memory budget.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param maxTuples
+     *            the maximum number of tuples sorted in memory at a time
+     * @param sortThreads
+     *            the number of background threads generating sorted runs,
+     *            or 0 to generate them while reading the child
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int maxTuples, int sortThreads) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.maxTuples = maxTuples;
+        this.sortThreads = sortThreads;
     }
     
     public boolean isASC()
@@ -62,21 +91,35 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
+        // sort all the tuples, spilling sorted runs if they do not fit
+        sort = new ExternalSort(td, new TupleComparator(orderByField, asc), maxTuples, sortThreads);
         while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            sort.add(child.next());
+        it = sort.iterator();
+        it.open();
         super.open();
     }
 
+    /** @return true if the tuples being returned did not fit in memory */
+    public boolean hasSpilled() {
+        return sort != null && sort.hasSpilled();
+    }
+
     public void close() {
         super.close();
-        it = null;
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        if (sort != null) {
+            sort.delete();
+            sort = null;
+        }
+        child.close();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
     }
 
     /**
@@ -86,7 +129,8 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException,
+            DbException, TransactionAbortedException {
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -0,0 +1,334 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.SlotPredicate;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelSeqScan is a sequential scan that reads a {@link HeapFile} with
+ * several worker threads. The file is cut into morsels of
+ * {@link #MORSEL_PAGES} consecutive pages, which the workers claim one at a
+ * time until none are left, so a slow worker never holds up the others. The
+ * workers hand their tuples to the consumer through a bounded queue: when the
+ * consumer falls behind they block instead of buffering the whole table.
+ * <p>
+ * Every worker reads its pages through the BufferPool as the scan's
+ * transaction, so pages are locked exactly as they are by {@link SeqScan}.
+ * The workers test the pushed down predicates against the bytes of each
+ * slot; the consumer applies the runtime filter and keeps the returned
+ * fields of each row. Tuples are returned in no particular order. Tables
+ * that are not stored in a HeapFile are scanned by a single thread, as by
+ * SeqScan.
+ */
+public class ParallelSeqScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages a worker claims at a time. */
+    public static final int MORSEL_PAGES = 16;
+
+    /** Number of tuples a worker passes to the consumer at a time. */
+    private static final int CHUNK_TUPLES = 256;
+
+    /** Number of chunks the queue holds per worker before workers block. */
+    private static final int QUEUE_CHUNKS_PER_WORKER = 4;
+
+    // put on the queue by each worker when it has no more morsels
+    private static final List<Tuple> END = Collections.emptyList();
+
+    private final TransactionId tid;
+    private final int parallelism;
+
+    private transient ExecutorService workers;
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient AtomicInteger nextPage;
+    private transient AtomicReference<Throwable> failure;
+    private transient volatile boolean cancelled;
+    private transient int numWorkers;
+    private transient int finished;
+    private transient List<Tuple> chunk;
+    private transient int pos;
+    // the next row to return, taken from the chunk and projected
+    private transient Tuple current;
+    private transient TupleBatch batch;
+    // set when the table is not a HeapFile and SeqScan does the work
+    private transient boolean serial;
+
+    /**
+     * Creates a parallel scan using one worker per available processor.
+     *
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a parallel scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}
+     * @param parallelism
+     *            the maximum number of worker threads
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int parallelism) {
+        this(tid, tableid, tableAlias, null, parallelism);
+    }
+
+    /**
+     * Creates a parallel scan that returns only some of the fields of the
+     * table.
+     *
+     * @param columns
+     *            the field of the table that each returned field is, in the
+     *            order they are returned, or null to return every field
+     * @param parallelism
+     *            the maximum number of worker threads
+     * @see SeqScan#SeqScan(TransactionId, int, String, int[])
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+                           int parallelism) {
+        super(tid, tableid, tableAlias, columns);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.tid = tid;
+        this.parallelism = parallelism;
+    }
+
+    /** @return the maximum number of worker threads */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(getTableId());
+        if (!(f instanceof HeapFile)) {
+            serial = true;
+            super.open();
+            return;
+        }
+        HeapFile hf = (HeapFile) f;
+        int numPages = hf.numPages();
+        serial = false;
+        numWorkers = Math.max(1, Math.min(parallelism, (numPages + MORSEL_PAGES - 1) / MORSEL_PAGES));
+        queue = new ArrayBlockingQueue<>(numWorkers * QUEUE_CHUNKS_PER_WORKER);
+        nextPage = new AtomicInteger(0);
+        failure = new AtomicReference<>();
+        cancelled = false;
+        finished = 0;
+        chunk = null;
+        pos = 0;
+        current = null;
+        resetRows();
+        workers = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread t = new Thread(r, "ParallelSeqScan-" + getAlias());
+            t.setDaemon(true);
+            return t;
+        });
+        SlotPredicate predicate = slotPredicate();
+        for (int i = 0; i < numWorkers; i++) {
+            workers.execute(() -> scanMorsels(hf, numPages, predicate));
+        }
+    }
+
+    /** Body of a worker: claim morsels and queue their tuples until none are left. */
+    private void scanMorsels(HeapFile hf, int numPages, SlotPredicate predicate) {
+        try {
+            List<Tuple> out = new ArrayList<>(CHUNK_TUPLES);
+            int start;
+            while (!cancelled && (start = nextPage.getAndAdd(MORSEL_PAGES)) < numPages) {
+                DbFileIterator it = hf.iterator(tid, start, start + MORSEL_PAGES, predicate);
+                it.open();
+                while (it.hasNext()) {
+                    out.add(it.next());
+                    if (out.size() == CHUNK_TUPLES) {
+                        queue.put(out);
+                        out = new ArrayList<>(CHUNK_TUPLES);
+                    }
+                }
+                it.close();
+            }
+            if (!out.isEmpty()) {
+                queue.put(out);
+            }
+        } catch (InterruptedException e) {
+            // close() cancelled the scan
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            try {
+                while (!cancelled && !queue.offer(END, 10, TimeUnit.MILLISECONDS)) {
+                    // wait for the consumer to make room
+                }
+            } catch (InterruptedException e) {
+                // close() cancelled the scan
+            }
+        }
+    }
+
+    /**
+     * Makes the next chunk of tuples current.
+     *
+     * @return false if every worker is done
+     */
+    private boolean nextChunk() throws DbException, TransactionAbortedException {
+        if (queue == null) {
+            throw new IllegalStateException("ParallelSeqScan not yet open");
+        }
+        while (chunk == null || pos == chunk.size()) {
+            if (finished == numWorkers) {
+                return false;
+            }
+            List<Tuple> c;
+            try {
+                c = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for scan workers");
+            }
+            if (c == END) {
+                finished++;
+                rethrowFailure();
+                continue;
+            }
+            chunk = c;
+            pos = 0;
+        }
+        return true;
+    }
+
+    /** Rethrows, in the consumer's thread, the first exception a worker hit. */
+    private void rethrowFailure() throws DbException, TransactionAbortedException {
+        Throwable t = failure.get();
+        if (t == null) {
+            return;
+        }
+        if (t instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) t;
+        }
+        if (t instanceof DbException) {
+            throw (DbException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new DbException("scan worker failed: " + t);
+    }
+
+    /**
+     * Makes the next row that the runtime filter does not drop current.
+     *
+     * @return false if there are no more rows
+     */
+    private boolean advance() throws DbException, TransactionAbortedException {
+        while (current == null) {
+            if (!nextChunk()) {
+                return false;
+            }
+            current = accept(chunk.get(pos++));
+        }
+        return true;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (serial) {
+            return super.hasNext();
+        }
+        return advance();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (serial) {
+            return super.next();
+        }
+        if (!advance()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = current;
+        current = null;
+        return t;
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (serial) {
+            return super.nextBatch();
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && advance()) {
+            batch.addTuple(current);
+            current = null;
+        }
+        return batch.numRows() == 0 ? null : batch;
+    }
+
+    /**
+     * Stops the workers and waits for them to exit, so that no page is
+     * locked on behalf of the transaction once this returns.
+     */
+    public void close() {
+        if (serial) {
+            super.close();
+            return;
+        }
+        cancelled = true;
+        if (workers != null) {
+            workers.shutdownNow();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                queue.clear();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            workers = null;
+        }
+        queue = null;
+        chunk = null;
+        current = null;
+        batch = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
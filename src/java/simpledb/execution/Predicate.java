@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -109,6 +110,29 @@ public class Predicate implements Serializable {
         return t.getField(field).compare(op, this.getOperand());
     }
 
+    /**
+     * Applies this predicate to every selected row of a batch, removing the
+     * rows for which it is false from the selection vector of the batch.
+     *
+     * @param batch
+     *            The rows to compare against
+     * @return the number of rows still selected
+     */
+    public int filter(TupleBatch batch) {
+        Field[] column = batch.column(field);
+        int[] sel = batch.selection();
+        int n = batch.numSelected();
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            int row = sel[i];
+            if (column[row].compare(op, operand)) {
+                sel[kept++] = row;
+            }
+        }
+        batch.setNumSelected(kept);
+        return kept;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
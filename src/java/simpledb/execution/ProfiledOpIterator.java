@@ -0,0 +1,209 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * ProfiledOpIterator wraps an operator of a plan run by EXPLAIN ANALYZE (see
+ * {@link QueryProfile}) and measures each call made to it: the rows it
+ * returns, the time spent in open and rewind and in hasNext, next and
+ * nextBatch, and the pages it requests from the {@link BufferPool}.
+ * <p>
+ * Times are both inclusive, counting the operators below, and exclusive,
+ * counting this operator alone: the children of the operator are wrapped
+ * too, and each call charges its inclusive time to the call it is made
+ * from, in the same thread. Pages are counted exclusively. An operator
+ * running in a thread of its own, below an {@link Exchange}, is charged to
+ * no parent.
+ */
+public class ProfiledOpIterator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    // the time, page hits and page misses of the wrapped calls made by the
+    // current call of each thread, to be subtracted from its own
+    private static final ThreadLocal<long[]> CALLEES = ThreadLocal.withInitial(() -> new long[3]);
+
+    private final OpIterator op;
+    private transient BatchOpIterator batchOp;
+
+    private long rows;
+    private long opens;
+    private long openNanos;
+    private long openSelfNanos;
+    private long nextNanos;
+    private long nextSelfNanos;
+    private long pageHits;
+    private long pageMisses;
+
+    /**
+     * @param op the operator to measure
+     */
+    public ProfiledOpIterator(OpIterator op) {
+        this.op = op;
+    }
+
+    /**
+     * @return the operator measured
+     */
+    public OpIterator getOperator() {
+        return this.op;
+    }
+
+    /** @return the number of rows returned */
+    public long getRows() {
+        return this.rows;
+    }
+
+    /** @return the number of times the operator was opened or rewound */
+    public long getOpens() {
+        return this.opens;
+    }
+
+    /** @return the time spent in open and rewind, in nanoseconds */
+    public long getOpenNanos() {
+        return this.openNanos;
+    }
+
+    /**
+     * @return the time spent in open and rewind, less that spent in the
+     *         operators below, in nanoseconds
+     */
+    public long getOpenSelfNanos() {
+        return this.openSelfNanos;
+    }
+
+    /** @return the time spent in hasNext, next and nextBatch, in nanoseconds */
+    public long getNextNanos() {
+        return this.nextNanos;
+    }
+
+    /**
+     * @return the time spent in hasNext, next and nextBatch, less that spent
+     *         in the operators below, in nanoseconds
+     */
+    public long getNextSelfNanos() {
+        return this.nextSelfNanos;
+    }
+
+    /** @return the pages requested by the operator that were in the buffer pool */
+    public long getPageHits() {
+        return this.pageHits;
+    }
+
+    /** @return the pages requested by the operator that had to be read */
+    public long getPageMisses() {
+        return this.pageMisses;
+    }
+
+    /**
+     * Starts measuring a call.
+     *
+     * @return what end needs to finish measuring it
+     */
+    private long[] begin() {
+        long[] callees = CALLEES.get();
+        BufferPool pool = Database.getBufferPool();
+        long[] call = { callees[0], callees[1], callees[2], pool.pageHits(), pool.pageMisses(), 0 };
+        callees[0] = callees[1] = callees[2] = 0;
+        call[5] = System.nanoTime();
+        return call;
+    }
+
+    /**
+     * Finishes measuring a call, and charges it to the call it was made from.
+     *
+     * @param call what begin returned
+     * @param open true for open and rewind, false for the other calls
+     */
+    private void end(long[] call, boolean open) {
+        long nanos = System.nanoTime() - call[5];
+        long[] callees = CALLEES.get();
+        BufferPool pool = Database.getBufferPool();
+        long hits = pool.pageHits() - call[3];
+        long misses = pool.pageMisses() - call[4];
+        if (open) {
+            this.openNanos += nanos;
+            this.openSelfNanos += nanos - callees[0];
+        } else {
+            this.nextNanos += nanos;
+            this.nextSelfNanos += nanos - callees[0];
+        }
+        this.pageHits += hits - callees[1];
+        this.pageMisses += misses - callees[2];
+        callees[0] = call[0] + nanos;
+        callees[1] = call[1] + hits;
+        callees[2] = call[2] + misses;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        long[] call = begin();
+        try {
+            this.op.open();
+            this.opens++;
+        } finally {
+            end(call, true);
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        long[] call = begin();
+        try {
+            return this.op.hasNext();
+        } finally {
+            end(call, false);
+        }
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        long[] call = begin();
+        try {
+            Tuple t = this.op.next();
+            this.rows++;
+            return t;
+        } finally {
+            end(call, false);
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.batchOp == null) {
+            this.batchOp = BatchOpIterator.of(this.op);
+        }
+        long[] call = begin();
+        try {
+            TupleBatch b = this.batchOp.nextBatch();
+            if (b != null) {
+                this.rows += b.numSelected();
+            }
+            return b;
+        } finally {
+            end(call, false);
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        long[] call = begin();
+        try {
+            this.op.rewind();
+            this.opens++;
+        } finally {
+            end(call, true);
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.op.getTupleDesc();
+    }
+
+    public void close() {
+        this.op.close();
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -11,12 +12,15 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private final int[] outFieldArray;
+    private transient BatchOpIterator batchChild;
+    private transient TupleBatch batch;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -42,6 +46,10 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        outFieldArray = new int[fieldList.size()];
+        for (int i = 0; i < outFieldArray.length; i++) {
+            outFieldArray[i] = fieldList.get(i);
+        }
     }
 
     public TupleDesc getTupleDesc() {
@@ -57,6 +65,7 @@ public class Project extends Operator {
     public void close() {
         super.close();
         child.close();
+        batch = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -76,11 +85,41 @@ public class Project extends Operator {
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            newTuple.setField(i, t.getField(outFieldArray[i]));
         }
         return newTuple;
     }
 
+    /**
+     * Returns the next batch of the child operator with its columns
+     * rearranged; no rows are copied.
+     *
+     * @return The next batch, or null if there are no more rows
+     * @see TupleBatch#project
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batchChild == null) {
+            batchChild = BatchOpIterator.of(child);
+        }
+        TupleBatch in = batchChild.nextBatch();
+        if (in == null) {
+            return null;
+        }
+        if (batch == null || batch.capacity() < in.capacity()) {
+            batch = new TupleBatch(td, in.capacity());
+        }
+        batch.project(in, outFieldArray);
+        return batch;
+    }
+
+    /**
+     * @return the field of the child's tuples that each field of the output
+     *         is
+     */
+    int[] fieldIds() {
+        return outFieldArray;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -90,6 +129,7 @@ public class Project extends Operator {
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
             this.child = children[0];
+            this.batchChild = null;
         }
     }
 
@@ -27,6 +27,10 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     final TransactionId tid;
     transient private boolean started = false;
+    // if profiled, the plan runs through the wrappers of profile
+    transient private boolean profiled = false;
+    transient private QueryProfile profile;
+    transient private OpIterator running;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -42,24 +46,50 @@ public class Query implements Serializable {
 
     public void setPhysicalPlan(OpIterator pp) {
         this.op = pp;
+        this.running = pp;
     }
 
     public OpIterator getPhysicalPlan() {
         return this.op;
     }
 
+    /**
+     * Makes the next start() run the plan under EXPLAIN ANALYZE, measuring
+     * each of its operators; the measurements are available from
+     * {@link #getProfile()} once the query is closed.
+     */
+    public void setProfiled(boolean profiled) {
+        this.profiled = profiled;
+    }
+
+    /**
+     * @return the measurements of the last profiled run, or null if the
+     *         query was not profiled
+     */
+    public QueryProfile getProfile() {
+        return this.profile;
+    }
+
     public Query(TransactionId t) {
         tid = t;
     }
 
     public Query(OpIterator root, TransactionId t) {
         op = root;
+        running = root;
         tid = t;
     }
 
     public void start() throws DbException,
             TransactionAbortedException {
-        op.open();
+        if (profiled) {
+            profile = QueryProfile.instrument(op);
+            running = profile.root();
+        } else {
+            profile = null;
+            running = op;
+        }
+        running.open();
 
         started = true;
     }
@@ -70,7 +100,7 @@ public class Query implements Serializable {
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        return running.hasNext();
     }
 
     /**
@@ -90,12 +120,15 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        return running.next();
     }
 
     /** Close the iterator */
     public void close() {
-        op.close();
+        running.close();
+        if (profile != null) {
+            profile.finish();
+        }
         started = false;
     }
 
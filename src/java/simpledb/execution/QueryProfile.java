@@ -0,0 +1,135 @@
+package simpledb.execution;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * QueryProfile runs a plan under EXPLAIN ANALYZE. {@link #instrument} puts a
+ * {@link ProfiledOpIterator} above every operator of the plan, so that the
+ * actual rows, time and pages of each can be read, e.g. by
+ * {@link simpledb.optimizer.QueryPlanVisualizer}, next to the estimated
+ * cardinalities, and {@link #finish} takes them out again.
+ * <p>
+ * Operators that look through their children to pick a faster plan do not
+ * see through the wrappers, except for the scan a hash join pushes its
+ * runtime filter into: chains of Filters are not fused, and neither are
+ * scans with the Aggregate above them, so that the rows of each operator
+ * are counted. The inner table of an {@link IndexNestedLoopJoin} is probed
+ * rather than read, and is not wrapped.
+ * <p>
+ * The memory used by each operator cannot be told apart in the JVM, so the
+ * peak heap usage is recorded for the query as a whole: it is the sum of the
+ * peak usage of each heap memory pool while the query ran.
+ */
+public class QueryProfile {
+
+    private final OpIterator plan;
+    private final ProfiledOpIterator root;
+    // the wrapper of each operator, and the children of each Operator before
+    // they were wrapped
+    private final Map<OpIterator, ProfiledOpIterator> profiles = new IdentityHashMap<>();
+    private final Map<Operator, OpIterator[]> children = new IdentityHashMap<>();
+    private long peakHeapBytes = -1;
+
+    private QueryProfile(OpIterator plan) {
+        this.plan = plan;
+        this.root = wrap(plan);
+    }
+
+    /**
+     * Puts a {@link ProfiledOpIterator} above every operator of plan. The
+     * returned profile's {@link #root} must be run instead of plan.
+     *
+     * @param plan the plan to profile; it must not be open
+     */
+    public static QueryProfile instrument(OpIterator plan) {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+        return new QueryProfile(plan);
+    }
+
+    /** @return the wrapper of op, after wrapping its children */
+    private ProfiledOpIterator wrap(OpIterator op) {
+        if (op instanceof ProfiledOpIterator) {
+            // the producers of an Exchange are shared by its consumers, and
+            // have been wrapped through another one
+            return (ProfiledOpIterator) op;
+        }
+        ProfiledOpIterator p = this.profiles.get(op);
+        if (p != null) {
+            return p;
+        }
+        if (op instanceof Operator) {
+            Operator o = (Operator) op;
+            OpIterator[] original = o.getChildren();
+            OpIterator[] wrapped = original.clone();
+            for (int i = 0; i < wrapped.length; i++) {
+                if (original[i] instanceof ProfiledOpIterator) {
+                    original[i] = ((ProfiledOpIterator) original[i]).getOperator();
+                }
+                if (wrapped[i] == null || (o instanceof IndexNestedLoopJoin && i == 1)) {
+                    continue;
+                }
+                wrapped[i] = wrap(wrapped[i]);
+            }
+            this.children.put(o, original);
+            o.setChildren(wrapped);
+        }
+        p = new ProfiledOpIterator(op);
+        this.profiles.put(op, p);
+        return p;
+    }
+
+    /**
+     * @return the instrumented plan to run
+     */
+    public OpIterator root() {
+        return this.root;
+    }
+
+    /**
+     * @return the plan that was instrumented
+     */
+    public OpIterator plan() {
+        return this.plan;
+    }
+
+    /**
+     * @param op an operator of the plan
+     * @return its measurements, or null if it was not wrapped
+     */
+    public ProfiledOpIterator get(OpIterator op) {
+        return this.profiles.get(op);
+    }
+
+    /**
+     * Takes the wrappers out of the plan and records the peak heap usage.
+     * The plan must have been closed.
+     */
+    public void finish() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        this.peakHeapBytes = peak;
+        for (Map.Entry<Operator, OpIterator[]> e : this.children.entrySet()) {
+            e.getKey().setChildren(e.getValue());
+        }
+    }
+
+    /**
+     * @return the peak heap usage while the query ran, in bytes, or -1 if
+     *         {@link #finish} has not been called
+     */
+    public long peakHeapBytes() {
+        return this.peakHeapBytes;
+    }
+}
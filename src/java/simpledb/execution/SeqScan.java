@@ -5,8 +5,13 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.SlotPredicate;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -16,11 +21,31 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
+    // the field of the table that each returned field is, or null to
+    // return every field; see the four-argument constructor
+    private int[] columns;
     private DbFileIterator iter;
+    private transient TupleDesc columnsDesc;
+    // predicates over the fields of the table that every returned row
+    // satisfies (see pushDown), and those of them that the scan tests itself
+    // because the table is not a heap file
+    private final List<Predicate> pushed = new ArrayList<>();
+    private transient SlotPredicate residual;
+    private transient TupleBatch batch;
+    // keys that a join above this scan can match (see setRuntimeFilter), the
+    // next row that passed it, and the number of rows it dropped
+    private transient BloomFilter runtimeFilter;
+    private int runtimeFilterField;
+    private transient Tuple lookahead;
+    private long runtimeFiltered;
+    // the range of the pages of a heap file this scan reads: part of parts
+    // equal, consecutive ranges (see part)
+    private int part;
+    private int parts = 1;
 
     private static final long serialVersionUID = 1L;
 
@@ -42,9 +67,31 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some of the fields of the
+     * table, e.g. the ones that the operators above it and the query's
+     * output refer to. Joins and other operators above the scan then copy
+     * narrower tuples. The returned tuples keep the record id of their row,
+     * so that the other fields can still be fetched from its page.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table
+     * @param columns
+     *            the field of the table that each returned field is, in the
+     *            order they are returned, or null to return every field
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.columns = columns == null ? null : columns.clone();
     }
 
     /**
@@ -56,6 +103,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(this.tableid);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /**
+     * @return the transaction this operator scans as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -65,6 +126,22 @@ public class SeqScan implements OpIterator {
         return this.tableAlias;
     }
 
+    /**
+     * @return the field of the table that each field returned by this scan
+     *         is, or null if every field of the table is returned in order
+     */
+    public int[] getColumns() {
+        return this.columns == null ? null : this.columns.clone();
+    }
+
+    /**
+     * @param field a field returned by this scan
+     * @return the field of the table it is
+     */
+    public int tableField(int field) {
+        return this.columns == null ? field : this.columns[field];
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -76,21 +153,183 @@ public class SeqScan implements OpIterator {
      *            tableAlias or fieldName are null. It shouldn't crash if they
      *            are, but the resulting name can be null.fieldName,
      *            tableAlias.null, or null.null).
+     *            Every field of the new table is returned.
      */
     public void reset(int tableid, String tableAlias) {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.columns = null;
+        this.pushed.clear();
+        this.part = 0;
+        this.parts = 1;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Makes the scan return only the rows that satisfy p, as a Filter above
+     * it would. When the table is a heap file, p is tested against the bytes
+     * each row is stored as, and the rows that do not satisfy it are never
+     * decoded (see {@link HeapFile#iterator(TransactionId, SlotPredicate)}).
+     * Takes effect from the next time the scan is opened.
+     *
+     * @param p the predicate, over the fields of the table, which need not
+     *        be among those the scan returns
+     * @throws IllegalArgumentException if the constant of p is not of the
+     *         type of its field
+     */
+    public void pushDown(Predicate p) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(this.tableid);
+        if (td.getFieldType(p.getField()) != p.getOperand().getType()) {
+            throw new IllegalArgumentException("cannot compare field " + p.getField()
+                    + " with " + p.getOperand());
+        }
+        this.pushed.add(p);
+    }
+
+    /**
+     * @return the predicates pushed down into this scan, over the fields of
+     *         the table
+     */
+    public List<Predicate> getPushedPredicates() {
+        return Collections.unmodifiableList(this.pushed);
+    }
+
+    /**
+     * @return the conjunction of the pushed down predicates, or null if
+     *         there are none
+     */
+    SlotPredicate slotPredicate() {
+        if (this.pushed.isEmpty()) {
+            return null;
+        }
+        return new SlotPredicate(Database.getCatalog().getTupleDesc(this.tableid),
+                this.pushed.toArray(new Predicate[0]));
+    }
+
+    /**
+     * Creates a scan of one of several equal, consecutive ranges of the pages
+     * of the table, which must be stored in a heap file, with the alias,
+     * fields, pushed down predicates and runtime filter of this scan. The
+     * parts scans together read every row once, so that as many threads can
+     * each read a range of their own, e.g. under the partial aggregates of
+     * {@link Aggregate#parallel}; each is read by a single thread, even if
+     * this scan is a {@link ParallelSeqScan}. The ranges are computed from the
+     * number of pages when each scan is opened.
+     *
+     * @param part the range to read, from 0 to parts - 1
+     * @param parts the number of ranges
+     * @throws IllegalArgumentException if part is not one of the ranges or the
+     *         table is not a heap file
+     */
+    SeqScan part(int part, int parts) {
+        if (part < 0 || part >= parts) {
+            throw new IllegalArgumentException("no part " + part + " of " + parts);
+        }
+        if (!(Database.getCatalog().getDatabaseFile(this.tableid) instanceof HeapFile)) {
+            throw new IllegalArgumentException("only a heap file can be scanned in parts");
+        }
+        SeqScan scan = new SeqScan(this.tid, this.tableid, this.tableAlias, this.columns);
+        scan.pushed.addAll(this.pushed);
+        scan.runtimeFilter = this.runtimeFilter;
+        scan.runtimeFilterField = this.runtimeFilterField;
+        scan.part = part;
+        scan.parts = parts;
+        return scan;
+    }
+
+    /** @return the first page this scan reads of a heap file of numPages pages */
+    int firstPage(int numPages) {
+        return (int) ((long) numPages * this.part / this.parts);
+    }
+
+    /** @return one past the last page this scan reads of a heap file of numPages pages */
+    int endPage(int numPages) {
+        return (int) ((long) numPages * (this.part + 1) / this.parts);
+    }
+
+    /**
+     * Makes the scan skip rows whose field is not in filter, from the next
+     * row read on. A hash join sets this on the scan of its probe side once
+     * it has built its hash table, so that rows that cannot match are
+     * dropped before they are passed to the operators in between.
+     *
+     * @param field the index of the field to test, among those returned
+     * @param filter the keys the join can match, or null to return every row
+     */
+    void setRuntimeFilter(int field, BloomFilter filter) {
+        this.runtimeFilterField = field;
+        this.runtimeFilter = filter;
+    }
+
+    /**
+     * @return true if a join has set a runtime filter on this scan
+     */
+    public boolean hasRuntimeFilter() {
+        return this.runtimeFilter != null;
+    }
+
+    /**
+     * @return the number of rows dropped by the runtime filter since the scan
+     *         was opened
+     */
+    public long runtimeFilteredRows() {
+        return this.runtimeFiltered;
+    }
+
+    /**
+     * @return false if the runtime filter or the pushed down predicates the
+     *         file did not test drop t, a tuple of the table
+     */
+    private boolean passes(Tuple t) {
+        if (residual != null && !residual.test(t)) {
+            return false;
+        }
+        if (runtimeFilter == null || runtimeFilter.mightContain(t.getField(tableField(runtimeFilterField)))) {
+            return true;
+        }
+        runtimeFiltered++;
+        return false;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        iter = Database.getCatalog().getDatabaseFile(this.tableid).iterator(this.tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableid);
+        SlotPredicate predicate = slotPredicate();
+        if (this.parts > 1) {
+            int numPages = ((HeapFile) file).numPages();
+            iter = ((HeapFile) file).iterator(this.tid, firstPage(numPages), endPage(numPages), predicate);
+            residual = null;
+        } else if (predicate != null && file instanceof HeapFile) {
+            iter = ((HeapFile) file).iterator(this.tid, predicate);
+            residual = null;
+        } else {
+            iter = file.iterator(this.tid);
+            residual = predicate;
+        }
         iter.open();
+        resetRows();
+    }
+
+    /**
+     * Forgets the rows read before the scan was (re)opened, and counts the
+     * rows the runtime filter drops from zero.
+     */
+    void resetRows() {
+        columnsDesc = columns == null ? null : getTupleDesc();
+        lookahead = null;
+        runtimeFiltered = 0;
+    }
+
+    /**
+     * @param t a tuple of the table that satisfies the pushed down predicates
+     * @return t as this scan returns it, or null if the runtime filter drops it
+     */
+    Tuple accept(Tuple t) {
+        return passes(t) ? project(t) : null;
     }
 
     /**
@@ -100,25 +339,55 @@ public class SeqScan implements OpIterator {
      * name.  The alias and name should be separated with a "." character
      * (e.g., "alias.fieldName").
      *
+     * Only the fields passed to the constructor are described, if any.
+     *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc tupleDesc = Database.getCatalog().getDatabaseFile(this.tableid).getTupleDesc();
+        int numFields = this.columns == null ? tupleDesc.numFields() : this.columns.length;
 
         //tupleDesc has fieldName and fieldType
-        TupleDesc.TDItem[] tdItem = new TupleDesc.TDItem[tupleDesc.numFields()];
+        TupleDesc.TDItem[] tdItem = new TupleDesc.TDItem[numFields];
 
-        for (int i = 0; i < tupleDesc.numFields(); ++i) {
-            tdItem[i] = new TupleDesc.TDItem(tupleDesc.getFieldType(i),
-                                            this.tableAlias + "." + tupleDesc.getFieldName(i));
+        for (int i = 0; i < numFields; ++i) {
+            int field = tableField(i);
+            tdItem[i] = new TupleDesc.TDItem(tupleDesc.getFieldType(field),
+                                            this.tableAlias + "." + tupleDesc.getFieldName(field));
             }
         return new TupleDesc(tdItem);
     }
 
+    /** @return the returned fields of t, a tuple of the table, with its record id */
+    private Tuple project(Tuple t) {
+        if (columns == null) {
+            return t;
+        }
+        Tuple out = new Tuple(columnsDesc);
+        for (int i = 0; i < columns.length; i++) {
+            out.setField(i, t.getField(columns[i]));
+        }
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if (lookahead != null) {
+            return true;
+        }
+        if ((runtimeFilter != null || residual != null) && iter != null) {
+            while (iter.hasNext()) {
+                Tuple t = iter.next();
+                if (passes(t)) {
+                    lookahead = project(t);
+                    return true;
+                }
+            }
+            return false;
+        }
         if (iter != null && iter.hasNext()) {
             return true;
         }
@@ -131,12 +400,81 @@ public class SeqScan implements OpIterator {
         if (iter == null) {
             throw new NoSuchElementException();
         }
-        return iter.next();
+        if (runtimeFilter != null || residual != null || lookahead != null) {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = lookahead;
+            lookahead = null;
+            return t;
+        }
+        return project(iter.next());
+    }
+
+    /**
+     * Returns the next batch of rows. For a heap file, the columns are
+     * filled straight from the slots of each page (see
+     * {@link DbFileIterator#nextBatch}), and the runtime filter drops rows
+     * from the selection of the batch.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (iter == null) {
+            throw new IllegalStateException("SeqScan not yet open");
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        if (lookahead != null) {
+            batch.addTuple(lookahead);
+            lookahead = null;
+        }
+        if (residual != null) {
+            while (!batch.isFull() && iter.hasNext()) {
+                Tuple t = iter.next();
+                if (!passes(t)) {
+                    continue;
+                }
+                if (columns == null) {
+                    batch.addTuple(t);
+                } else {
+                    batch.addTuple(t, columns);
+                }
+            }
+        } else {
+            int first = batch.numRows();
+            iter.nextBatch(batch, columns);
+            if (runtimeFilter != null) {
+                dropFiltered(first);
+            }
+        }
+        return batch.numRows() == 0 ? null : batch;
+    }
+
+    /**
+     * Removes the rows of the batch from row first on whose runtime filter
+     * field is not in the filter from its selection.
+     */
+    private void dropFiltered(int first) {
+        int[] selection = batch.selection();
+        Field[] keys = batch.column(runtimeFilterField);
+        int kept = 0;
+        for (int i = 0; i < batch.numSelected(); i++) {
+            int row = selection[i];
+            if (row < first || runtimeFilter.mightContain(keys[row])) {
+                selection[kept++] = row;
+            } else {
+                runtimeFiltered++;
+            }
+        }
+        batch.setNumSelected(kept);
     }
 
     public void close() {
         // some code goes here
         iter.close();
+        batch = null;
+        lookahead = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
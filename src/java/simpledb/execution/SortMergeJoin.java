@@ -0,0 +1,375 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two relations by sorting them on their join fields.
+ * Inputs that are already sorted in ascending order of their join field (for
+ * example a {@link simpledb.index.BTreeScan} on the join key) are read as
+ * they are; the others are sorted with an {@link ExternalSort}.
+ * <ul>
+ * <li>EQUALS merges the two sorted inputs, joining each run of equal left
+ * keys with the run of equal right keys, which is held in memory.</li>
+ * <li>The inequalities read the sorted right input once into memory (the
+ * sorted left input for LESS_THAN(_OR_EQ)) and then the other input once.
+ * For GREATER_THAN(_OR_EQ), the right tuples that match a left tuple are
+ * those before the first key that no longer matches, which is found by
+ * binary search; LESS_THAN(_OR_EQ) does the same with the roles swapped,
+ * and NOT_EQUALS returns all but the run of equal keys. The cost is thus
+ * the size of the result plus a search per outer tuple.</li>
+ * </ul>
+ * LIKE cannot be evaluated by sorting and is not supported.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final boolean child1Sorted, child2Sorted;
+    private final int maxSortTuples;
+    private final TupleDesc comboTD;
+
+    // the sorts made for unsorted inputs, so their runs can be deleted
+    private transient ExternalSort sort1, sort2;
+    // the left and right inputs, in ascending order of the join field where needed
+    private transient DbFileIterator left, right;
+    // for inequality joins: the input read once, its current tuple, the
+    // other input sorted and held in memory, the position in it of the next
+    // tuple to join with outerTuple, the end of the matches, and the run of
+    // equal keys NOT_EQUALS skips
+    private transient DbFileIterator outer;
+    private transient Tuple outerTuple;
+    private transient List<Tuple> inner;
+    private transient int innerPos, innerEnd, skipFrom, skipTo;
+    // for EQUALS: the current left tuple, the run of right tuples with its
+    // key, the position in that run, and the first right tuple after it
+    private transient Tuple leftTuple;
+    private transient List<Tuple> run;
+    private transient Field runKey;
+    private transient int runPos;
+    private transient Tuple rightPeek;
+
+    /**
+     * Constructor for unsorted inputs.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, false, false, ExternalSort.DEFAULT_MAX_TUPLES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param child1Sorted
+     *            true if child1 returns its tuples in ascending order of its
+     *            join field
+     * @param child2Sorted
+     *            true if child2 returns its tuples in ascending order of its
+     *            join field
+     * @param maxSortTuples
+     *            the maximum number of tuples each sort holds in memory
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                         boolean child1Sorted, boolean child2Sorted, int maxSortTuples) {
+        if (p.getOperator() == Predicate.Op.LIKE) {
+            throw new IllegalArgumentException("SortMergeJoin cannot evaluate LIKE");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.child1Sorted = child1Sorted;
+        this.child2Sorted = child2Sorted;
+        this.maxSortTuples = maxSortTuples;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * @return an iterator over the tuples of child in ascending order of
+     *         field, sorting them first unless sorted is true
+     */
+    private DbFileIterator sorted(OpIterator child, int field, boolean sorted, boolean first)
+            throws DbException, TransactionAbortedException {
+        if (sorted) {
+            return new OpIteratorAdapter(child);
+        }
+        ExternalSort sort = ExternalSort.of(child, ExternalSort.byField(field, true), maxSortTuples);
+        if (first) {
+            sort1 = sort;
+        } else {
+            sort2 = sort;
+        }
+        DbFileIterator it = sort.iterator();
+        it.open();
+        return it;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        switch (pred.getOperator()) {
+        case EQUALS:
+            left = sorted(child1, pred.getField1(), child1Sorted, true);
+            right = sorted(child2, pred.getField2(), child2Sorted, false);
+            leftTuple = null;
+            run = new ArrayList<>();
+            runKey = null;
+            runPos = 0;
+            rightPeek = right.hasNext() ? right.next() : null;
+            break;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            // for each right tuple, the matching left tuples are a prefix of the sorted left
+            inner = readAll(sorted(child1, pred.getField1(), child1Sorted, true));
+            outer = new OpIteratorAdapter(child2);
+            outerTuple = null;
+            break;
+        default:
+            // for each left tuple, the matching right tuples are a prefix of the
+            // sorted right (or, for NOT_EQUALS, all but one run of it)
+            outer = new OpIteratorAdapter(child1);
+            inner = readAll(sorted(child2, pred.getField2(), child2Sorted, false));
+            outerTuple = null;
+            break;
+        }
+    }
+
+    /** @return the tuples of it, in order */
+    private static List<Tuple> readAll(DbFileIterator it) throws DbException, TransactionAbortedException {
+        List<Tuple> tuples = new ArrayList<>();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        return tuples;
+    }
+
+    private void finish() {
+        if (sort1 != null) {
+            sort1.delete();
+            sort1 = null;
+        }
+        if (sort2 != null) {
+            sort2.delete();
+            sort2 = null;
+        }
+        left = right = outer = null;
+        inner = null;
+        leftTuple = outerTuple = rightPeek = null;
+        run = null;
+        runKey = null;
+    }
+
+    public void close() {
+        super.close();
+        finish();
+        child1.close();
+        child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        finish();
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(td1n + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As for {@link Join}, a result tuple is a left tuple
+     * followed by a right tuple.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            return fetchNextEquals();
+        }
+        return fetchNextInequality();
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        int field1 = pred.getField1();
+        int field2 = pred.getField2();
+        while (true) {
+            if (leftTuple != null && runPos < run.size()) {
+                return merge(leftTuple, run.get(runPos++));
+            }
+            if (!left.hasNext()) {
+                return null;
+            }
+            leftTuple = left.next();
+            runPos = 0;
+            Field key = leftTuple.getField(field1);
+            if (runKey != null && key.compare(Predicate.Op.EQUALS, runKey)) {
+                // another left tuple with the same key: join it with the same run
+                continue;
+            }
+            // skip the right tuples with smaller keys, then collect the run
+            while (rightPeek != null && rightPeek.getField(field2).compare(Predicate.Op.LESS_THAN, key)) {
+                rightPeek = right.hasNext() ? right.next() : null;
+            }
+            run.clear();
+            runKey = key;
+            while (rightPeek != null && rightPeek.getField(field2).compare(Predicate.Op.EQUALS, key)) {
+                run.add(rightPeek);
+                rightPeek = right.hasNext() ? right.next() : null;
+            }
+            if (run.isEmpty() && rightPeek == null) {
+                // every remaining left key is greater than the largest right key
+                return null;
+            }
+        }
+    }
+
+    private Tuple fetchNextInequality() throws TransactionAbortedException, DbException {
+        Predicate.Op op = pred.getOperator();
+        boolean outerIsLeft = op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+        while (true) {
+            if (outerTuple != null) {
+                if (innerPos == skipFrom) {
+                    innerPos = skipTo;
+                }
+                if (innerPos < innerEnd) {
+                    Tuple in = inner.get(innerPos++);
+                    return outerIsLeft ? merge(outerTuple, in) : merge(in, outerTuple);
+                }
+            }
+            if (!outer.hasNext()) {
+                return null;
+            }
+            outerTuple = outer.next();
+            Field key = outerTuple.getField(outerIsLeft ? pred.getField1() : pred.getField2());
+            int innerField = outerIsLeft ? pred.getField2() : pred.getField1();
+            // the inner keys below key, and those up to key
+            int lower = search(innerField, Predicate.Op.LESS_THAN, key);
+            int upper = search(innerField, Predicate.Op.LESS_THAN_OR_EQ, key);
+            innerPos = 0;
+            skipFrom = skipTo = -1;
+            switch (op) {
+            case GREATER_THAN:
+            case LESS_THAN:
+                innerEnd = lower;
+                break;
+            case GREATER_THAN_OR_EQ:
+            case LESS_THAN_OR_EQ:
+                innerEnd = upper;
+                break;
+            default:
+                innerEnd = inner.size();
+                skipFrom = lower;
+                skipTo = upper;
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the number of inner tuples whose field compares to key as op,
+     *         which are the first ones since inner is sorted on field
+     */
+    private int search(int field, Predicate.Op op, Field key) {
+        int lo = 0, hi = inner.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (inner.get(mid).getField(field).compare(op, key)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+    /** Reads an OpIterator that is already open through the DbFileIterator interface. */
+    private static class OpIteratorAdapter implements DbFileIterator {
+        private final OpIterator child;
+
+        OpIteratorAdapter(OpIterator child) {
+            this.child = child;
+        }
+
+        public void open() {
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void close() {
+        }
+    }
+}
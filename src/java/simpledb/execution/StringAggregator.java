@@ -1,6 +1,5 @@
 package simpledb.execution;
 
-import java.util.HashMap;
 import java.util.NoSuchElementException;
 
 import simpledb.common.DbException;
@@ -8,11 +7,16 @@ import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * At most maxGroups groups are held in memory; rows of further groups are
+ * spilled and counted partition by partition, as in
+ * {@link IntegerAggregator}.
  */
 public class StringAggregator implements Aggregator {
 
@@ -21,8 +25,14 @@ public class StringAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    protected HashMap<Field, Integer> fieldMap;
-    private int count = 0;
+    private int maxGroups;
+    // the number of times the input rows have been spilled already
+    private int level;
+    // numbers the groups; null if there is no grouping, with a single group 0
+    private GroupHashTable groups;
+    private Accumulator acc;
+    // the group-by values of the rows of groups that did not fit in memory, or null
+    private AggregateSpill spill;
 
     /**
      * Aggregate constructor
@@ -34,13 +44,37 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) throws IllegalArgumentException {
+        this(gbfield, gbfieldtype, afield, what, IntegerAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Aggregate constructor with an explicit memory budget
+     * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
+     * @param afield the 0-based index of the aggregate field in the tuple
+     * @param what aggregation operator to use -- only supports COUNT
+     * @param maxGroups the maximum number of groups held in memory
+     * @throws IllegalArgumentException if what != COUNT
+     */
+    public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups)
+            throws IllegalArgumentException {
+        this(gbfield, gbfieldtype, afield, what, maxGroups, 0);
+    }
+
+    private StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups, int level) {
         // some code goes here
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("memory budget must be at least one group");
+        }
         if (what == Op.COUNT) {
             this.gbfield = gbfield;
             this.gbfieldtype = gbfieldtype;
             this.afield = afield;
             this.what = what;
-            this.fieldMap = new HashMap<>();
+            this.maxGroups = maxGroups;
+            this.level = level;
+            this.groups = gbfield == Aggregator.NO_GROUPING ? null : new GroupHashTable(gbfieldtype);
+            this.acc = new Accumulator(what);
         } else {
             throw new IllegalArgumentException();
         }
@@ -53,14 +87,52 @@ public class StringAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         if (gbfield ==Aggregator.NO_GROUPING) {
-            count +=1;
+            acc.add(0, 1);
         } else {
-            Field currentField = (Field) tup.getField(gbfield);
-            if (! fieldMap.containsKey(currentField)) {
-                fieldMap.put(currentField, 0);
-            }
-            int currentValue = fieldMap.get(currentField);
-            fieldMap.put(currentField, currentValue + 1);
+            merge(tup.getField(gbfield));
+        }
+    }
+
+    /**
+     * @return true if some groups did not fit in memory
+     */
+    public boolean hasSpilled() {
+        return spill != null;
+    }
+
+    /**
+     * Count one row of the group curGbField, or spill it if the group is not
+     * held in memory and there is no room for it.
+     */
+    private void merge(Field curGbField) {
+        int g = groups.size() < maxGroups ? groups.groupOf(curGbField) : groups.find(curGbField);
+        if (g >= 0) {
+            acc.add(g, 1);
+            return;
+        }
+        if (spill == null) {
+            spill = new AggregateSpill(new TupleDesc(new Type[]{gbfieldtype}), level);
+        }
+        Tuple row = new Tuple(spill.getTupleDesc());
+        row.setField(0, curGbField);
+        spill.add(curGbField, row);
+    }
+
+    /**
+     * Merge every selected row of a batch into the aggregate, reading the
+     * group-by column directly.
+     * @param batch rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int n = batch.numSelected();
+        if (gbfield == Aggregator.NO_GROUPING) {
+            acc.addCount(0, n);
+            return;
+        }
+        Field[] gbColumn = batch.column(gbfield);
+        int[] sel = batch.selection();
+        for (int i = 0; i < n; i++) {
+            merge(gbColumn[sel[i]]);
         }
     }
 
@@ -70,11 +142,12 @@ public class StringAggregator implements Aggregator {
      * @return a OpIterator whose tuples are the pair (groupVal,
      *   aggregateVal) if using group, or a single (aggregateVal) if no
      *   grouping. The aggregateVal is determined by the type of
-     *   aggregate specified in the constructor.
+     *   aggregate specified in the constructor. If some groups were
+     *   spilled, closing the iterator deletes them.
      */
     public OpIterator iterator() {
         // some code goes here
-        return new OpIterator() {
+        OpIterator memory = new OpIterator() {
             private TupleDesc tupleDesc;
             private Tuple[] aggregateVal;
             private int current_index = 0;
@@ -86,19 +159,18 @@ public class StringAggregator implements Aggregator {
                     aggregateVal = new Tuple[1];
                     tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE});
                     Tuple tuple = new Tuple(tupleDesc);
-                    tuple.setField(0, new IntField(count));
+                    tuple.setField(0, new IntField(acc.size() == 0 ? 0 : (int) acc.result(0)));
                     aggregateVal[0] = tuple;
                 } else {
-                    // if there's grouping
-                    aggregateVal = new Tuple[fieldMap.size()];
+                    // if there's grouping, one tuple per group in the order
+                    // the groups were first seen
+                    aggregateVal = new Tuple[groups.size()];
                     tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
-                    int i = 0;
-                    for (Field gbField: fieldMap.keySet()) {
+                    for (int g = 0; g < aggregateVal.length; g++) {
                         Tuple tuple = new Tuple(tupleDesc);
-                        tuple.setField(0, gbField);
-                        tuple.setField(1, new IntField(fieldMap.get(gbField)));
-                        aggregateVal[i] = tuple;
-                        i++;
+                        tuple.setField(0, groups.key(g));
+                        tuple.setField(1, new IntField((int) acc.result(g)));
+                        aggregateVal[g] = tuple;
                     }
                 }
             }
@@ -137,7 +209,14 @@ public class StringAggregator implements Aggregator {
             public TupleDesc getTupleDesc() {
                 return tupleDesc;
             }
-            
+
         };
+
+        if (spill == null) {
+            return memory;
+        }
+        // spilled rows hold just the group-by value
+        return spill.iterator(memory, () -> new StringAggregator(0, gbfieldtype, 0, what,
+                maxGroups, level + 1));
     }
 }
@@ -0,0 +1,143 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * TopN returns the first n tuples of its child in the order of one field, as
+ * ORDER BY ... LIMIT n would, without sorting the whole input. It keeps the
+ * best n tuples seen so far in a heap whose root is the worst of them, so
+ * the input is read in O(input * log n) time and O(n) memory. Tuples with
+ * equal keys keep the order of the child, as with {@link OrderBy}.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int n;
+    private transient List<Tuple> top;
+    private transient Iterator<Tuple> it;
+
+    /**
+     * Constructor.
+     *
+     * @param orderByField
+     *            the field to order on
+     * @param asc
+     *            true if the order is ascending
+     * @param n
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to choose from
+     */
+    public TopN(int orderByField, boolean asc, int n, OpIterator child) {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative number of tuples");
+        }
+        this.orderByField = orderByField;
+        this.asc = asc;
+        this.n = n;
+        this.child = child;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getLimit() {
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /** A tuple and its position in the child, to break ties between equal keys. */
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        Comparator<Tuple> byField = new TupleComparator(orderByField, asc);
+        Comparator<Entry> order = (a, b) -> {
+            int c = byField.compare(a.t, b.t);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        // the root is the entry that comes last, the first to be evicted
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.max(1, Math.min(n, 1024)),
+                order.reversed());
+        long seq = 0;
+        while (n > 0 && child.hasNext()) {
+            Entry e = new Entry(child.next(), seq++);
+            if (heap.size() < n) {
+                heap.add(e);
+            } else if (order.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+        List<Entry> sorted = new ArrayList<>(heap);
+        sorted.sort(order);
+        top = new ArrayList<>(sorted.size());
+        for (Entry e : sorted) {
+            top.add(e.t);
+        }
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+        it = null;
+    }
+
+    public void rewind() {
+        it = top.iterator();
+    }
+
+    /**
+     * Returns the next of the first n tuples, in order.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
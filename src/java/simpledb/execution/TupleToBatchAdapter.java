@@ -0,0 +1,67 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Exposes an operator that only produces tuples one at a time as a
+ * {@link BatchOpIterator}, by collecting its tuples into batches.
+ *
+ * @see BatchOpIterator#of(OpIterator)
+ */
+public class TupleToBatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child the operator to read tuples from
+     */
+    public TupleToBatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new TupleBatch(child.getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.addTuple(child.next());
+        }
+        return batch.numRows() == 0 ? null : batch;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
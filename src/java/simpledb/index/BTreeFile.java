@@ -1,8 +1,12 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.execution.IndexPredicate;
@@ -29,10 +33,14 @@ import simpledb.transaction.TransactionId;
  */
 public class BTreeFile implements DbFile {
 
+	/** Maximum number of sibling leaves fetched ahead of a range scan. */
+	static final int LEAF_READAHEAD = 8;
+
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final int pageSize;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -43,10 +51,25 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, BufferPool.getPageSize());
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file whose internal,
+	 * leaf and header pages are pageSize bytes long.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param pageSize - the size in bytes of the pages of this file
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int pageSize) {
 		this.f = f;
-		this.tableid = f.getAbsoluteFile().hashCode();
+		this.tableid = Catalog.getTableIdForFile(f);
 		this.keyField = key;
 		this.td = td;
+		this.pageSize = pageSize;
 	}
 
 	/**
@@ -57,11 +80,9 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Returns an ID uniquely identifying this BTreeFile. Implementation note:
-	 * you will need to generate this tableid somewhere and ensure that each
-	 * BTreeFile has a "unique id," and that you always return the same value for
-	 * a particular BTreeFile. We suggest hashing the absolute file name of the
-	 * file underlying the BTreeFile, i.e. f.getAbsoluteFile().hashCode().
+	 * Returns an ID uniquely identifying this BTreeFile. The id is the dense
+	 * table id the Catalog hands out for the underlying file, see
+	 * {@link Catalog#getTableIdForFile(File)}.
 	 * 
 	 * @return an ID uniquely identifying this BTreeFile.
 	 */
@@ -78,6 +99,15 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	/**
+	 * Returns the size in bytes of the internal, leaf and header pages of
+	 * this file. The root pointer page is always
+	 * {@link BTreeRootPtrPage#getPageSize()} bytes.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -100,30 +130,24 @@ public class BTreeFile implements DbFile {
                             + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
+                return createPage(id, pageBuf);
             } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
+                byte[] pageBuf = new byte[pageSize];
+                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * pageSize) !=
+                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * pageSize) {
                     throw new IllegalArgumentException(
                             "Unable to seek to correct place in BTreeFile");
                 }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+                int retval = bis.read(pageBuf, 0, pageSize);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
-                if (retval < BufferPool.getPageSize()) {
+                if (retval < pageSize) {
                     throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
+                            + pageSize + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
+                return createPage(id, pageBuf);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -132,6 +156,111 @@ public class BTreeFile implements DbFile {
         // Ignore failures closing the file
     }
 
+	/**
+	 * Read a batch of pages from the file on disk. Runs of pages with
+	 * consecutive page numbers are read with a single scattering read.
+	 * 
+	 * @param pids - the ids of the pages to read, sorted by page number
+	 * @return the pages constructed from the contents on disk, in the same order
+	 * @throws IllegalArgumentException if the file ends before the end of a page
+	 */
+	public List<Page> readPages(List<PageId> pids) {
+		List<Page> pages = new ArrayList<>(pids.size());
+		try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			int start = 0;
+			while (start < pids.size()) {
+				BTreePageId first = (BTreePageId) pids.get(start);
+				if (first.pgcateg() == BTreePageId.ROOT_PTR) {
+					pages.add(readPage(first));
+					start++;
+					continue;
+				}
+				int end = start + 1;
+				while (end < pids.size()
+						&& ((BTreePageId) pids.get(end)).pgcateg() != BTreePageId.ROOT_PTR
+						&& pids.get(end).getPageNumber() == pids.get(end - 1).getPageNumber() + 1) {
+					end++;
+				}
+				ByteBuffer[] buffers = new ByteBuffer[end - start];
+				for (int i = 0; i < buffers.length; i++) {
+					buffers[i] = ByteBuffer.allocate(pageSize);
+				}
+				channel.position(BTreeRootPtrPage.getPageSize() + (long) (first.getPageNumber() - 1) * pageSize);
+				long remaining = (long) pageSize * buffers.length;
+				while (remaining > 0) {
+					long read = channel.read(buffers);
+					if (read < 0) {
+						throw new IllegalArgumentException("Read past end of table");
+					}
+					remaining -= read;
+				}
+				for (int i = 0; i < buffers.length; i++) {
+					BTreePageId id = (BTreePageId) pids.get(start + i);
+					Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+					pages.add(createPage(id, buffers[i].array()));
+				}
+				start = end;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return pages;
+	}
+
+	/**
+	 * Construct a page of the right category from its bytes on disk. Every
+	 * page that readPage and readPages read is built by a call to this
+	 * method, so a subclass can override it to see each page read, however
+	 * the reads were merged.
+	 */
+	protected Page createPage(BTreePageId id, byte[] pageBuf) throws IOException {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return new BTreeRootPtrPage(id, pageBuf);
+		} else if (id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		} else if (id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		} else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
+
+	/**
+	 * Fetch up to LEAF_READAHEAD leaf pages to the right of the given leaf that
+	 * share its parent with a single call to BufferPool.getPages(), so that a range
+	 * scan following the right sibling pointers finds them already in the buffer pool.
+	 * 
+	 * @param tid - the transaction id
+	 * @param leaf - the leaf page the scan is currently on
+	 * @return the id of the right-most leaf page fetched, or the id of leaf if none were
+	 */
+	BTreePageId prefetchSiblings(TransactionId tid, BTreeLeafPage leaf)
+			throws DbException, TransactionAbortedException {
+		BTreePageId parentId = leaf.getParentId();
+		if (parentId.pgcateg() != BTreePageId.INTERNAL) {
+			return leaf.getId();
+		}
+		BTreeInternalPage parent = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, parentId, Permissions.READ_ONLY);
+		List<PageId> siblings = new ArrayList<>();
+		boolean found = false;
+		Iterator<BTreeEntry> it = parent.iterator();
+		while (it.hasNext() && siblings.size() < LEAF_READAHEAD) {
+			BTreeEntry e = it.next();
+			if (found) {
+				siblings.add(e.getRightChild());
+			} else if (e.getLeftChild().equals(leaf.getId())) {
+				found = true;
+				siblings.add(e.getRightChild());
+			}
+		}
+		if (siblings.isEmpty()) {
+			return leaf.getId();
+		}
+		Database.getBufferPool().getPages(tid, siblings, Permissions.READ_ONLY);
+		return (BTreePageId) siblings.get(siblings.size() - 1);
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -148,18 +277,60 @@ public class BTreeFile implements DbFile {
 			rf.close();
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
+			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * pageSize);
 			rf.write(data);
 			rf.close();
 		}
 	}
 	
+	/**
+	 * Write a batch of pages to disk, merging runs of pages with consecutive
+	 * page numbers into a single gathering write. This should not be called
+	 * directly but should be called from the BufferPool when pages are flushed
+	 * 
+	 * @param pages - the pages to write to disk, sorted by page number
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		try (FileChannel channel = FileChannel.open(f.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			int start = 0;
+			while (start < pages.size()) {
+				BTreePageId first = (BTreePageId) pages.get(start).getId();
+				if (first.pgcateg() == BTreePageId.ROOT_PTR) {
+					channel.position(0);
+					ByteBuffer buf = ByteBuffer.wrap(pages.get(start).getPageData());
+					while (buf.hasRemaining()) {
+						channel.write(buf);
+					}
+					start++;
+					continue;
+				}
+				int end = start + 1;
+				while (end < pages.size()
+						&& ((BTreePageId) pages.get(end).getId()).pgcateg() != BTreePageId.ROOT_PTR
+						&& pages.get(end).getId().getPageNumber() == pages.get(end - 1).getId().getPageNumber() + 1) {
+					end++;
+				}
+				ByteBuffer[] buffers = new ByteBuffer[end - start];
+				for (int i = 0; i < buffers.length; i++) {
+					buffers[i] = ByteBuffer.wrap(pages.get(start + i).getPageData());
+				}
+				channel.position(BTreeRootPtrPage.getPageSize() + (long) (first.getPageNumber() - 1) * pageSize);
+				long remaining = (long) pageSize * buffers.length;
+				while (remaining > 0) {
+					remaining -= channel.write(buffers);
+				}
+				start = end;
+			}
+		}
+	}
+
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ pageSize);
 	}
 
 	/**
@@ -1068,7 +1239,7 @@ public class BTreeFile implements DbFile {
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData(pageSize);
 				bw.write(emptyRootPtrData);
 				bw.write(emptyLeafData);
 				bw.close();
@@ -1118,7 +1289,7 @@ public class BTreeFile implements DbFile {
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots(pageSize) + emptySlot;
 			}
 		}
 
@@ -1129,7 +1300,7 @@ public class BTreeFile implements DbFile {
 				// create the new page
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
+				byte[] emptyData = BTreeInternalPage.createEmptyPageData(pageSize);
 				bw.write(emptyData);
 				bw.close();
 				emptyPageNo = numPages();
@@ -1163,8 +1334,8 @@ public class BTreeFile implements DbFile {
 		
 		// write empty page to disk
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
+		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * pageSize);
+		rf.write(BTreePage.createEmptyPageData(pageSize));
 		rf.close();
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
@@ -1230,7 +1401,7 @@ public class BTreeFile implements DbFile {
 
 		// iterate through all the existing header pages to find the one containing the slot
 		// corresponding to emptyPageNo
-		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
@@ -1240,7 +1411,7 @@ public class BTreeFile implements DbFile {
 		// at this point headerId should either be null or set with 
 		// the headerPage containing the slot corresponding to emptyPageNo.
 		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
@@ -1256,7 +1427,7 @@ public class BTreeFile implements DbFile {
 		// now headerId should be set with the headerPage containing the slot corresponding to 
 		// emptyPageNo
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots(pageSize);
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 
@@ -1295,6 +1466,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	// the last leaf page read ahead by BTreeFile.prefetchSiblings()
+	BTreePageId prefetchedThrough = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1317,6 +1490,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, null);
+		prefetchedThrough = f.prefetchSiblings(tid, curp);
 		it = curp.iterator();
 	}
 
@@ -1337,8 +1511,12 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				curp = null;
 			}
 			else {
+				BTreePageId prevp = curp.getId();
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				if (prevp.equals(prefetchedThrough)) {
+					prefetchedThrough = f.prefetchSiblings(tid, curp);
+				}
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1365,6 +1543,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		prefetchedThrough = null;
 	}
 }
 
@@ -1376,6 +1555,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	// the last leaf page read ahead by BTreeFile.prefetchSiblings()
+	BTreePageId prefetchedThrough = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1408,9 +1589,21 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		else {
 			curp = f.findLeafPage(tid, root, null);
 		}
+		if (scansToEnd()) {
+			prefetchedThrough = f.prefetchSiblings(tid, curp);
+		}
 		it = curp.iterator();
 	}
 
+	/**
+	 * @return true if the predicate can only be ended by running out of leaf pages,
+	 * in which case it is worth reading sibling pages ahead of the scan
+	 */
+	private boolean scansToEnd() {
+		return ipred.getOp() == Op.GREATER_THAN || ipred.getOp() == Op.GREATER_THAN_OR_EQ
+				|| ipred.getOp() == Op.NOT_EQUALS;
+	}
+
 	/**
 	 * Read the next tuple either from the current page if it has more tuples matching
 	 * the predicate or from the next page by following the right sibling pointer.
@@ -1446,8 +1639,12 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
+				BTreePageId prevp = curp.getId();
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				if (scansToEnd() && prevp.equals(prefetchedThrough)) {
+					prefetchedThrough = f.prefetchSiblings(tid, curp);
+				}
 				it = curp.iterator();
 			}
 		}
@@ -1469,5 +1666,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		prefetchedThrough = null;
 	}
 }
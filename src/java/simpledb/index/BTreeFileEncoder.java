@@ -3,6 +3,7 @@ package simpledb.index;
 import java.io.*;
 import java.util.*;
 
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.common.Utility;
@@ -186,7 +187,8 @@ public class BTreeFileEncoder {
 	 * Faster method to encode the B+ tree file
 	 * 
 	 * @param inFile - the file containing the raw data
-	 * @param hFile - the data file for the HeapFile to be used as an intermediate conversion step
+	 * @param hFile - the data file for the HeapFile to be used as an intermediate conversion step;
+	 *            its table id is released once its tuples have been read
 	 * @param bFile - the data file for the BTreeFile
 	 * @param npagebytes - number of bytes per page
 	 * @param numFields - number of fields per tuple
@@ -217,8 +219,18 @@ public class BTreeFileEncoder {
 		it.close();
 		tuples.sort(new TupleComparator(keyField));
 
+		// the heap file is not needed any more, so its table id can be reused once
+		// no lock, cached page or catalog entry refers to it
+		for (int i = 0; i < heapf.numPages(); i++) {
+			HeapPageId pid = new HeapPageId(heapf.getId(), i);
+			Database.getBufferPool().unsafeReleasePage(tid, pid);
+			Database.getBufferPool().discardPage(pid);
+		}
+		Database.getCatalog().removeTable(heapf.getId());
+		Catalog.releaseTableIdForFile(hFile);
+
 		// add the tuples to B+ tree file
-		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField, npagebytes);
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -1,5 +1,7 @@
 package simpledb.index;
 
+import simpledb.common.Catalog;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Type;
@@ -29,6 +31,7 @@ public class BTreeHeaderPage implements Page {
 	final BTreePageId pid;
 	final byte[] header;
 	final int numSlots;
+	final int pageSize;
 
 	private int nextPage; // next header page or 0
 	private int prevPage; // previous header page or 0
@@ -41,12 +44,13 @@ public class BTreeHeaderPage implements Page {
 	 * The format of a BTreeHeaderPage is two pointers to the next and previous
 	 * header pages, followed by a set of bytes indicating which pages in the file
 	 * are used or available
-	 * @see BufferPool#getPageSize()
+	 * @see Catalog#getPageSize
 	 * 
 	 */
 	public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
-		this.numSlots = getNumSlots();
+		this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+		this.numSlots = getNumSlots(pageSize);
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the next and prev pointers
@@ -65,7 +69,7 @@ public class BTreeHeaderPage implements Page {
 		}
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
+		header = new byte[getHeaderSize(pageSize)];
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
@@ -84,17 +88,24 @@ public class BTreeHeaderPage implements Page {
 	/**
 	 * Computes the number of bytes in the header while saving room for pointers
 	 */
-	private static int getHeaderSize() {        
+	private static int getHeaderSize(int pageSize) {        
 		// pointerBytes: nextPage and prevPage pointers
 		int pointerBytes = 2 * INDEX_SIZE; 
-		return BufferPool.getPageSize() - pointerBytes;
+		return pageSize - pointerBytes;
 	}
 
 	/**
 	 * Computes the number of slots in the header
 	 */
 	public static int getNumSlots() {        
-		return getHeaderSize() * 8;
+		return getNumSlots(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Computes the number of slots in the header of a page of pageSize bytes
+	 */
+	public static int getNumSlots(int pageSize) {        
+		return getHeaderSize(pageSize) * 8;
 	}
 
 	/** Return a view of this page before it was modified
@@ -141,7 +152,7 @@ public class BTreeHeaderPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -188,8 +199,15 @@ public class BTreeHeaderPage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Same as {@link #createEmptyPageData()}, for a B+ tree whose pages are
+	 * pageSize bytes long.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
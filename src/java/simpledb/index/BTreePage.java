@@ -26,6 +26,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final int pageSize;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -39,7 +40,7 @@ public abstract class BTreePage implements Page {
 	 * has m+1 pointers to children), and the category of all child pages (either 
 	 * leaf or internal).
 	 *  Specifically, the number of entries is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
 	 * (key + child pointer), which can be determined via the key field and 
 	 * {@link Catalog#getTupleDesc}.
@@ -49,7 +50,7 @@ public abstract class BTreePage implements Page {
 	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
-	 * @see BufferPool#getPageSize()
+	 * @see Catalog#getPageSize
 	 * 
 	 * @param id - the id of this page
 	 * @param key - the field which the index is keyed on
@@ -58,6 +59,7 @@ public abstract class BTreePage implements Page {
 		this.pid = id;
 		this.keyField = key;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
 	}
 
 	/**
@@ -77,8 +79,15 @@ public abstract class BTreePage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Same as {@link #createEmptyPageData()}, for a B+ tree whose pages are
+	 * pageSize bytes long.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
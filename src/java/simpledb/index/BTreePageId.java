@@ -3,8 +3,6 @@ package simpledb.index;
 import simpledb.storage.BufferPool;
 import simpledb.storage.PageId;
 
-import java.util.Objects;
-
 /** Unique identifier for BTreeInternalPage, BTreeLeafPage, BTreeHeaderPage
  *  and BTreeRootPtrPage objects. 
  */
@@ -75,7 +73,8 @@ public class BTreePageId implements PageId {
 	 * @see BufferPool
 	 */
 	public int hashCode() {
-	    return Objects.hash(tableId, pgNo, pgcateg);
+	    // table ids are small and dense, so keep them clear of the page number
+	    return ((Integer.rotateLeft(tableId, 20) ^ pgNo) << 2) | pgcateg;
 	}
 
 	/**
@@ -421,9 +421,22 @@ public class BTreeUtility {
 	 * @return the opened table.
 	 */
 	public static BTreeFile openBTreeFile(int cols, File f, int keyField) {
+		return openBTreeFile(cols, f, keyField, BufferPool.getPageSize());
+	}
+
+	/** Opens a BTreeFile whose pages are pageSize bytes long and adds it to
+	 * the catalog.
+	 *
+	 * @param cols number of columns in the table.
+	 * @param f location of the file storing the table.
+	 * @param keyField the field the B+ tree is keyed on
+	 * @param pageSize the size in bytes of the pages of the file
+	 * @return the opened table.
+	 */
+	public static BTreeFile openBTreeFile(int cols, File f, int keyField, int pageSize) {
 		// create the BTreeFile and add it to the catalog
 		TupleDesc td = Utility.getTupleDesc(cols);
-		BTreeFile bf = new BTreeFile(f, keyField, td);
+		BTreeFile bf = new BTreeFile(f, keyField, td, pageSize);
 		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
 		return bf;
 	}
@@ -535,12 +548,7 @@ public class BTreeUtility {
 					error = e;
 				}
 
-                try {
-					Database.getBufferPool().transactionComplete(tid, false);
-				} catch (IOException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				}
+				Database.getBufferPool().transactionComplete(tid, false);
             }
 		}
 
@@ -623,12 +631,7 @@ public class BTreeUtility {
 					error = e;
 				}
 
-                try {
-					Database.getBufferPool().transactionComplete(tid, false);
-				} catch (IOException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				}
+				Database.getBufferPool().transactionComplete(tid, false);
             }
 		}
 
@@ -696,12 +699,7 @@ public class BTreeUtility {
 					error = e;
 				}
 
-                try {
-					Database.getBufferPool().transactionComplete(tid, false);
-				} catch (IOException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				}
+				Database.getBufferPool().transactionComplete(tid, false);
             }
 		}
 		
@@ -799,7 +797,7 @@ public class BTreeUtility {
 				try {
 					insertedTuples.put(tuple);
 					Database.getBufferPool().transactionComplete(tid, false);
-				} catch (InterruptedException | IOException e2) {
+				} catch (InterruptedException e2) {
 					e2.printStackTrace();
 				}
             }
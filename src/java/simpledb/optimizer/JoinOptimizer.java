@@ -1,8 +1,12 @@
 package simpledb.optimizer;
 
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -16,6 +20,10 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+
+    /** Assumed number of children of a B+ tree internal page, for costing index probes */
+    static final int INDEX_FANOUT = 100;
+
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
 
@@ -49,6 +57,23 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, -1);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)} does,
+     * but also consider an {@link IndexNestedLoopJoin} when plan2 scans a
+     * table with a B+ tree on the join field. The index join is picked when
+     * probing the index once per outer tuple is estimated to cost less than
+     * reading the whole inner table, which is the case for selective outer
+     * inputs.
+     *
+     * @param card1
+     *            The estimated cardinality of plan1, or -1 if unknown
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2, int card1) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -73,26 +98,125 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (card1 >= 0 && !(lj instanceof LogicalSubplanJoinNode) && plan2 instanceof SeqScan
+                && IndexNestedLoopJoin.canProbe(lj.p)
+                && IndexNestedLoopJoin.isIndexedOn((SeqScan) plan2, t2id)
+                && indexJoinIsCheaper(lj.p, card1, (SeqScan) plan2, t2id)) {
+            return new IndexNestedLoopJoin(p, plan1, (SeqScan) plan2);
+        }
 
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
+        switch (lj.p) {
+        case EQUALS: {
+            // merging is cheaper than hashing only when neither side needs sorting
+            boolean sorted1 = sortedOn(plan1, t1id), sorted2 = sortedOn(plan2, t2id);
+            if (sorted1 && sorted2) {
+                j = new SortMergeJoin(p, plan1, plan2, true, true, ExternalSort.DEFAULT_MAX_TUPLES);
+            } else {
+                j = new HashEquiJoin(p, plan1, plan2);
             }
-        } else {
+            break;
+        }
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            j = new SortMergeJoin(p, plan1, plan2, sortedOn(plan1, t1id), sortedOn(plan2, t2id),
+                    ExternalSort.DEFAULT_MAX_TUPLES);
+            break;
+        default:
             j = new Join(p, plan1, plan2);
+            break;
         }
 
         return j;
 
     }
 
+    /**
+     * @return true if plan is known to return its tuples in ascending order of
+     *         the given field: an ascending OrderBy on it, or a scan of a
+     *         B+ tree keyed on it, possibly below filters, or the group-by
+     *         field of a streaming Aggregate over such a plan.
+     */
+    static boolean sortedOn(OpIterator plan, int field) {
+        if (plan instanceof Filter) {
+            return sortedOn(((Filter) plan).getChildren()[0], field);
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            return a.isStreaming() && field == 0 && sortedOn(a.getChildren()[0], a.groupField());
+        }
+        if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (plan instanceof BTreeScan) {
+            Catalog catalog = Database.getCatalog();
+            DbFile f = catalog.getDatabaseFile(catalog.getTableId(((BTreeScan) plan).getTableName()));
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        }
+        if (plan instanceof SeqScan) {
+            // a BTreeFile's iterator walks the leaf pages in key order
+            return IndexNestedLoopJoin.isIndexedOn((SeqScan) plan, field);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if joining card1 outer tuples with the table scanned by
+     *         inner through its B+ tree is estimated to be cheaper than
+     *         reading the whole table. The outer input is read once either
+     *         way, so its cost is left out.
+     */
+    private static boolean indexJoinIsCheaper(Predicate.Op op, int card1, SeqScan inner, int field) {
+        TableStats s = TableStats.getTableStats(inner.getTableName());
+        if (s == null || s.totalTuples() <= 0) {
+            return false;
+        }
+        int card2 = s.totalTuples();
+        double cost2 = s.estimateScanCost();
+        int pages2 = ((BTreeFile) Database.getCatalog().getDatabaseFile(inner.getTableId())).numPages();
+        double indexCost = estimateIndexJoinCost(card1, 0, card2, cost2, pages2,
+                s.avgSelectivity(field, op));
+        return indexCost < estimateHashJoinCost(card1, 0, card2, cost2);
+    }
+
+    /**
+     * Estimate the cost of an index nested-loop join: one pass over the outer
+     * input, then for each outer tuple a descent of the B+ tree and a read of
+     * the part of the inner table that matches.
+     *
+     * @param card1
+     *            Estimated cardinality of the outer input
+     * @param cost1
+     *            Estimated cost of one pass over the outer input
+     * @param card2
+     *            Cardinality of the inner table
+     * @param cost2
+     *            Estimated cost of one full scan of the inner table
+     * @param pages2
+     *            Number of pages of the inner table
+     * @param selectivity
+     *            Fraction of the inner table matching one outer tuple
+     * @return An estimate of the cost of the join
+     */
+    public static double estimateIndexJoinCost(int card1, double cost1, int card2,
+            double cost2, int pages2, double selectivity) {
+        double pageCost = pages2 > 0 ? cost2 / pages2 : 0;
+        double height = Math.max(1, Math.ceil(Math.log(Math.max(pages2, 1)) / Math.log(INDEX_FANOUT)));
+        double probeCost = height * pageCost + selectivity * (cost2 + card2);
+        return cost1 + card1 * probeCost;
+    }
+
+    /**
+     * Estimate the cost of a join that reads each input once, such as a hash
+     * join whose left input fits in memory: the scans plus one operation per
+     * input tuple.
+     */
+    public static double estimateHashJoinCost(int card1, double cost1, int card2, double cost2) {
+        return cost1 + cost2 + card1 + card2;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
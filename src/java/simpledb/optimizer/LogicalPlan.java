@@ -16,8 +16,8 @@ import java.io.File;
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
  * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * LogicalPlans can represent queries with several aggregates, all
+ * computed by a single Aggregate, and one group by field.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -34,10 +34,12 @@ public class LogicalPlan {
     private final List<LogicalSelectListNode> selectList;
     private String groupByField = null;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    // the operator and the field of each distinct aggregate
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1, offset = 0;
     private String query;
 //    private Query owner;
 
@@ -78,6 +80,12 @@ public class LogicalPlan {
     public Integer getTableId(String alias) {
         return tableMap.get(alias);
     }
+
+    /** @return true if field is the primary key of the table with the given alias */
+    private boolean isPkey(String tableAlias, String field) {
+        String pkey = Database.getCatalog().getPrimaryKey(getTableId(tableAlias));
+        return pkey != null && pkey.equals(field);
+    }
     
     public Map<String,Integer> getTableAliasToIdMapping()
     {
@@ -189,21 +197,41 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  May be called once for each aggregate in the select
+        list; they are all computed in one pass, and must share the same
+        GROUP BY field.  An aggregate that was already added is not added
+        again.
         @param op the aggregation operator
         @param afield the field to aggregate over
         @param gfield the field to group by
-     * @throws ParsingException 
+     * @throws ParsingException if gfield differs from that of an earlier aggregate
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
         if (gfield!=null)
             gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
+        if (hasAgg && !Objects.equals(groupByField, gfield)) {
+            throw new ParsingException("Aggregates with different GROUP BY fields not supported.");
+        }
         groupByField = gfield;
         hasAgg = true;
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.add(op);
+            aggFields.add(afield);
+        }
+    }
+
+    /**
+     * @return the position of the aggregate op(afield) among the aggregates
+     *         of the query, or -1 if it is not one of them
+     */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equals(op) && aggFields.get(i).equals(afield)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
@@ -219,6 +247,19 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Return only some of the result tuples, as LIMIT limit OFFSET offset does.
+        @param limit the maximum number of tuples to return
+        @param offset the number of tuples to skip first
+     * @throws ParsingException if limit or offset is negative
+    */
+    public void setLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0) {
+            throw new ParsingException("LIMIT and OFFSET must not be negative");
+        }
+        this.limit = limit;
+        this.offset = offset;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -261,6 +302,79 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * @return the fields of each table alias that the joins, select list,
+     *   aggregates and ORDER BY of the query refer to, by pure name. An
+     *   alias maps to null when every field of it is needed, as for a *.
+     */
+    private Map<String, Set<String>> referencedFields() {
+        Map<String, Set<String>> fields = new HashMap<>();
+        for (LogicalScanNode table : tables) {
+            fields.put(table.alias, new HashSet<>());
+        }
+        // filters are not counted: those over a heap file, the only kind
+        // of table scanned partially, are pushed down into its scan
+        List<String> names = new ArrayList<>();
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                names.add(lj.f2QuantifiedName);
+            }
+        }
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        names.addAll(aggFields);
+        names.add(groupByField);
+        names.add(oByField);
+
+        for (String name : names) {
+            if (name == null) {
+                continue;
+            }
+            int dot = name.lastIndexOf('.');
+            String alias = dot < 0 ? "null" : name.substring(0, dot);
+            String field = name.substring(dot + 1);
+            if (field.equals("*")) {
+                if (fields.containsKey(alias)) {
+                    fields.put(alias, null);
+                } else {
+                    fields.replaceAll((a, f) -> null);
+                }
+            } else if (fields.get(alias) != null) {
+                fields.get(alias).add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return the fields of the table to scan as alias, or null to scan all
+     *   of them. Only heap files are scanned partially: a B+ tree file is
+     *   scanned whole, so that its key field can be probed and be relied on
+     *   for the order of the scan.
+     */
+    private static int[] scanColumns(int tableId, Set<String> referenced) {
+        if (referenced == null || !(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            return null;
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (referenced.contains(td.getFieldName(i))) {
+                columns.add(i);
+            }
+        }
+        if (columns.size() == td.numFields()) {
+            return null;
+        }
+        if (columns.isEmpty()) {
+            // a tuple has at least one field
+            columns.add(0);
+        }
+        return columns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -292,12 +406,15 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        // each scan returns only the fields the operators above it refer to
+        Map<String, Set<String>> referenced = referencedFields();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 int tableId = Database.getCatalog().getDatabaseFile(table.t).getId();
+                 ss = new SeqScan(t, tableId, table.alias, scanColumns(tableId, referenced.get(table.alias)));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -317,10 +434,17 @@ public class LogicalPlan {
 
             Field f;
             Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+            // a predicate pushed down into the scan of a heap file refers to
+            // the fields of the table, which the scan need not return
+            boolean pushDown = subplan instanceof SeqScan
+                    && Database.getCatalog().getDatabaseFile(((SeqScan) subplan).getTableId()) instanceof HeapFile;
+            TupleDesc td = pushDown ? Database.getCatalog().getTupleDesc(((SeqScan) subplan).getTableId())
+                    : subplan.getTupleDesc();
+            int field;
 
             try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+                field = td.fieldNameToIndex(pushDown ? lf.fieldPureName : lf.fieldQuantifiedName);
+                ftyp = td.getFieldType(field);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
@@ -329,17 +453,19 @@ public class LogicalPlan {
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+            Predicate p = new Predicate(field, lf.p, f);
+            if (pushDown) {
+                // tested against the bytes of each row before it is decoded
+                ((SeqScan) subplan).pushDown(p);
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the statistics are kept for every field of the table, not just the scanned ones
+            double sel = s.estimateSelectivity(Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias))
+                    .fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -349,6 +475,14 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated cardinality of each subplan, -1 when unknown
+        Map<String,Integer> subplanCards = new HashMap<>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            subplanCards.put(table.alias, s == null ? -1
+                    : s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
+
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
             OpIterator plan2;
@@ -381,8 +515,17 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            int card1 = subplanCards.get(t1name);
+            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, card1);
             subplanMap.put(t1name, j);
+            int card2 = isSubqueryJoin ? -1 : subplanCards.get(t2name);
+            if (card1 >= 0 && (isSubqueryJoin || card2 >= 0)) {
+                boolean pk1 = isPkey(lj.t1Alias, lj.f1PureName);
+                boolean pk2 = !isSubqueryJoin && isPkey(lj.t2Alias, lj.f2PureName);
+                subplanCards.put(t1name, jo.estimateJoinCardinality(lj, card1, card2, pk1, pk2, statsMap));
+            } else {
+                subplanCards.put(t1name, -1);
+            }
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -413,7 +556,11 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int agg = aggregateIndex(si.aggOp, si.fname);
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the query");
+                }
+                outFields.add((groupByField!=null?1:0) + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -461,10 +608,19 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                if (gfield != Aggregator.NO_GROUPING && JoinOptimizer.sortedOn(node, gfield)) {
+                    // groups arrive one after the other: no need to hash them
+                    aggNode = Aggregate.streaming(node, afields, aops, gfield);
+                } else {
+                    aggNode = new Aggregate(node, afields, aops, gfield);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
@@ -472,7 +628,18 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0 && oByAsc && JoinOptimizer.sortedOn(node, oByIndex)) {
+                // already in order (e.g. a B+ tree scan): Limit stops reading early
+            } else if (limit >= 0) {
+                node = new TopN(oByIndex, oByAsc, (int) Math.min(Integer.MAX_VALUE, (long) limit + offset), node);
+            } else {
+                node = new OrderBy(oByIndex, oByAsc, node);
+            }
+        }
+
+        if (limit >= 0) {
+            node = new Limit(limit, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
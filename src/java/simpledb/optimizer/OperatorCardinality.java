@@ -29,7 +29,19 @@ public class OperatorCardinality {
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
+            HashEquiJoin j = (HashEquiJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin j = (IndexNestedLoopJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
                     tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
@@ -44,16 +56,33 @@ public class OperatorCardinality {
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
                 } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                    childC = scanCardinality((SeqScan) children[0], tableStats);
                 }
             }
+            if (o instanceof TopN) {
+                childC = Math.min(childC, ((TopN) o).getLimit());
+            } else if (o instanceof Limit) {
+                Limit l = (Limit) o;
+                childC = Math.max(0, Math.min(childC - l.getOffset(), l.getLimit()));
+            }
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
     }
 
+    /**
+     * @return the estimated cardinality of a scan, with the selectivity of
+     *         the predicates pushed down into it
+     */
+    private static int scanCardinality(SeqScan s, Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(s.getTableName());
+        double selectivity = 1.0;
+        for (Predicate p : s.getPushedPredicates()) {
+            selectivity *= stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        }
+        return stats.estimateTableCardinality(selectivity);
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -80,9 +109,7 @@ public class OperatorCardinality {
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
             } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+                f.setEstimatedCardinality((int) (scanCardinality((SeqScan) child, tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -123,8 +150,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -135,8 +161,7 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -146,9 +171,10 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
-                                                         Map<String, Integer> tableAliasToId,
-                                                         Map<String, TableStats> tableStats) {
+    private static boolean updateJoinCardinality(Operator j, JoinPredicate jp,
+                                                 String joinField1Name, String joinField2Name,
+                                                 Map<String, Integer> tableAliasToId,
+                                                 Map<String, TableStats> tableStats) {
 
         OpIterator[] children = j.getChildren();
         OpIterator child1 = children[0];
@@ -156,10 +182,10 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = joinField1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = joinField2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
@@ -178,8 +204,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -190,12 +215,11 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(jp
+                .getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
@@ -220,8 +244,7 @@ public class OperatorCardinality {
         }
 
         if (child instanceof SeqScan) {
-            childCard = tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0);
+            childCard = scanCardinality((SeqScan) child, tableStats);
         }
 
         String[] tmp = a.groupFieldName().split("[.]");
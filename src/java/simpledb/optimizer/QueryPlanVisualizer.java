@@ -4,6 +4,7 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
@@ -12,14 +13,35 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
+    // the measurements shown next to the estimates, if the plan was run by
+    // EXPLAIN ANALYZE
+    private QueryProfile profile;
+
+    /**
+     * @return the actual rows, time and pages of op, to follow its estimated
+     *         cardinality, or "" if the plan is not being profiled
+     */
+    private String actual(OpIterator op) {
+        ProfiledOpIterator p = this.profile == null ? null : this.profile.get(op);
+        if (p == null)
+            return "";
+        return String.format(",rows:%d,ms:%.2f(self %.2f),pages:%d+%d",
+                p.getRows(), (p.getOpenNanos() + p.getNextNanos()) / 1e6,
+                (p.getOpenSelfNanos() + p.getNextSelfNanos()) / 1e6,
+                p.getPageHits(), p.getPageMisses());
+    }
+
     private int calculateQueryPlanTreeDepth(OpIterator root) {
         if (root == null)
             return 0;
@@ -29,7 +51,8 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof SortMergeJoin
+                || o instanceof IndexNestedLoopJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -76,8 +99,16 @@ public class QueryPlanVisualizer {
                 alias = " " + alias;
             else
                 alias = "";
+            // predicates pushed down into the scan are shown as a Filter's are
+            StringBuilder pushed = new StringBuilder();
+            TupleDesc td = Database.getCatalog().getTupleDesc(s.getTableId());
+            for (Predicate p : s.getPushedPredicates()) {
+                pushed.append(",").append(s.getAlias()).append(".").append(td.getFieldName(p.getField()))
+                        .append(p.getOp()).append(p.getOperand());
+            }
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+                    .format("%1$s(%2$s)", SCAN, tableName + alias + pushed)
+                    + this.actual(queryPlan);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -117,7 +148,8 @@ public class QueryPlanVisualizer {
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
                 thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality())
+                        + this.actual(queryPlan);
                 int upBarShift = parentUpperBarStartShift;
                 if (JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = JOIN.length() / 2;
@@ -138,18 +170,31 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
+            } else if (plan instanceof HashEquiJoin || plan instanceof SortMergeJoin
+                    || plan instanceof IndexNestedLoopJoin) {
+                Operator j = (Operator) plan;
+                JoinPredicate jp;
+                String joinText;
+                if (plan instanceof HashEquiJoin) {
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                    joinText = HASH_JOIN;
+                } else if (plan instanceof SortMergeJoin) {
+                    jp = ((SortMergeJoin) plan).getJoinPredicate();
+                    joinText = MERGE_JOIN;
+                } else {
+                    jp = ((IndexNestedLoopJoin) plan).getJoinPredicate();
+                    joinText = INDEX_JOIN;
+                }
                 TupleDesc td = j.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", joinText, field1
+                        + jp.getOperator() + field2,j.getEstimatedCardinality())
+                        + this.actual(queryPlan);
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (joinText.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = joinText.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -158,7 +203,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - joinText.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -173,15 +218,24 @@ public class QueryPlanVisualizer {
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
                 int gfield = a.groupField();
+                StringBuilder aggs = new StringBuilder();
+                for (int i = 0; i < a.numAggregates(); i++) {
+                    if (i > 0)
+                        aggs.append(", ");
+                    aggs.append(a.aggregateOp(i)).append('(')
+                            .append(a.aggregateFieldName(i)).append(')');
+                }
 
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality())
+                            + this.actual(queryPlan);
                     alignTxt = td.getFieldName(0);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, a.groupFieldName(), aggs,
+                            a.getEstimatedCardinality())
+                            + this.actual(queryPlan);
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -204,7 +258,8 @@ public class QueryPlanVisualizer {
                 thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
                         .getTupleDesc().getFieldName(p.getField())
                         + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                        + p.getOperand(),f.getEstimatedCardinality())
+                        + this.actual(queryPlan);
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -219,13 +274,20 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof OrderBy) {
-                OrderBy o = (OrderBy) plan;
+            } else if (plan instanceof OrderBy || plan instanceof TopN) {
+                String field;
+                if (plan instanceof OrderBy) {
+                    field = children[0].getTupleDesc().getFieldName(((OrderBy) plan).getOrderByField());
+                } else {
+                    TopN t = (TopN) plan;
+                    field = children[0].getTupleDesc().getFieldName(t.getOrderByField())
+                            + ",top " + t.getLimit();
+                }
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        field,plan.getEstimatedCardinality())
+                        + this.actual(queryPlan);
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -240,6 +302,25 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                thisNode.text = String.format("%1$s(%2$d,offset %3$d),card:%4$d", LIMIT,
+                        l.getLimit(), l.getOffset(), l.getEstimatedCardinality())
+                        + this.actual(queryPlan);
+                int upBarShift = parentUpperBarStartShift;
+                if (LIMIT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = LIMIT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - LIMIT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -247,7 +328,8 @@ public class QueryPlanVisualizer {
                 while (it.hasNext())
                     fields.append(it.next().fieldName).append(",");
                 fields = new StringBuilder(fields.substring(0, fields.length() - 1));
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", PROJECT, fields.toString(),p.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", PROJECT, fields.toString(),p.getEstimatedCardinality())
+                        + this.actual(queryPlan);
                 int upBarShift = parentUpperBarStartShift;
                 if (PROJECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = PROJECT.length() / 2;
@@ -273,7 +355,8 @@ public class QueryPlanVisualizer {
                     e.printStackTrace();
                 } 
 
-                thisNode.text = String.format("%1$s,card:%2$d", name,card);
+                thisNode.text = String.format("%1$s,card:%2$d", name,card)
+                        + this.actual(queryPlan);
                 int upBarShift = parentUpperBarStartShift;
                 if (name.length() / 2 > parentUpperBarStartShift)
                     upBarShift = name.length() / 2;
@@ -308,7 +391,8 @@ public class QueryPlanVisualizer {
                     e.printStackTrace();
                 } 
                 String oldName = plan.getChildren()[0].getTupleDesc().getFieldName(fieldIdx);
-                thisNode.text = String.format("%1$s,%2$s->%3$s,card:%4$d", RENAME,oldName,newName,plan.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s,%2$s->%3$s,card:%4$d", RENAME,oldName,newName,plan.getEstimatedCardinality())
+                        + this.actual(queryPlan);
                 int upBarShift = parentUpperBarStartShift;
                 if (RENAME.length() / 2 > parentUpperBarStartShift)
                     upBarShift = RENAME.length() / 2;
@@ -392,6 +476,37 @@ public class QueryPlanVisualizer {
         return sb.reverse().toString();
     }
 
+    /**
+     * Returns the plan tree of a query run by EXPLAIN ANALYZE, with the
+     * actual rows, the inclusive and exclusive time in milliseconds and the
+     * pages found in the buffer pool and read of each operator after its
+     * estimated cardinality.
+     *
+     * @param profile the measurements of the run, after
+     *                {@link QueryProfile#finish}
+     */
+    public String getQueryPlanTree(QueryProfile profile) {
+        this.profile = profile;
+        try {
+            return this.getQueryPlanTree(profile.plan());
+        } finally {
+            this.profile = null;
+        }
+    }
+
+    /**
+     * Prints the plan tree of a query run by EXPLAIN ANALYZE (see
+     * {@link #getQueryPlanTree(QueryProfile)}), followed by its peak heap
+     * usage.
+     */
+    public void printQueryPlanTree(QueryProfile profile, PrintStream out) {
+        if (out == null)
+            out = System.out;
+
+        out.println(this.getQueryPlanTree(profile));
+        out.printf("peak heap: %.1f MB%n", profile.peakHeapBytes() / (1024.0 * 1024.0));
+    }
+
     public void printQueryPlanTree(OpIterator physicalPlan, PrintStream out) {
         if (out == null)
             out = System.out;
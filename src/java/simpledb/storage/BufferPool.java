@@ -10,10 +10,20 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -38,19 +48,87 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
     private int numPages;
     private ConcurrentHashMap<PageId, Page> currentPool;
+    // frames taken by each cached page, and their total
+    private ConcurrentHashMap<PageId, Integer> frames;
+    private final AtomicInteger usedFrames = new AtomicInteger();
     private LockManager lockManager;
+    private final PageIoScheduler ioScheduler;
+    // the pages requested by each thread that were found in the pool, and
+    // that had to be read
+    private final ThreadLocal<long[]> pageRequests = ThreadLocal.withInitial(() -> new long[2]);
+
+    /** Global lock order used by {@link #getPages}. */
+    private static final Comparator<PageId> PAGE_ORDER = (a, b) -> {
+        int c = Integer.compare(a.getTableId(), b.getTableId());
+        if (c != 0) {
+            return c;
+        }
+        c = Integer.compare(a.getPageNumber(), b.getPageNumber());
+        if (c != 0) {
+            return c;
+        }
+        int[] sa = a.serialize();
+        int[] sb = b.serialize();
+        for (int i = 0; i < Math.min(sa.length, sb.length); i++) {
+            c = Integer.compare(sa[i], sb[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(sa.length, sb.length);
+    };
     /**
      * Creates a BufferPool that caches up to numPages pages.
+     * <p>
+     * Capacity is counted in frames of {@link #getPageSize()} bytes. A page
+     * of a table with a larger page size (see {@link DbFile#getPageSize})
+     * takes as many frames as it needs, so numPages bounds the memory used
+     * by the pool rather than the number of pages in it.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new PageIoScheduler(PageIoScheduler.DEFAULT_WORKERS,
+                PageIoScheduler.DEFAULT_QUEUE_DEPTH));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and performs its
+     * page I/O through the given scheduler.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param ioScheduler the scheduler all page reads and writes are submitted to
+     */
+    public BufferPool(int numPages, PageIoScheduler ioScheduler) {
         // some code goes here
         this.numPages = numPages;
         this.currentPool = new ConcurrentHashMap<PageId, Page>();
+        this.frames = new ConcurrentHashMap<PageId, Integer>();
         this.lockManager = new LockManager();
+        this.ioScheduler = ioScheduler;
+    }
+
+    /** @return the scheduler this buffer pool submits page I/O to */
+    public PageIoScheduler getIoScheduler() {
+        return this.ioScheduler;
     }
     
+    /**
+     * @return the number of pages the calling thread has requested from this
+     *         buffer pool that were in it already
+     */
+    public long pageHits() {
+        return this.pageRequests.get()[0];
+    }
+
+    /**
+     * @return the number of pages the calling thread has requested from this
+     *         buffer pool that had to be read from disk
+     */
+    public long pageMisses() {
+        return this.pageRequests.get()[1];
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -83,9 +161,6 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if (this.currentPool.size() >= numPages) {
-            this.evictPage();
-        }
         // acquiring lock
         try {
             this.lockManager.acquire(tid, pid, perm);
@@ -93,18 +168,127 @@ public class BufferPool {
             e.printStackTrace();
         }
 
+        long[] requests = this.pageRequests.get();
         if (this.currentPool.containsKey(pid)){
             //if it's in the buffer pool
+            requests[0]++;
             return this.currentPool.get(pid);
         } 
+        requests[1]++;
+        this.makeRoom(this.framesFor(pid));
         int tableId = pid.getTableId();
         Catalog catalog = Database.getCatalog();
-        Page page = catalog.getDatabaseFile(tableId).readPage(pid);
-        this.currentPool.put(pid, page);
+        Page page = awaitRead(this.ioScheduler.submitRead(catalog.getDatabaseFile(tableId), pid));
+        this.cachePage(page);
         return page;
 
     }
 
+    /**
+     * Retrieve a batch of pages with the associated permissions.
+     * <p>
+     * Locks are acquired in a fixed global order (table id, then page
+     * number) so that two transactions fetching overlapping batches cannot
+     * deadlock against each other. Pages that are not in the buffer pool are
+     * all submitted to the {@link PageIoScheduler} before waiting on any of
+     * them, so that runs of adjacent pages can be read with a single I/O.
+     *
+     * @param tid the ID of the transaction requesting the pages
+     * @param pids the IDs of the requested pages
+     * @param perm the requested permissions on the pages
+     * @return the requested pages, in the same order as pids
+     */
+    public List<Page> getPages(TransactionId tid, Collection<PageId> pids, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        List<PageId> ordered = new ArrayList<>(new LinkedHashSet<>(pids));
+        ordered.sort(PAGE_ORDER);
+
+        // acquire every lock before doing any I/O
+        for (PageId pid : ordered) {
+            this.lockManager.acquire(tid, pid, perm);
+        }
+
+        // submit every miss before waiting on any, so the scheduler can merge
+        // adjacent pages of the same file
+        List<CompletableFuture<Page>> reads = new ArrayList<>();
+        for (PageId pid : ordered) {
+            if (!this.currentPool.containsKey(pid)) {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                reads.add(this.ioScheduler.submitRead(file, pid));
+            }
+        }
+        long[] requests = this.pageRequests.get();
+        requests[0] += ordered.size() - reads.size();
+        requests[1] += reads.size();
+
+        Map<PageId, Page> fetched = new HashMap<>();
+        for (CompletableFuture<Page> read : reads) {
+            Page page = awaitRead(read);
+            int n = this.framesFor(page.getId());
+            this.makeRoom(n);
+            Page existing = this.currentPool.putIfAbsent(page.getId(), page);
+            if (existing == null) {
+                this.frames.put(page.getId(), n);
+                this.usedFrames.addAndGet(n);
+            }
+            fetched.put(page.getId(), existing != null ? existing : page);
+        }
+
+        List<Page> result = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            Page page = fetched.get(pid);
+            if (page == null) {
+                page = this.currentPool.get(pid);
+            }
+            if (page == null) {
+                // evicted again while reading a batch larger than the pool
+                page = this.getPage(tid, pid, perm);
+            }
+            result.add(page);
+        }
+        return result;
+    }
+
+    /**
+     * Number of frames a page of the specified table takes: its page size
+     * divided by the default page size, rounded up.
+     */
+    private int framesFor(PageId pid) {
+        int size;
+        try {
+            size = Database.getCatalog().getPageSize(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return 1;
+        }
+        return Math.max(1, (size + getPageSize() - 1) / getPageSize());
+    }
+
+    /** Evict pages until there are free frames for a page taking the given number. */
+    private void makeRoom(int needed) throws DbException {
+        while (!this.currentPool.isEmpty() && this.usedFrames.get() + needed > numPages) {
+            this.evictPage();
+        }
+    }
+
+    /** Put a page in the pool (replacing any cached version) and account for its frames. */
+    private void cachePage(Page page) {
+        PageId pid = page.getId();
+        if (this.currentPool.put(pid, page) == null) {
+            int n = this.framesFor(pid);
+            this.frames.put(pid, n);
+            this.usedFrames.addAndGet(n);
+        }
+    }
+
+    /** Wait for a read submitted to the I/O scheduler. */
+    private Page awaitRead(CompletableFuture<Page> read) throws DbException {
+        try {
+            return PageIoScheduler.await(read);
+        } catch (IOException e) {
+            throw new DbException("page read failed: " + e.getMessage());
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -124,16 +308,13 @@ public class BufferPool {
      * Release all locks associated with a given transaction.
      *
      * @param tid the ID of the transaction requesting the unlock
+     * @throws UncheckedIOException if the transaction could not be committed
+     *         (see {@link #transactionComplete(TransactionId, boolean)})
      */
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
-        try {
-            transactionComplete(tid, true);
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -146,12 +327,19 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit, the log records of every page the transaction dirtied are
+     * appended and forced once, and the pages are then written back in file
+     * and page order by {@link #flushBatch}.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
-     * @throws IOException
+     * @throws UncheckedIOException if, on commit, the log could not be
+     *         forced or a page could not be written back. The commit may
+     *         then not be durable: the transaction keeps its locks and its
+     *         pages stay dirty, and it should be aborted.
      */
-    public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+    public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
 
@@ -159,17 +347,27 @@ public class BufferPool {
         if (pagesToRecover == null){
             return;
         }
+        List<Page> pages = new ArrayList<>();
         for (PageId pid: pagesToRecover){
-            if (this.currentPool.containsKey(pid)){
-                Page page = this.currentPool.get(pid);
-
-                if(commit){
-                    flushPage(page.getId());
-                    Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
-                    Database.getLogFile().force();
-                    page.setBeforeImage();
-                } else if (tid.equals(this.currentPool.get(pid).isDirty())) {
-                    this.currentPool.replace(pid, page.getBeforeImage());
+            Page page = this.currentPool.get(pid);
+            if (page != null) {
+                pages.add(page);
+            }
+        }
+
+        if (commit) {
+            try {
+                flushBatch(pages);
+            } catch (IOException e) {
+                throw new UncheckedIOException("commit of " + tid + " may not be durable", e);
+            }
+            for (Page page : pages) {
+                page.setBeforeImage();
+            }
+        } else {
+            for (Page page : pages) {
+                if (tid.equals(page.isDirty())) {
+                    this.currentPool.replace(page.getId(), page.getBeforeImage());
                 }
             }
         }
@@ -198,11 +396,11 @@ public class BufferPool {
         ArrayList<Page> pageArr = (ArrayList) file.insertTuple(tid, t);
         for (Page pg : pageArr) {
             pg.markDirty(true, tid);
-            if (this.currentPool.size() > this.numPages) {
+            if (this.usedFrames.get() > this.numPages) {
                 this.evictPage();
             }
             //assign id to the page
-            this.currentPool.put(pg.getId(), pg);
+            this.cachePage(pg);
         }
     }
 
@@ -232,7 +430,7 @@ public class BufferPool {
         for (Page pg: pageArray) {
             pg.markDirty(true, tid);
             // assign id to the page
-            this.currentPool.put(pg.getId(), pg);
+            this.cachePage(pg);
         }
 
 
@@ -246,9 +444,7 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid : this.currentPool.keySet()) {
-            this.flushPage(pid);
-        }
+        flushBatch(this.currentPool.values());
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -262,7 +458,10 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        this.currentPool.remove(pid);
+        if (this.currentPool.remove(pid) != null) {
+            Integer n = this.frames.remove(pid);
+            this.usedFrames.addAndGet(-(n == null ? 1 : n));
+        }
     }
 
     /**
@@ -273,17 +472,8 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         Page pg = currentPool.get(pid);
-        
-        if (currentPool.containsKey(pid)) {
-            TransactionId dirty = pg.isDirty();
-            if (dirty != null) {
-                Database.getLogFile().logWrite(dirty, pg.getBeforeImage(), pg);
-                Database.getLogFile().force();
-
-                DbFile File = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                File.writePage(pg);
-                pg.markDirty(false, null);
-            }
+        if (pg != null) {
+            flushBatch(Collections.singletonList(pg));
         }
     }
 
@@ -292,11 +482,55 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        List<Page> pages = new ArrayList<>();
         for (Page p : this.currentPool.values()) {
             if (tid.equals(p.isDirty())) {
-                flushPage(p.getId());
+                pages.add(p);
             }
         }
+        flushBatch(pages);
+    }
+
+    /**
+     * Flushes the dirty pages among the given ones to disk.
+     * <p>
+     * The update records for all of them are appended to the log first and the
+     * log is forced once, so the whole batch costs a single fsync. The data
+     * pages are then all submitted to the {@link PageIoScheduler} in file and
+     * page order, which merges runs of adjacent pages into single writes.
+     *
+     * @param pages the candidate pages; clean pages are ignored
+     */
+    private synchronized void flushBatch(Collection<Page> pages) throws IOException {
+        List<Page> dirtyPages = new ArrayList<>();
+        for (Page pg : pages) {
+            if (pg.isDirty() != null) {
+                dirtyPages.add(pg);
+            }
+        }
+        if (dirtyPages.isEmpty()) {
+            return;
+        }
+        dirtyPages.sort((a, b) -> PAGE_ORDER.compare(a.getId(), b.getId()));
+
+        LogFile log = Database.getLogFile();
+        for (Page pg : dirtyPages) {
+            log.logWrite(pg.isDirty(), pg.getBeforeImage(), pg);
+        }
+        log.force();
+
+        List<CompletableFuture<Page>> writes = new ArrayList<>(dirtyPages.size());
+        for (Page pg : dirtyPages) {
+            DbFile file = Database.getCatalog().getDatabaseFile(pg.getId().getTableId());
+            writes.add(this.ioScheduler.submitWrite(file, pg));
+        }
+        for (CompletableFuture<Page> write : writes) {
+            PageIoScheduler.await(write);
+        }
+
+        for (Page pg : dirtyPages) {
+            pg.markDirty(false, null);
+        }
     }
 
     /**
@@ -20,10 +20,40 @@ public interface DbFile {
     /**
      * Read the specified page from disk.
      *
-     * @throws IllegalArgumentException if the page does not exist in this file.
+     * @throws IllegalArgumentException if the page does not exist in this file,
+     *         or the file ends before the end of the page.
      */
     Page readPage(PageId id);
 
+    /**
+     * Returns the size in bytes of the pages of this file. Files created
+     * without an explicit page size use the default page size in effect when
+     * they were opened.
+     *
+     * @see BufferPool#getPageSize()
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
+    /**
+     * Read a batch of pages from disk. The ids are given sorted by page
+     * number; implementations may use this to merge reads of adjacent pages.
+     * The default implementation simply reads each page in turn.
+     *
+     * @param ids the ids of the pages to read, all belonging to this file
+     * @return the pages read, in the same order as ids
+     * @throws IllegalArgumentException if a page does not exist in this file,
+     *         or the file ends before the end of a page.
+     */
+    default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -33,6 +63,20 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push a batch of pages to disk. The pages are given sorted by page
+     * number; implementations may use this to merge writes of adjacent pages.
+     * The default implementation simply writes each page in turn.
+     *
+     * @param pages The pages to write, all belonging to this file
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -80,9 +124,9 @@ public interface DbFile {
      * <p>
      * Implementation note:  you will need to generate this tableid somewhere,
      * ensure that each HeapFile has a "unique id," and that you always
-     * return the same value for a particular HeapFile. A simple implementation
-     * is to use the hash code of the absolute path of the file underlying
-     * the HeapFile, i.e. <code>f.getAbsoluteFile().hashCode()</code>.
+     * return the same value for a particular HeapFile. Files on disk should
+     * use {@link Catalog#getTableIdForFile(File)}, which hands out small dense ids
+     * that the Catalog can look up by array index.
      *
      * @return an ID uniquely identifying this HeapFile.
      */
@@ -30,6 +30,32 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Appends the next tuples to a batch, until it is full or there are no
+     * more. The default implementation adds the tuples returned by
+     * {@link #next()}; iterators over pages may fill the columns of the
+     * batch without building tuples.
+     *
+     * @param batch the batch to add rows to
+     * @param fields the field of the tuples that each column of the batch
+     *        holds, or null if it holds every field in order
+     * @return the number of rows added
+     */
+    default int nextBatch(TupleBatch batch, int[] fields)
+            throws DbException, TransactionAbortedException {
+        int n = 0;
+        while (!batch.isFull() && hasNext()) {
+            Tuple t = next();
+            if (fields == null) {
+                batch.addTuple(t);
+            } else {
+                batch.addTuple(t, fields);
+            }
+            n++;
+        }
+        return n;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
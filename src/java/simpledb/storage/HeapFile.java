@@ -1,5 +1,6 @@
 package simpledb.storage;
 
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
@@ -10,6 +11,9 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 import javax.imageio.IIOException;
@@ -26,9 +30,13 @@ import javax.imageio.IIOException;
  */
 public class HeapFile implements DbFile {
 
+    /** Number of pages HeapFileIterator requests from the BufferPool at once. */
+    private static final int READAHEAD_PAGES = 8;
+
     private final File f;
     private final TupleDesc td;
     private final int id;
+    private final int pageSize;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -38,10 +46,25 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages are
+     * pageSize bytes long, independent of the current default page size.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param pageSize
+     *            the size in bytes of every page of this file
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
         // some code goes here
         this.f = f;
         this.td = td;
-        this.id = f.getAbsoluteFile().hashCode();
+        this.id = Catalog.getTableIdForFile(f);
+        this.pageSize = pageSize;
     }
 
     /**
@@ -55,11 +78,9 @@ public class HeapFile implements DbFile {
     }
 
     /**
-     * Returns an ID uniquely identifying this HeapFile. Implementation note:
-     * you will need to generate this tableid somewhere to ensure that each
-     * HeapFile has a "unique id," and that you always return the same value for
-     * a particular HeapFile. We suggest hashing the absolute file name of the
-     * file underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
+     * Returns an ID uniquely identifying this HeapFile. The id is the dense
+     * table id the Catalog hands out for the underlying file, see
+     * {@link Catalog#getTableIdForFile(File)}.
      * 
      * @return an ID uniquely identifying this HeapFile.
      */
@@ -80,46 +101,122 @@ public class HeapFile implements DbFile {
         // throw new UnsupportedOperationException("implement this");
     }
 
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) throws IllegalArgumentException {
         // some code goes here
-        try {
-            //create an empty page
-            // if (pid.getPageNumber() == numPages()) {
-            //     Page page = new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
-            //     writePage(page);
-            //     return page;
-            // } else {
-            RandomAccessFile randomAccessFile = new RandomAccessFile(this.f, "r");
-            randomAccessFile.seek(BufferPool.getPageSize() * pid.getPageNumber());
-            byte[] data = new byte[BufferPool.getPageSize()];
-            randomAccessFile.read(data);
-            randomAccessFile.close();
-            return new HeapPage((HeapPageId) pid, data);
-            // }
-        }catch (IllegalArgumentException | IOException e) {
+        try (FileChannel channel = FileChannel.open(this.f.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(this.pageSize);
+            readRun(channel, pid.getPageNumber(), new ByteBuffer[] { buffer });
+            return createPage(pid, buffer.array());
+        } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
-        
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> readPages(List<PageId> pids) throws IllegalArgumentException {
+        List<Page> pages = new ArrayList<>(pids.size());
+        try (FileChannel channel = FileChannel.open(this.f.toPath(), StandardOpenOption.READ)) {
+            int start = 0;
+            while (start < pids.size()) {
+                // extend the run while page numbers are consecutive
+                int end = start + 1;
+                while (end < pids.size()
+                        && pids.get(end).getPageNumber() == pids.get(end - 1).getPageNumber() + 1) {
+                    end++;
+                }
+                ByteBuffer[] buffers = new ByteBuffer[end - start];
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = ByteBuffer.allocate(this.pageSize);
+                }
+                readRun(channel, pids.get(start).getPageNumber(), buffers);
+                for (int i = 0; i < buffers.length; i++) {
+                    pages.add(createPage(pids.get(start + i), buffers[i].array()));
+                }
+                start = end;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return pages;
+    }
+
+    /**
+     * Fills buffers with the pages starting at page number pgNo.
+     *
+     * @throws IllegalArgumentException if the file ends before the last page
+     */
+    private void readRun(FileChannel channel, int pgNo, ByteBuffer[] buffers) throws IOException {
+        channel.position((long) this.pageSize * pgNo);
+        long remaining = (long) this.pageSize * buffers.length;
+        while (remaining > 0) {
+            long read = channel.read(buffers);
+            if (read < 0) {
+                throw new IllegalArgumentException("Read past end of table");
+            }
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Builds the page with the given id from its bytes on disk. Every page
+     * that {@link #readPage} and {@link #readPages} read is built by a call
+     * to this method, so a subclass can override it to see each page read,
+     * however the reads were merged.
+     */
+    protected Page createPage(PageId pid, byte[] data) throws IOException {
+        return new HeapPage((HeapPageId) pid, data);
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        int offset = page.getId().getPageNumber() * BufferPool.getPageSize();
+        long offset = (long) page.getId().getPageNumber() * this.pageSize;
         RandomAccessFile raf = new RandomAccessFile(this.f, "rw");
         raf.seek(offset);
         raf.write(page.getPageData());
         raf.close();
     }
 
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        int pageSize = this.pageSize;
+        try (FileChannel channel = FileChannel.open(this.f.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            int start = 0;
+            while (start < pages.size()) {
+                // extend the run while page numbers are consecutive
+                int end = start + 1;
+                while (end < pages.size() && pages.get(end).getId().getPageNumber()
+                        == pages.get(end - 1).getId().getPageNumber() + 1) {
+                    end++;
+                }
+                ByteBuffer[] buffers = new ByteBuffer[end - start];
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = ByteBuffer.wrap(pages.get(start + i).getPageData());
+                }
+                channel.position((long) pageSize * pages.get(start).getId().getPageNumber());
+                long remaining = (long) pageSize * buffers.length;
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+                start = end;
+            }
+        }
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
         // some code goes here
-        return (int) Math.ceil(this.f.length()/BufferPool.getPageSize());
+        return (int) Math.ceil(this.f.length()/this.pageSize);
     }
 
     // see DbFile.java for javadocs
@@ -141,7 +238,7 @@ public class HeapFile implements DbFile {
         }
         //if there are no existing pages, create a new page and add in the tuple
         if (pageArr.isEmpty()) {
-            HeapPage newPg = new HeapPage(new HeapPageId(getId(), numPages()), new byte[BufferPool.getPageSize()]);
+            HeapPage newPg = new HeapPage(new HeapPageId(getId(), numPages()), new byte[this.pageSize]);
             newPg.insertTuple(t);
             this.writePage(newPg);
             pageArr.add(newPg);
@@ -175,7 +272,44 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, 0, -1, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy a
+     * predicate. The predicate is tested against the bytes of each slot of
+     * a page that has not been decoded yet, and only the tuples that
+     * satisfy it are decoded.
+     *
+     * @param tid the transaction reading the pages
+     * @param predicate the predicate, over the fields of the table, or null
+     *        to return every tuple
+     */
+    public DbFileIterator iterator(TransactionId tid, SlotPredicate predicate) {
+        return new HeapFileIterator(tid, 0, -1, predicate);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored on pages firstPage (inclusive)
+     * to endPage (exclusive) of this file, so that several threads can scan
+     * disjoint parts of it for the same transaction.
+     *
+     * @param tid the transaction reading the pages
+     * @param firstPage the first page to read
+     * @param endPage one past the last page to read; pages past the end of
+     *        the file are ignored
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        return new HeapFileIterator(tid, firstPage, endPage, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored on pages firstPage
+     * (inclusive) to endPage (exclusive) of this file that satisfy a
+     * predicate, as {@link #iterator(TransactionId, SlotPredicate)} does.
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage, SlotPredicate predicate) {
+        return new HeapFileIterator(tid, firstPage, endPage, predicate);
     }
 
 
@@ -185,62 +319,131 @@ public class HeapFile implements DbFile {
         // private HeapPageId pid;
         // private HeapPage heapPage;
         private int pageNo = 0;
-        private Iterator<Tuple> iter;
+        // the page being read, or null past the last one, the next slot of
+        // it to read, and the tuple hasNext found, if any
+        private HeapPage page;
+        private int slot;
+        private Tuple next;
+        // pages below this number have already been fetched by BufferPool.getPages
+        private int prefetchedUntil = 0;
+        // range of pages to read; endPage < 0 means up to the end of the file
+        private final int firstPage;
+        private final int endPage;
+        // tested against the slots of each page; null to return every tuple
+        private final SlotPredicate predicate;
         
-        public HeapFileIterator(TransactionId tid){
+        public HeapFileIterator(TransactionId tid, int firstPage, int endPage, SlotPredicate predicate){
             this.tid = tid;
-            
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.predicate = predicate;
+        }
+
+        private int lastPage() {
+            return endPage < 0 ? numPages() : Math.min(endPage, numPages());
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             // TODO Auto-generated method stub
-            pageNo = 0;
+            pageNo = firstPage;
+            prefetchedUntil = firstPage;
             // this.pid = new HeapPageId(getId(), pageNo);
             // this.heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pid,
             //                                                             Permissions.READ_ONLY);
             // this.iter = heapPage.iterator();
-            this.iter = openPage(pageNo);
+            this.page = pageNo < lastPage() ? openPage(pageNo) : null;
+            this.slot = 0;
+            this.next = null;
         }
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
             // TODO Auto-generated method stub
-            if (this.iter == null) {
-                return false;
+            if (this.next != null) {
+                return true;
             }
-
-            while (!this.iter.hasNext()) {
-                ++pageNo;
-                if (pageNo >= numPages()) {
-                    return false;
+            while (this.page != null) {
+                while (this.slot < this.page.getNumSlots()) {
+                    int i = this.slot++;
+                    this.next = predicate == null ? this.page.getTuple(i) : this.page.getTuple(i, predicate);
+                    if (this.next != null) {
+                        return true;
+                    }
                 }
-                this.iter = openPage(pageNo);
+                nextPage();
             }
-            return true;
+            return false;
         }
 
-        private Iterator openPage(int pageNo) throws NoSuchElementException, TransactionAbortedException, DbException {
-            HeapPage pg;
-            pg = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
-            return pg.iterator();
+        /** Moves on to the first slot of the next page, if there is one. */
+        private void nextPage() throws TransactionAbortedException, DbException {
+            ++pageNo;
+            this.page = pageNo < lastPage() ? openPage(pageNo) : null;
+            this.slot = 0;
+        }
+
+        private HeapPage openPage(int pageNo) throws NoSuchElementException, TransactionAbortedException, DbException {
+            if (pageNo >= prefetchedUntil) {
+                // read the next few pages together so that misses are coalesced
+                List<PageId> pids = new ArrayList<>();
+                int last = Math.min(lastPage(), pageNo + READAHEAD_PAGES);
+                for (int i = pageNo; i < last; i++) {
+                    pids.add(new HeapPageId(getId(), i));
+                }
+                if (!pids.isEmpty()) {
+                    Database.getBufferPool().getPages(tid, pids, Permissions.READ_ONLY);
+                }
+                prefetchedUntil = last;
+            }
+            return (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
             // TODO Auto-generated method stub
             if (hasNext()){
-                return this.iter.next();
+                Tuple t = this.next;
+                this.next = null;
+                return t;
             } else {
                 throw new NoSuchElementException();
             }
         }
 
+        /**
+         * Fills the batch from the slots of each page, without building
+         * tuples for pages that have not been decoded (see
+         * {@link HeapPage#fillBatch}).
+         */
+        @Override
+        public int nextBatch(TupleBatch batch, int[] fields) throws DbException, TransactionAbortedException {
+            int before = batch.numRows();
+            if (this.next != null && !batch.isFull()) {
+                if (fields == null) {
+                    batch.addTuple(this.next);
+                } else {
+                    batch.addTuple(this.next, fields);
+                }
+                this.next = null;
+            }
+            while (this.page != null && !batch.isFull()) {
+                this.slot = this.page.fillBatch(this.slot, batch, fields, predicate);
+                if (this.slot >= this.page.getNumSlots()) {
+                    nextPage();
+                }
+            }
+            return batch.numRows() - before;
+        }
+
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
             // TODO Auto-generated method stub
-            pageNo = 0;
-            this.iter = openPage(pageNo);
+            pageNo = firstPage;
+            prefetchedUntil = firstPage;
+            this.page = pageNo < lastPage() ? openPage(pageNo) : null;
+            this.slot = 0;
+            this.next = null;
             
         }
 
@@ -251,7 +454,9 @@ public class HeapFile implements DbFile {
             this.tid = null;
             // this.pid = null;
             // this.heapPage = null;
-            this.iter = null;
+            this.page = null;
+            this.next = null;
+            this.prefetchedUntil = 0;
         }
 
     }
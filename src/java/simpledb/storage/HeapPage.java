@@ -12,6 +12,10 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The tuples of a page are decoded from its bytes the first time they are
+ * needed rather than when it is read, so that a scan with a
+ * {@link SlotPredicate} only decodes the tuples that satisfy it.
  *
  * @see HeapFile
  * @see BufferPool
@@ -24,7 +28,14 @@ public class HeapPage implements Page {
     final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
+    final int pageSize;
     private TransactionId dirtytid;
+    // the bytes the page was read from, which are never written; they hold
+    // the tuples of the page until it is decoded
+    private final byte[] data;
+    // set once every used slot has a tuple in tuples; until then only the
+    // slots that a SlotPredicate let through do
+    private volatile boolean decoded;
 
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
@@ -34,47 +45,81 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of the table, {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        // padded with zeroes to the page size, as getPageData writes it
+        this.data = Arrays.copyOf(data, this.pageSize);
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; ++i)
-            header[i] = dis.readByte();
-        
+        header = Arrays.copyOf(this.data, getHeaderSize());
+
+        // the records of this page are read by decode
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; ++i)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * Decodes the tuple in every used slot that does not have one yet.
+     */
+    private void decode() {
+        if (decoded) {
+            return;
+        }
+        synchronized (this) {
+            if (decoded) {
+                return;
+            }
+            DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(data, header.length, data.length - header.length));
+            try{
+                for (int i=0; i<tuples.length; ++i) {
+                    Tuple t = readNextTuple(dis,i);
+                    if (tuples[i] == null)
+                        tuples[i] = t;
+                }
+            }catch(NoSuchElementException e){
+                e.printStackTrace();
+            }
+            decoded = true;
+        }
+    }
+
+    /**
+     * @return the tuple in slot i, which is used, decoding it if it has not
+     *         been yet
+     */
+    private synchronized Tuple decode(int i) {
+        if (tuples[i] == null) {
+            int slotSize = td.getSize();
+            DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(data, header.length + i * slotSize, slotSize));
+            tuples[i] = readNextTuple(dis, i);
+        }
+        return tuples[i];
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
         // some code goes here
-        return (int) Math.floor((BufferPool.getPageSize()*8)/(td.getSize() *8+1));
+        return (int) Math.floor((this.pageSize*8)/(td.getSize() *8+1));
     }
 
     /**
@@ -167,7 +212,11 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
+        if (!decoded) {
+            // nothing has been changed
+            return data.clone();
+        }
+        int len = this.pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
@@ -210,7 +259,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = this.pageSize - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -237,8 +286,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Same as {@link #createEmptyPageData()}, for a table whose pages are
+     * pageSize bytes long.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -252,6 +308,7 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
 
+        decode();
         int tid = t.getRecordId().getTupleNumber();
         if (!t.getRecordId().getPageId().equals(this.pid)) {
             throw new DbException("tuple not found on this page");
@@ -276,6 +333,7 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        decode();
         if (getNumEmptySlots() == 0) {
             throw new DbException("page is full");
         }
@@ -359,6 +417,102 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * @return the number of tuple slots on this page, used or not
+     */
+    public int getNumSlots() {
+        return this.numSlots;
+    }
+
+    /**
+     * Returns the tuple in a slot of this page, without building an iterator
+     * over the page, for loops that visit every slot themselves.
+     *
+     * @param i the slot, between 0 and {@link #getNumSlots()}
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        decode();
+        return isSlotUsed(i) ? this.tuples[i] : null;
+    }
+
+    /**
+     * Returns the tuple in a slot of this page if it satisfies a predicate.
+     * Until the page has been decoded, the predicate is tested against the
+     * bytes of the slot, and only a tuple that satisfies it is decoded.
+     *
+     * @param i the slot, between 0 and {@link #getNumSlots()}
+     * @param p the predicate, over the fields of the table
+     * @return the tuple in slot i, or null if the slot is empty or its tuple
+     *         does not satisfy p
+     */
+    public Tuple getTuple(int i, SlotPredicate p) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        if (decoded) {
+            Tuple t = this.tuples[i];
+            return p.test(t) ? t : null;
+        }
+        if (!p.test(data, header.length + i * td.getSize())) {
+            return null;
+        }
+        return decode(i);
+    }
+
+    /**
+     * Appends the tuples in the used slots of this page that satisfy a
+     * predicate to a batch, starting at slot i, until the batch is full.
+     * Until the page has been decoded, the fields are read straight from the
+     * bytes of each slot into the columns of the batch, and no tuples are
+     * built.
+     *
+     * @param i the first slot to read
+     * @param batch the batch to add rows to
+     * @param fields the field of the table that each column of the batch
+     *        holds, or null if it holds every field in order
+     * @param p the predicate, over the fields of the table, or null
+     * @return the slot to continue from; {@link #getNumSlots()} once every
+     *         slot has been read
+     */
+    public int fillBatch(int i, TupleBatch batch, int[] fields, SlotPredicate p) {
+        int numColumns = fields == null ? td.numFields() : fields.length;
+        int[] offsets = null;
+        for (; i < this.numSlots && !batch.isFull(); i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            if (decoded) {
+                Tuple t = this.tuples[i];
+                if (p == null || p.test(t)) {
+                    if (fields == null) {
+                        batch.addTuple(t);
+                    } else {
+                        batch.addTuple(t, fields);
+                    }
+                }
+                continue;
+            }
+            int slot = header.length + i * td.getSize();
+            if (p != null && !p.test(data, slot)) {
+                continue;
+            }
+            if (offsets == null) {
+                offsets = new int[td.numFields()];
+                for (int f = 1; f < offsets.length; f++) {
+                    offsets[f] = offsets[f - 1] + td.getFieldType(f - 1).getLen();
+                }
+            }
+            int row = batch.addRow();
+            for (int c = 0; c < numColumns; c++) {
+                int f = fields == null ? c : fields[c];
+                batch.setField(c, row, td.getFieldType(f).parse(data, slot + offsets[f]));
+            }
+            batch.setRecordId(row, new RecordId(pid, i));
+        }
+        return i;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -366,6 +520,7 @@ public class HeapPage implements Page {
     public Iterator<Tuple> iterator() {
         // some code goes here
     
+        decode();
         List<Tuple> tupleList = new ArrayList<Tuple>();
         for (int i = 0; i < getNumTuples(); ++i){
             if (isSlotUsed(i)){
@@ -377,5 +532,21 @@ public class HeapPage implements Page {
 
     }
 
+    /**
+     * @param p the predicate, over the fields of the table
+     * @return an iterator over the tuples on this page that satisfy p (see
+     *         {@link #getTuple(int, SlotPredicate)})
+     */
+    public Iterator<Tuple> iterator(SlotPredicate p) {
+        List<Tuple> tupleList = new ArrayList<Tuple>();
+        for (int i = 0; i < this.numSlots; ++i) {
+            Tuple t = getTuple(i, p);
+            if (t != null) {
+                tupleList.add(t);
+            }
+        }
+        return tupleList.iterator();
+    }
+
 }
 
@@ -40,7 +40,8 @@ public class HeapPageId implements PageId {
      */
     public int hashCode() {
         // some code goes here
-        return tableId * 37 + pgNo;
+        // table ids are small and dense, so keep them clear of the page number
+        return Integer.rotateLeft(tableId, 20) ^ pgNo;
 
         // throw new UnsupportedOperationException("implement this");
     }
@@ -229,7 +229,7 @@ public class LogFile {
         // id class name
         // id class bytes
         // id class data
-        // page class bytes
+        // page class bytes (tables may use different page sizes)
         // page class data
 
         String pageClassName = p.getClass().getName();
@@ -0,0 +1,373 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * PageIoScheduler performs page reads and writes on behalf of the BufferPool
+ * on a small pool of worker threads.
+ * <p>
+ * Every file has its own bounded queue of pending requests. Submitting to a
+ * full queue blocks the caller until a worker has drained it. A worker takes
+ * all the requests pending on one file at once, orders them like an elevator
+ * (ascending page numbers from where the previous sweep of that file ended,
+ * wrapping around to the start) and hands them to {@link DbFile#writePages}
+ * and {@link DbFile#readPages}, which merge runs of adjacent pages. Writes in
+ * a batch are issued before reads, so a read never sees an older image than
+ * a write submitted together with it. At most one worker services a given
+ * file at a time; different files are serviced in parallel.
+ * <p>
+ * Completion is reported through {@link CompletableFuture}s. Queue depth and
+ * read/write latency histograms are kept for tuning.
+ *
+ * @Threadsafe
+ */
+public class PageIoScheduler {
+
+    /** Default number of worker threads. */
+    public static final int DEFAULT_WORKERS = 2;
+    /** Default maximum number of pending requests per file. */
+    public static final int DEFAULT_QUEUE_DEPTH = 64;
+
+    private final int maxQueueDepth;
+    private final ExecutorService workers;
+    private final Map<Integer, FileQueue> queues = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger maxPending = new AtomicInteger();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    /**
+     * Creates a scheduler with the given number of worker threads.
+     * Idle workers exit after a second, so an unused scheduler holds no threads.
+     *
+     * @param numWorkers number of threads performing I/O
+     * @param maxQueueDepth maximum number of pending requests per file
+     */
+    public PageIoScheduler(int numWorkers, int maxQueueDepth) {
+        if (numWorkers < 1 || maxQueueDepth < 1) {
+            throw new IllegalArgumentException("need at least one worker and one queue slot");
+        }
+        this.maxQueueDepth = maxQueueDepth;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numWorkers, numWorkers,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "simpledb-io");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.workers = executor;
+    }
+
+    /**
+     * Queue a read of the specified page.
+     *
+     * @return a future completed with the page, or exceptionally with
+     *   whatever {@link DbFile#readPages} threw
+     */
+    public CompletableFuture<Page> submitRead(DbFile file, PageId pid) {
+        Request<Page> req = new Request<>(pid, null);
+        enqueue(file, req);
+        return req.future;
+    }
+
+    /**
+     * Queue a write of the specified page.
+     *
+     * @return a future completed once the page has been handed to the file,
+     *   or exceptionally with whatever {@link DbFile#writePages} threw
+     */
+    public CompletableFuture<Page> submitWrite(DbFile file, Page page) {
+        Request<Page> req = new Request<>(page.getId(), page);
+        enqueue(file, req);
+        return req.future;
+    }
+
+    /**
+     * Wait for a future returned by this scheduler, rethrowing the exception
+     * the request failed with instead of a {@link CompletionException}.
+     */
+    public static Page await(CompletableFuture<Page> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /** @return the number of requests currently queued or in progress */
+    public int getQueueDepth() {
+        return pending.get();
+    }
+
+    /** @return the largest value {@link #getQueueDepth} has reached */
+    public int getMaxQueueDepth() {
+        return maxPending.get();
+    }
+
+    /** @return the latency histogram of completed reads */
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    /** @return the latency histogram of completed writes */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Forget the queue of a file whose table id is being released, so that
+     * no state of the file is kept under an id another file may be given.
+     * Requests already queued for the file are still serviced against it.
+     *
+     * @param fileId the table id of the file
+     */
+    public void release(int fileId) {
+        queues.remove(fileId);
+    }
+
+    private void enqueue(DbFile file, Request<Page> req) {
+        // a file that takes over the id of another one (e.g. one replaced in
+        // the catalog) gets a queue of its own; requests already queued for
+        // the other file are still serviced against it
+        FileQueue q = queues.compute(file.getId(),
+                (k, old) -> old != null && old.file == file ? old : new FileQueue(file));
+        boolean schedule;
+        synchronized (q) {
+            while (q.requests.size() >= maxQueueDepth) {
+                try {
+                    q.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    req.future.completeExceptionally(e);
+                    return;
+                }
+            }
+            q.requests.add(req);
+            schedule = !q.scheduled;
+            q.scheduled = true;
+        }
+        maxPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+        if (schedule) {
+            workers.execute(() -> service(q));
+        }
+    }
+
+    /** Drain one file's queue until it is empty. Runs on a worker thread. */
+    private void service(FileQueue q) {
+        while (true) {
+            List<Request<Page>> batch;
+            synchronized (q) {
+                if (q.requests.isEmpty()) {
+                    q.scheduled = false;
+                    return;
+                }
+                batch = q.requests;
+                q.requests = new ArrayList<>();
+                q.notifyAll();
+            }
+            q.head = elevatorOrder(batch, q.head);
+
+            List<Request<Page>> writes = new ArrayList<>();
+            List<Request<Page>> reads = new ArrayList<>();
+            for (Request<Page> r : batch) {
+                (r.page != null ? writes : reads).add(r);
+            }
+            if (!writes.isEmpty()) {
+                doWrites(q.file, writes);
+            }
+            if (!reads.isEmpty()) {
+                doReads(q.file, reads);
+            }
+        }
+    }
+
+    /**
+     * Complete a request with its page. It stops counting as pending first,
+     * so a caller that has seen every future complete also sees the queue
+     * depth drop.
+     */
+    private void complete(Request<Page> r, Page page, LatencyHistogram latency) {
+        latency.record(System.nanoTime() - r.submitted);
+        pending.decrementAndGet();
+        r.future.complete(page);
+    }
+
+    /** Complete a request with the exception it failed with. */
+    private void fail(Request<Page> r, Throwable e) {
+        pending.decrementAndGet();
+        r.future.completeExceptionally(e);
+    }
+
+    /**
+     * Sort a batch in C-SCAN order: page numbers at or after head ascending,
+     * then the ones before head ascending.
+     *
+     * @return the page number the sweep ends on
+     */
+    private static int elevatorOrder(List<Request<Page>> batch, int head) {
+        batch.sort(Comparator.<Request<Page>>comparingInt(r -> r.pid.getPageNumber() >= head ? 0 : 1)
+                .thenComparingInt(r -> r.pid.getPageNumber()));
+        return batch.get(batch.size() - 1).pid.getPageNumber();
+    }
+
+    private void doWrites(DbFile file, List<Request<Page>> writes) {
+        List<Page> pages = new ArrayList<>(writes.size());
+        for (Request<Page> r : writes) {
+            pages.add(r.page);
+        }
+        // the elevator may wrap around; split there so every call is ascending
+        try {
+            int start = 0;
+            for (int i = 1; i <= pages.size(); i++) {
+                if (i == pages.size() || pages.get(i).getId().getPageNumber()
+                        < pages.get(i - 1).getId().getPageNumber()) {
+                    file.writePages(pages.subList(start, i));
+                    start = i;
+                }
+            }
+        } catch (Throwable e) {
+            for (Request<Page> r : writes) {
+                fail(r, e);
+            }
+            return;
+        }
+        for (Request<Page> r : writes) {
+            complete(r, r.page, writeLatency);
+        }
+    }
+
+    private void doReads(DbFile file, List<Request<Page>> reads) {
+        int start = 0;
+        for (int i = 1; i <= reads.size(); i++) {
+            if (i == reads.size() || reads.get(i).pid.getPageNumber()
+                    <= reads.get(i - 1).pid.getPageNumber()) {
+                readRun(file, reads.subList(start, i));
+                start = i;
+            }
+        }
+    }
+
+    /** Read a run of requests for ascending pages with a single call. */
+    private void readRun(DbFile file, List<Request<Page>> run) {
+        List<PageId> pids = new ArrayList<>(run.size());
+        for (Request<Page> r : run) {
+            pids.add(r.pid);
+        }
+        List<Page> pages;
+        try {
+            pages = file.readPages(pids);
+            if (pages.size() != run.size()) {
+                throw new IllegalStateException("read " + pages.size() + " pages of " + run.size());
+            }
+        } catch (Throwable e) {
+            for (Request<Page> r : run) {
+                fail(r, e);
+            }
+            return;
+        }
+        for (int j = 0; j < run.size(); j++) {
+            complete(run.get(j), pages.get(j), readLatency);
+        }
+    }
+
+    /** Pending requests of one file. Guarded by its own monitor. */
+    private static class FileQueue {
+        final DbFile file;
+        List<Request<Page>> requests = new ArrayList<>();
+        boolean scheduled = false;
+        // only touched by the worker currently servicing this queue
+        int head = 0;
+
+        FileQueue(DbFile file) {
+            this.file = file;
+        }
+    }
+
+    /** A read (page == null) or write of a single page. */
+    private static class Request<T> {
+        final PageId pid;
+        final Page page;
+        final long submitted = System.nanoTime();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Request(PageId pid, Page page) {
+            this.pid = pid;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Histogram of request latencies with power-of-two microsecond buckets:
+     * bucket i counts requests that took less than 2^i microseconds (and at
+     * least 2^(i-1)); the last bucket also collects everything slower.
+     */
+    public static class LatencyHistogram {
+        public static final int NUM_BUCKETS = 32;
+        private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            counts.incrementAndGet(Math.min(bucket, NUM_BUCKETS - 1));
+        }
+
+        /** @return the number of requests recorded in bucket i */
+        public long getCount(int i) {
+            return counts.get(i);
+        }
+
+        /** @return the total number of requests recorded */
+        public long getTotal() {
+            long total = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                total += counts.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * @return an upper bound, in microseconds, on the latency of the given
+         *   fraction (0..1) of recorded requests
+         */
+        public long getPercentileMicros(double fraction) {
+            long total = getTotal();
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += counts.get(i);
+                if (total > 0 && seen >= fraction * total) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (NUM_BUCKETS - 1);
+        }
+
+        public String toString() {
+            return "n=" + getTotal() + " p50<" + getPercentileMicros(0.5) + "us p99<"
+                    + getPercentileMicros(0.99) + "us";
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.Predicate;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SlotPredicate evaluates the conjunction of some {@link Predicate}s over the
+ * fields of a table against the bytes of a {@link HeapPage} slot, so that a
+ * scan only builds the tuples that satisfy them (see
+ * {@link HeapPage#getTuple(int, SlotPredicate)}). An INT_TYPE field is
+ * compared as the int it is stored as; a STRING_TYPE field is decoded on its
+ * own, or not at all for an equality with an ASCII constant, which is
+ * compared byte by byte.
+ */
+public class SlotPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // an ASCII string can be compared with the bytes of a stored string only
+    // if the charset they are decoded with maps ASCII bytes alone to ASCII
+    private static final boolean ASCII_COMPATIBLE = Charset.defaultCharset().equals(StandardCharsets.UTF_8)
+            || Charset.defaultCharset().equals(StandardCharsets.ISO_8859_1)
+            || Charset.defaultCharset().equals(StandardCharsets.US_ASCII);
+
+    private final Predicate[] conjuncts;
+    // tests the tuples of pages that have been decoded
+    private final CompiledPredicate compiled;
+    // for each conjunct: the offset of its field in a slot, and its constant
+    // as an int, or as the bytes of an ASCII string (null if it is not one)
+    private final int[] offsets;
+    private final int[] ints;
+    private final byte[][] ascii;
+
+    /**
+     * @param td the schema of the table
+     * @param conjuncts predicates over the fields of td, evaluated in the
+     *        order given; there must be at least one
+     * @throws IllegalArgumentException if the constant of a predicate is not
+     *         of the type of its field
+     */
+    public SlotPredicate(TupleDesc td, Predicate... conjuncts) {
+        if (conjuncts.length == 0) {
+            throw new IllegalArgumentException("no predicates");
+        }
+        this.conjuncts = conjuncts.clone();
+        this.compiled = CompiledPredicate.compile(conjuncts);
+        this.offsets = new int[conjuncts.length];
+        this.ints = new int[conjuncts.length];
+        this.ascii = new byte[conjuncts.length][];
+        for (int i = 0; i < conjuncts.length; i++) {
+            Predicate p = conjuncts[i];
+            Type type = td.getFieldType(p.getField());
+            if (p.getOperand().getType() != type) {
+                throw new IllegalArgumentException("cannot compare a field of type " + type
+                        + " with " + p.getOperand());
+            }
+            for (int j = 0; j < p.getField(); j++) {
+                this.offsets[i] += td.getFieldType(j).getLen();
+            }
+            if (type == Type.INT_TYPE) {
+                this.ints[i] = ((IntField) p.getOperand()).getValue();
+            } else {
+                String s = p.getOperand().toString();
+                if (ASCII_COMPATIBLE && s.chars().allMatch(c -> c < 0x80)) {
+                    this.ascii[i] = s.getBytes(StandardCharsets.US_ASCII);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the predicates, over the fields of the table
+     */
+    public Predicate[] getConjuncts() {
+        return this.conjuncts.clone();
+    }
+
+    /**
+     * @param t a tuple of the table
+     * @return true if t satisfies every predicate
+     */
+    public boolean test(Tuple t) {
+        return this.compiled.test(t);
+    }
+
+    /**
+     * @param data the bytes of a page
+     * @param slot the offset in data of a used slot
+     * @return true if the tuple stored in the slot satisfies every predicate
+     */
+    public boolean test(byte[] data, int slot) {
+        for (int i = 0; i < this.conjuncts.length; i++) {
+            int off = slot + this.offsets[i];
+            Predicate.Op op = this.conjuncts[i].getOp();
+            if (this.conjuncts[i].getOperand().getType() == Type.INT_TYPE) {
+                // as in IntField.compare, LIKE on integers is equality
+                if (!matches(op == Predicate.Op.LIKE ? Predicate.Op.EQUALS : op,
+                        Integer.compare(readInt(data, off), this.ints[i]))) {
+                    return false;
+                }
+            } else if (!testString(i, op, data, off)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return true if the string stored at off satisfies conjunct i */
+    private boolean testString(int i, Predicate.Op op, byte[] data, int off) {
+        int len = readInt(data, off);
+        byte[] c = this.ascii[i];
+        if (c != null && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)) {
+            boolean equal = len == c.length;
+            for (int j = 0; equal && j < len; j++) {
+                equal = data[off + 4 + j] == c[j];
+            }
+            return equal == (op == Predicate.Op.EQUALS);
+        }
+        // decoded as Type.STRING_TYPE.parse does
+        String s = new String(data, off + 4, len);
+        String constant = this.conjuncts[i].getOperand().toString();
+        if (op == Predicate.Op.LIKE) {
+            return s.contains(constant);
+        }
+        return matches(op, s.compareTo(constant));
+    }
+
+    /** @return true if a value that compares to the constant as cmp satisfies op */
+    private static boolean matches(Predicate.Op op, int cmp) {
+        switch (op) {
+        case EQUALS:
+            return cmp == 0;
+        case NOT_EQUALS:
+            return cmp != 0;
+        case GREATER_THAN:
+            return cmp > 0;
+        case GREATER_THAN_OR_EQ:
+            return cmp >= 0;
+        case LESS_THAN:
+            return cmp < 0;
+        case LESS_THAN_OR_EQ:
+            return cmp <= 0;
+        default:
+            return false;
+        }
+    }
+
+    /** @return the int stored at off, written by DataOutputStream.writeInt */
+    private static int readInt(byte[] data, int off) {
+        return (data[off] & 0xff) << 24 | (data[off + 1] & 0xff) << 16
+                | (data[off + 2] & 0xff) << 8 | (data[off + 3] & 0xff);
+    }
+}
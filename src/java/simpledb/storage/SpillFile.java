@@ -0,0 +1,160 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * SpillFile is a temporary file of tuples, written once and then read
+ * sequentially any number of times. Operators whose state outgrows their
+ * memory budget (e.g. hash joins, sorts and aggregates) write the excess to
+ * spill files.
+ * <p>
+ * Spill files do not go through the BufferPool: they are private to the
+ * operator that made them, are never locked or logged, and are deleted by
+ * {@link #delete()} (or when the JVM exits). Record ids are not kept.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /**
+     * Create an empty spill file in the default temporary-file directory.
+     *
+     * @param td the schema of the tuples of this file
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb-spill", ".tmp");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_BYTES));
+    }
+
+    /** @return the schema of the tuples of this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added to this file */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of bytes written to this file so far */
+    public long bytes() {
+        return out != null ? out.size() : file.length();
+    }
+
+    /**
+     * Append a tuple to this file.
+     *
+     * @throws IllegalStateException if the file has already been read
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("cannot add tuples to a spill file once it has been read");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                out.writeInt(((IntField) f).getValue());
+            } else {
+                out.writeUTF(((StringField) f).getValue());
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file, in the order they
+     * were added. No tuple can be added once this has been called.
+     */
+    public DbFileIterator iterator() throws IOException {
+        finishWriting();
+        return new SpillFileIterator();
+    }
+
+    /** Delete the file. It can no longer be written or read. */
+    public void delete() {
+        try {
+            finishWriting();
+        } catch (IOException e) {
+            // the file is being thrown away
+        }
+        file.delete();
+    }
+
+    private void finishWriting() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private class SpillFileIterator extends AbstractDbFileIterator {
+
+        private DataInputStream in;
+        private int read;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BUFFER_BYTES));
+            } catch (IOException e) {
+                throw new DbException("cannot open spill file: " + e.getMessage());
+            }
+            read = 0;
+        }
+
+        protected Tuple readNext() throws DbException {
+            if (in == null || read == size) {
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setField(i, new IntField(in.readInt()));
+                    } else {
+                        t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("cannot read spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing was written through this stream
+                }
+                in = null;
+            }
+        }
+    }
+}
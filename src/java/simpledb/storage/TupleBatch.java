@@ -0,0 +1,251 @@
+package simpledb.storage;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of a relation, stored by
+ * column, together with a selection vector naming the rows that are still
+ * part of the result.
+ * <p>
+ * Batches are passed between operators by
+ * {@link simpledb.execution.BatchOpIterator#nextBatch()} and are reused: the
+ * producer overwrites a batch on its next call, so a consumer must copy any
+ * field it wants to keep. Operators that only drop rows (e.g. Filter) shrink
+ * the selection vector in place instead of copying rows, and operators that
+ * only reorder columns (e.g. Project) share the column arrays of their input.
+ * <p>
+ * The selection vector lists row numbers in increasing order. Rows added with
+ * {@link #addTuple} or {@link #addRow} are selected.
+ */
+public class TupleBatch {
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private TupleDesc td;
+    private final int capacity;
+    private Field[][] columns;
+    private RecordId[] recordIds;
+    private int numRows;
+    private int[] selection;
+    private int numSelected;
+    // true while the arrays above belong to the batch passed to project()
+    private boolean view = false;
+
+    /**
+     * Create an empty batch of {@link #DEFAULT_CAPACITY} rows.
+     *
+     * @param td the schema of the rows of this batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the rows of this batch
+     * @param capacity the maximum number of rows in this batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.columns = new Field[td.numFields()][capacity];
+        this.recordIds = new RecordId[capacity];
+        this.selection = new int[capacity];
+    }
+
+    /** @return the schema of the rows of this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the maximum number of rows in this batch */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows stored, selected or not */
+    public int numRows() {
+        return numRows;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return numRows == capacity;
+    }
+
+    /** Remove every row. A view made by {@link #project} gets arrays of its own again. */
+    public void clear() {
+        if (view) {
+            columns = new Field[td.numFields()][capacity];
+            recordIds = new RecordId[capacity];
+            selection = new int[capacity];
+            view = false;
+        }
+        numRows = 0;
+        numSelected = 0;
+    }
+
+    /**
+     * Append a row holding the fields and record id of t.
+     *
+     * @return the number of the new row
+     */
+    public int addTuple(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < columns.length; i++) {
+            columns[i][row] = t.getField(i);
+        }
+        recordIds[row] = t.getRecordId();
+        return row;
+    }
+
+    /**
+     * Append a row holding the given fields of t, in that order, and its
+     * record id.
+     *
+     * @param fields the field of t that each column of the batch holds
+     * @return the number of the new row
+     */
+    public int addTuple(Tuple t, int[] fields) {
+        int row = addRow();
+        for (int i = 0; i < columns.length; i++) {
+            columns[i][row] = t.getField(fields[i]);
+        }
+        recordIds[row] = t.getRecordId();
+        return row;
+    }
+
+    /**
+     * Append an empty, selected row; its fields are then set with
+     * {@link #setField}.
+     *
+     * @return the number of the new row
+     */
+    public int addRow() {
+        if (view) {
+            throw new IllegalStateException("cannot add rows to a view, clear it first");
+        }
+        if (numRows == capacity) {
+            throw new IllegalStateException("batch is full");
+        }
+        recordIds[numRows] = null;
+        selection[numSelected++] = numRows;
+        return numRows++;
+    }
+
+    /** @return the value of field col of row */
+    public Field getField(int col, int row) {
+        return columns[col][row];
+    }
+
+    /** Set the value of field col of row. */
+    public void setField(int col, int row, Field f) {
+        columns[col][row] = f;
+    }
+
+    /**
+     * @return the values of field col of every row, indexed by row number.
+     *   The array may be longer than {@link #numRows()}.
+     */
+    public Field[] column(int col) {
+        return columns[col];
+    }
+
+    /** @return the record id of row, or null */
+    public RecordId getRecordId(int row) {
+        return recordIds[row];
+    }
+
+    /** Set the record id of row. */
+    public void setRecordId(int row, RecordId rid) {
+        recordIds[row] = rid;
+    }
+
+    /**
+     * @return the selection vector. Its first {@link #numSelected()} entries
+     *   are the selected row numbers; callers may overwrite them and then call
+     *   {@link #setNumSelected}.
+     */
+    public int[] selection() {
+        return selection;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return numSelected;
+    }
+
+    /** Keep only the first n entries of the selection vector. */
+    public void setNumSelected(int n) {
+        if (n < 0 || n > numSelected) {
+            throw new IllegalArgumentException("selection can only shrink");
+        }
+        numSelected = n;
+    }
+
+    /**
+     * Make this batch a view of some columns of another batch: column i of
+     * this batch is column fieldIds[i] of src, and the rows and selection are
+     * those of src. The view stays valid until src is changed. It shares
+     * the selection vector of src but has its own copy of
+     * {@link #numSelected()}: shrinking the view's selection does not
+     * change the number of rows src selects, although entries written into
+     * the shared vector are seen by both.
+     *
+     * @param src the batch to take columns from
+     * @param fieldIds the columns of src to expose, in order; there must be
+     *   one per field of this batch
+     */
+    public void project(TupleBatch src, int[] fieldIds) {
+        if (fieldIds.length != td.numFields() || src.capacity > capacity) {
+            throw new IllegalArgumentException("projection does not fit this batch");
+        }
+        if (!view) {
+            columns = new Field[fieldIds.length][];
+            view = true;
+        }
+        for (int i = 0; i < fieldIds.length; i++) {
+            columns[i] = src.columns[fieldIds[i]];
+        }
+        recordIds = src.recordIds;
+        selection = src.selection;
+        numRows = src.numRows;
+        numSelected = src.numSelected;
+    }
+
+    /**
+     * Append a row holding the fields of left followed by the fields of row
+     * srcRow of src, as a join of the two would.
+     *
+     * @return the number of the new row
+     */
+    public int addJoined(Tuple left, TupleBatch src, int srcRow) {
+        int row = addRow();
+        int n = columns.length - src.columns.length;
+        for (int i = 0; i < n; i++) {
+            columns[i][row] = left.getField(i);
+        }
+        for (int i = n; i < columns.length; i++) {
+            columns[i][row] = src.columns[i - n][srcRow];
+        }
+        return row;
+    }
+
+    /**
+     * Build a tuple from a row of this batch.
+     *
+     * @param row a row number (not a position in the selection vector)
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            t.setField(i, columns[i][row]);
+        }
+        t.setRecordId(recordIds[row]);
+        return t;
+    }
+
+    public String toString() {
+        return "TupleBatch(" + numSelected + "/" + numRows + " rows of " + td + ")";
+    }
+}
@@ -5,16 +5,39 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -191,6 +214,238 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.twoPhase(): the rows of each group are split
+   * across partitions, so the partial results must be merged, and AVG must
+   * not average the partial averages
+   */
+  @Test public void twoPhase() throws Exception {
+    Object[][] cases = { { Aggregator.Op.SUM, sum }, { Aggregator.Op.AVG, avg },
+        { Aggregator.Op.MIN, min }, { Aggregator.Op.MAX, max }, { Aggregator.Op.COUNT, count } };
+    for (Object[] c : cases) {
+      OpIterator[] parts = {
+          TestUtil.createTupleList(width1, new int[] { 1, 2, 3, 2, 5, 7 }),
+          TestUtil.createTupleList(width1, new int[] { 1, 4, 1, 6 }),
+          TestUtil.createTupleList(width1, new int[] { 3, 4, 3, 6 }) };
+      Aggregate op = Aggregate.twoPhase(parts, 1, 0, (Aggregator.Op) c[0]);
+      assertEquals(Utility.getTupleDesc(2), op.getTupleDesc());
+      op.open();
+      OpIterator expected = (OpIterator) c[1];
+      expected.open();
+      TestUtil.matchAllTuples(expected, op);
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for Aggregate.parallel() without grouping: the 7 values of
+   * scan1 sum to 31
+   */
+  @Test public void parallelNoGrouping() throws Exception {
+    int[][] cases = { { Aggregator.Op.SUM.ordinal(), 31 }, { Aggregator.Op.AVG.ordinal(), 4 },
+        { Aggregator.Op.COUNT.ordinal(), 7 }, { Aggregator.Op.MIN.ordinal(), 2 },
+        { Aggregator.Op.MAX.ordinal(), 7 } };
+    for (int[] c : cases) {
+      scan1.rewind();
+      Aggregate op = Aggregate.parallel(scan1, 1, Aggregator.NO_GROUPING,
+          Aggregator.Op.getOp(c[0]), 3);
+      op.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { c[1] }), op);
+      op.close();
+    }
+  }
+
+  /**
+   * Aggregate.parallel() over a scan of a heap file, whose partial
+   * aggregates each scan a range of the pages, agrees with a single
+   * Aggregate, also with more partial aggregates than pages
+   */
+  @Test public void parallelHeapScan() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 2000, 50, new HashMap<>(), new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      SeqScan serialScan = new SeqScan(tid, table.getId(), "t");
+      serialScan.pushDown(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(25)));
+      Aggregate serial = new Aggregate(serialScan, 1, 2, op);
+      serial.open();
+      Set<String> expected = IntegerAggregatorTest.drain(serial);
+      serial.close();
+      for (int parallelism : new int[] { 3, 100 }) {
+        SeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 2);
+        scan.pushDown(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(25)));
+        Aggregate parallel = Aggregate.parallel(scan, 1, 2, op, parallelism);
+        assertEquals(serial.getTupleDesc(), parallel.getTupleDesc());
+        parallel.open();
+        assertEquals(expected, IntegerAggregatorTest.drain(parallel));
+        parallel.rewind();
+        assertEquals(expected, IntegerAggregatorTest.drain(parallel));
+        parallel.close();
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void twoPhaseSumCount() {
+    Aggregate.twoPhase(new OpIterator[] { scan1 }, 1, 0, Aggregator.Op.SUM_COUNT);
+  }
+
+  /**
+   * Unit test for several aggregates computed in one pass over scan1
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MAX, Aggregator.Op.AVG };
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1, 1 }, ops, 0);
+    assertEquals(Utility.getTupleDesc(5), op.getTupleDesc());
+    assertEquals(4, op.numAggregates());
+    assertEquals(Aggregator.Op.MAX, op.aggregateOp(2));
+    assertEquals(3, op.aggregateIndex(2));
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 3, 12, 6, 4,
+                    3, 3, 12, 6, 4,
+                    5, 1, 7, 7, 7 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+
+    op.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Several aggregates may COUNT a string field along with aggregates of
+   * integer fields
+   */
+  @Test public void multipleAggregatesCountString() throws Exception {
+    Aggregate op = new Aggregate(scan2, new int[] { 1, 0 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM }, 0);
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(3,
+        new int[] { 1, 3, 3,
+                    3, 3, 9,
+                    5, 1, 5 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void multipleAggregatesSumString() {
+    new Aggregate(scan2, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM }, 0);
+  }
+
+  /**
+   * A query with several aggregates is planned as a single Aggregate, and
+   * the select list picks each aggregate out of its result
+   */
+  @Test public void parseMultipleAggregates() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 500, 20, new HashMap<>(), tuples, "c");
+    Database.getCatalog().addTable(table, "agg_t");
+    TransactionId tid = new TransactionId();
+    OpIterator plan = new Parser().generateLogicalPlan(tid,
+        "SELECT MAX(agg_t.c1), agg_t.c0, COUNT(agg_t.c1), SUM(agg_t.c1) FROM agg_t GROUP BY agg_t.c0;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+
+    Map<Integer, int[]> groups = new HashMap<>(); // max, count, sum
+    for (List<Integer> t : tuples) {
+      int[] g = groups.computeIfAbsent(t.get(0), k -> new int[] { Integer.MIN_VALUE, 0, 0 });
+      g[0] = Math.max(g[0], t.get(1));
+      g[1]++;
+      g[2] += t.get(1);
+    }
+    Set<String> expected = new HashSet<>();
+    for (Map.Entry<Integer, int[]> e : groups.entrySet()) {
+      int[] g = e.getValue();
+      expected.add(g[0] + "\t" + e.getKey() + "\t" + g[1] + "\t" + g[2]);
+    }
+    plan.open();
+    assertEquals(expected, IntegerAggregatorTest.drain(plan));
+    plan.close();
+  }
+
+  /**
+   * A streaming Aggregate over input ordered on the group gives the same
+   * groups as hashing, for every operator at once
+   */
+  @Test public void streaming() throws Exception {
+    int rows = 3000;
+    int[] data = new int[rows * 3];
+    Random r = new Random(7);
+    for (int i = 0; i < rows; i++) {
+      data[3 * i] = i / 7 - 100; // runs of 7 rows per group, in order
+      data[3 * i + 1] = r.nextInt(2000) - 1000;
+      data[3 * i + 2] = r.nextInt(3) + 1;
+    }
+    Aggregator.Op[] ops = Aggregator.Op.values();
+    int[] afields = new int[ops.length];
+    Arrays.fill(afields, 1);
+    Aggregate hashed = new Aggregate(TestUtil.createTupleList(3, data), afields, ops, 0);
+    Aggregate streamed = Aggregate.streaming(TestUtil.createTupleList(3, data), afields, ops, 0);
+    assertTrue(streamed.isStreaming());
+    assertEquals(hashed.getTupleDesc(), streamed.getTupleDesc());
+    hashed.open();
+    Set<String> expected = IntegerAggregatorTest.drain(hashed);
+    hashed.close();
+    streamed.open();
+    assertEquals(expected, IntegerAggregatorTest.drain(streamed));
+    streamed.rewind();
+    assertEquals(expected, IntegerAggregatorTest.drain(streamed));
+    streamed.close();
+  }
+
+  /**
+   * A streaming Aggregate returns the first group having read only one
+   * tuple past it
+   */
+  @Test public void streamingFirstGroupEarly() throws Exception {
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < 1000; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { i / 10, i }));
+    int[] read = { 0 };
+    OpIterator child = new TupleIterator(Utility.getTupleDesc(2), tuples) {
+      private static final long serialVersionUID = 1L;
+      public Tuple next() {
+        read[0]++;
+        return super.next();
+      }
+    };
+    Aggregate op = Aggregate.streaming(child, new int[] { 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM }, 0);
+    op.open();
+    Tuple first = op.next();
+    assertEquals(0, ((IntField) first.getField(0)).getValue());
+    assertEquals(45, ((IntField) first.getField(1)).getValue());
+    assertEquals(11, read[0]);
+    op.close();
+  }
+
+  /**
+   * GROUP BY the key of a B+ tree is planned as a streaming Aggregate
+   */
+  @Test public void parseStreamingGroupBy() throws Exception {
+    List<List<Integer>> bt = new ArrayList<>();
+    BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 500, 1000, null, bt, 0);
+    Database.getCatalog().addTable(new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c")), "agg_bt");
+    TransactionId tid = new TransactionId();
+    OpIterator plan = new Parser().generateLogicalPlan(tid,
+        "SELECT agg_bt.c0, SUM(agg_bt.c1) FROM agg_bt GROUP BY agg_bt.c0;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    Aggregate agg = (Aggregate) ((Operator) plan).getChildren()[0];
+    assertTrue(agg.isStreaming());
+
+    Map<Integer, Integer> sums = new HashMap<>();
+    for (List<Integer> t : bt)
+      sums.merge(t.get(0), t.get(1), Integer::sum);
+    Set<String> expected = new HashSet<>();
+    for (Map.Entry<Integer, Integer> e : sums.entrySet())
+      expected.add(e.getKey() + "\t" + e.getValue());
+    plan.open();
+    assertEquals(expected, IntegerAggregatorTest.drain(plan));
+    plan.close();
+  }
+
   /**
    * JUnit suite target
    */
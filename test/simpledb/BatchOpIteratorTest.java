@@ -0,0 +1,225 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchOpIterator;
+import simpledb.execution.BatchToTupleAdapter;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that every operator produces the same rows through nextBatch() as
+ * through hasNext()/next(). The tables span several batches.
+ */
+public class BatchOpIteratorTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 3000;
+
+  TransactionId tid;
+  HeapFile left;
+  HeapFile right;
+
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    left = SystemTestUtil.createRandomHeapFile(2, ROWS, 500, new HashMap<>(),
+        new ArrayList<>());
+    right = SystemTestUtil.createRandomHeapFile(3, ROWS, 500, new HashMap<>(),
+        new ArrayList<>());
+  }
+
+  private SeqScan scan(HeapFile f) {
+    return new SeqScan(tid, f.getId(), "");
+  }
+
+  /**
+   * Opens both operators and checks that they return the same tuples in the
+   * same order, reading the second one a batch at a time.
+   */
+  private void checkSame(OpIterator expected, BatchOpIterator actual)
+      throws Exception {
+    OpIterator batched = new BatchToTupleAdapter(actual);
+    expected.open();
+    batched.open();
+    TestUtil.compareDbIterators(expected, batched);
+    expected.close();
+    batched.close();
+  }
+
+  /**
+   * Unit test for SeqScan.nextBatch()
+   */
+  @Test public void seqScan() throws Exception {
+    SeqScan s = scan(left);
+    s.open();
+    int rows = 0;
+    TupleBatch b;
+    while ((b = s.nextBatch()) != null) {
+      assertTrue(b.numSelected() > 0);
+      assertTrue(b.numRows() <= TupleBatch.DEFAULT_CAPACITY);
+      for (int i = 0; i < b.numSelected(); i++) {
+        assertEquals(left.getId(), b.getRecordId(b.selection()[i]).getPageId().getTableId());
+      }
+      rows += b.numSelected();
+    }
+    assertEquals(ROWS, rows);
+    assertNull(s.nextBatch());
+    s.close();
+    checkSame(scan(left), scan(left));
+  }
+
+  /**
+   * SeqScan.nextBatch() reads the fields of pages that have not been decoded
+   * from their bytes, and sees the changes made to pages that have been
+   */
+  @Test public void seqScanPageBytes() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    File f = File.createTempFile("batch", "dat");
+    f.deleteOnExit();
+    HeapFile file = new HeapFile(f, td);
+    Database.getCatalog().addTable(file, "batch_strings");
+    for (int pgNo = 0; pgNo < 2; pgNo++) {
+      HeapPage page = new HeapPage(new HeapPageId(file.getId(), pgNo), HeapPage.createEmptyPageData());
+      for (int i = 0; i < 20; i++) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(pgNo * 100 + i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        page.insertTuple(t);
+      }
+      file.writePage(page);
+    }
+
+    List<String> expected = new ArrayList<>();
+    SeqScan s = new SeqScan(tid, file.getId(), "t", new int[] { 1, 0 });
+    s.open();
+    while (s.hasNext()) {
+      Tuple t = s.next();
+      expected.add(t + " " + t.getRecordId());
+    }
+    s.close();
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(40, expected.size());
+    assertEquals(expected, batchRows(s));
+
+    // deleting a tuple decodes its page
+    HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+        new HeapPageId(file.getId(), 0), Permissions.READ_ONLY);
+    Database.getBufferPool().deleteTuple(tid, first.getTuple(0));
+    expected.remove(0);
+    assertEquals(expected, batchRows(s));
+  }
+
+  /** @return the rows of a scan read a batch at a time, with their record ids */
+  private static List<String> batchRows(SeqScan s) throws Exception {
+    List<String> rows = new ArrayList<>();
+    s.open();
+    for (TupleBatch b = s.nextBatch(); b != null; b = s.nextBatch())
+      for (int i = 0; i < b.numSelected(); i++) {
+        int row = b.selection()[i];
+        rows.add(b.getTuple(row) + " " + b.getRecordId(row));
+      }
+    s.close();
+    return rows;
+  }
+
+  /**
+   * Unit test for Filter.nextBatch()
+   */
+  @Test public void filter() throws Exception {
+    Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100));
+    checkSame(new Filter(p, scan(left)), new Filter(p, scan(left)));
+  }
+
+  /**
+   * Unit test for Project.nextBatch() above a Filter
+   */
+  @Test public void project() throws Exception {
+    Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(250));
+    List<Integer> fields = Arrays.asList(2, 0);
+    Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+    checkSame(new Project(fields, types, new Filter(p, scan(right))),
+        new Project(fields, types, new Filter(p, scan(right))));
+  }
+
+  /**
+   * Unit test for HashEquiJoin.nextBatch()
+   */
+  @Test public void hashEquiJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    checkSame(new HashEquiJoin(p, scan(left), scan(right)),
+        new HashEquiJoin(p, scan(left), scan(right)));
+  }
+
+  /**
+   * Unit test for HashEquiJoin.nextBatch() after rewind()
+   */
+  @Test public void hashEquiJoinRewind() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    HashEquiJoin op = new HashEquiJoin(p, scan(left), scan(right));
+    op.open();
+    int rows = 0;
+    TupleBatch b;
+    while ((b = op.nextBatch()) != null) {
+      rows += b.numSelected();
+    }
+    assertTrue(rows > 0);
+    op.rewind();
+    int again = 0;
+    while ((b = op.nextBatch()) != null) {
+      again += b.numSelected();
+    }
+    assertEquals(rows, again);
+    op.close();
+  }
+
+  /**
+   * Unit test for Aggregate reading batches and returning them
+   */
+  @Test public void aggregate() throws Exception {
+    checkSame(new Aggregate(scan(left), 1, 0, Aggregator.Op.SUM),
+        new Aggregate(scan(left), 1, 0, Aggregator.Op.SUM));
+    checkSame(new Aggregate(scan(left), 1, Aggregator.NO_GROUPING, Aggregator.Op.AVG),
+        new Aggregate(scan(left), 1, Aggregator.NO_GROUPING, Aggregator.Op.AVG));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchOpIteratorTest.class);
+  }
+}
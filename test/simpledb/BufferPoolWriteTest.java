@@ -4,6 +4,7 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -140,6 +141,32 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * A commit whose pages cannot be written back fails with the
+     * IOException, and keeps the locks of the transaction until it aborts
+     */
+    @Test public void commitWriteFails() throws Exception {
+        HeapFile failing = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+            @Override
+            public void writePages(List<Page> pages) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        TransactionId writer = new TransactionId();
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(writer, failing.getId(), t);
+        try {
+            Database.getBufferPool().transactionComplete(writer, true);
+            fail("expected the commit to fail");
+        } catch (UncheckedIOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        assertTrue(Database.getBufferPool().holdsLock(writer, t.getRecordId().getPageId()));
+        Database.getBufferPool().transactionComplete(writer, false);
+        assertFalse(Database.getBufferPool().holdsLock(writer, t.getRecordId().getPageId()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -2,6 +2,10 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -12,9 +16,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -97,6 +103,102 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Files get small dense ids that stay the same for the same file
+     */
+    @Test public void denseTableIds() throws Exception {
+        File f1 = File.createTempFile("table", ".dat");
+        File f2 = File.createTempFile("table", ".dat");
+        f1.deleteOnExit();
+        f2.deleteOnExit();
+        int t1 = Catalog.getTableIdForFile(f1);
+        int t2 = Catalog.getTableIdForFile(f2);
+        Assert.assertTrue(t1 >= 0 && t2 >= 0 && t1 != t2);
+        assertEquals(t1, Catalog.getTableIdForFile(new File(f1.getAbsolutePath())));
+
+        HeapFile hf = new HeapFile(f1, Utility.getTupleDesc(2));
+        assertEquals(t1, hf.getId());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(hf, Database.getCatalog().getDatabaseFile(t1));
+    }
+
+    /**
+     * Table ids of a schema are saved next to it and reused when it is loaded
+     */
+    @Test public void loadSchemaSavesIds() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        File ids = new File(schema.getPath() + ".ids");
+        schema.deleteOnExit();
+        ids.deleteOnExit();
+        try (PrintWriter pw = new PrintWriter(schema)) {
+            pw.println("t1 (a int, b int)");
+            pw.println("t2 (a int pk) pagesize 8192");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+        int t2 = Database.getCatalog().getTableId("t2");
+        assertEquals(8192, Database.getCatalog().getPageSize(t2));
+        Assert.assertTrue(ids.exists());
+
+        String path = new File(schema.getParentFile(), "t2.dat").getAbsolutePath();
+        boolean found = false;
+        try (BufferedReader br = new BufferedReader(new FileReader(ids))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                found |= line.equals(t2 + " " + path);
+            }
+        }
+        Assert.assertTrue(found);
+    }
+
+    /**
+     * A released id is handed out again, and a table can be removed
+     */
+    @Test public void releaseTableIds() throws Exception {
+        File f1 = File.createTempFile("table", ".dat");
+        File f2 = File.createTempFile("table", ".dat");
+        f1.deleteOnExit();
+        f2.deleteOnExit();
+        HeapFile hf = new HeapFile(f1, Utility.getTupleDesc(2));
+        String hfName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(hf, hfName);
+        Database.getCatalog().removeTable(hf.getId());
+        try {
+            Database.getCatalog().getDatabaseFile(hf.getId());
+            Assert.fail("expected exception");
+        } catch (NoSuchElementException ignored) {
+        }
+        try {
+            Database.getCatalog().getTableId(hfName);
+            Assert.fail("expected exception");
+        } catch (NoSuchElementException ignored) {
+        }
+
+        Catalog.releaseTableIdForFile(f1);
+        assertEquals(hf.getId(), Catalog.getTableIdForFile(f2));
+        Assert.assertNotEquals(hf.getId(), Catalog.getTableIdForFile(f1));
+    }
+
+    /**
+     * Loading a saved id that another file already has is an error
+     */
+    @Test(expected = IllegalStateException.class)
+    public void loadSchemaIdConflict() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        File ids = new File(schema.getPath() + ".ids");
+        schema.deleteOnExit();
+        ids.deleteOnExit();
+        File other = File.createTempFile("table", ".dat");
+        other.deleteOnExit();
+        try (PrintWriter pw = new PrintWriter(schema)) {
+            pw.println("conflict_t (a int)");
+        }
+        try (PrintWriter pw = new PrintWriter(ids)) {
+            pw.println(Catalog.getTableIdForFile(other) + " "
+                    + new File(schema.getParentFile(), "conflict_t.dat").getAbsolutePath());
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+    }
+
     /**
      * JUnit suite target
      */
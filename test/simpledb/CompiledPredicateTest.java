@@ -0,0 +1,161 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.CompiledJoinPredicate;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.Filter;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompiledPredicateTest extends SimpleDbTestBase {
+
+  /** @return n tuples of two random ints in [-10, 10) */
+  private static List<Tuple> intTuples(int n) {
+    Random r = new Random(3);
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < n; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(20) - 10, r.nextInt(20) - 10 }));
+    return tuples;
+  }
+
+  private static TupleBatch batch(List<Tuple> tuples) {
+    TupleBatch b = new TupleBatch(tuples.get(0).getTupleDesc(), tuples.size());
+    for (Tuple t : tuples)
+      b.addTuple(t);
+    return b;
+  }
+
+  /** @return the rows of b still selected */
+  private static List<Integer> selected(TupleBatch b) {
+    List<Integer> rows = new ArrayList<>();
+    for (int i = 0; i < b.numSelected(); i++)
+      rows.add(b.selection()[i]);
+    return rows;
+  }
+
+  /**
+   * Compiled comparisons of ints agree with Predicate.filter for every
+   * operator, on tuples and on batches
+   */
+  @Test public void intComparisons() {
+    List<Tuple> tuples = intTuples(500);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(1, op, new IntField(3));
+      CompiledPredicate c = CompiledPredicate.compile(p);
+      TupleBatch expected = batch(tuples);
+      p.filter(expected);
+      TupleBatch actual = batch(tuples);
+      assertEquals(expected.numSelected(), c.filter(actual));
+      assertEquals(op.toString(), selected(expected), selected(actual));
+      for (Tuple t : tuples)
+        assertEquals(op.toString(), p.filter(t), c.test(t));
+    }
+  }
+
+  /**
+   * A chain of predicates is their conjunction, and comparisons of strings
+   * fall back to Predicate.filter
+   */
+  @Test public void conjunction() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("s" + (i % 7), Type.STRING_LEN));
+      tuples.add(t);
+    }
+    Predicate[] chain = {
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20)),
+        new Predicate(1, Predicate.Op.EQUALS, new StringField("s3", Type.STRING_LEN)),
+        new Predicate(0, Predicate.Op.LESS_THAN, new IntField(80)) };
+    CompiledPredicate c = CompiledPredicate.compile(chain);
+    TupleBatch b = batch(tuples);
+    c.filter(b);
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 20; i < 80; i++)
+      if (i % 7 == 3)
+        expected.add(i);
+    assertEquals(expected, selected(b));
+    for (Tuple t : tuples)
+      assertEquals(expected.contains(((IntField) t.getField(0)).getValue()), c.test(t));
+  }
+
+  /**
+   * A Filter over a Filter returns the tuples passing both predicates, and
+   * still does after a rewind
+   */
+  @Test public void filterChain() throws Exception {
+    OpIterator scan = new TestUtil.MockScan(-5, 5, 2);
+    Filter op = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3)),
+        new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-2)), scan));
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(2, new int[] { -1, -1, 0, 0, 1, 1, 2, 2 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * The compiled join predicate finds the same matches in a block as
+   * JoinPredicate.filter, for every operator, with int and string keys
+   */
+  @Test public void joinPredicate() {
+    List<Tuple> block = intTuples(200);
+    List<Tuple> right = intTuples(50);
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    List<Tuple> strings = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("k" + (i % 5), Type.STRING_LEN));
+      strings.add(t);
+    }
+    for (Predicate.Op op : Predicate.Op.values()) {
+      checkJoin(new JoinPredicate(0, op, 1), block, right);
+      if (op != Predicate.Op.LIKE)
+        checkJoin(new JoinPredicate(0, op, 0), strings, strings);
+    }
+  }
+
+  private static void checkJoin(JoinPredicate p, List<Tuple> block, List<Tuple> right) {
+    CompiledJoinPredicate c = new CompiledJoinPredicate(p);
+    c.load(block);
+    for (Tuple t2 : right) {
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < block.size(); i++)
+        if (p.filter(block.get(i), t2))
+          expected.add(i);
+      List<Integer> actual = new ArrayList<>();
+      for (int i = c.next(t2, 0); i < block.size(); i = c.next(t2, i + 1))
+        actual.add(i);
+      assertEquals(p.getOperator().toString(), expected, actual);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompiledPredicateTest.class);
+  }
+}
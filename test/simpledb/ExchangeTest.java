@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Exchange;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 2000;
+  private static final int CONSUMERS = 4;
+
+  TransactionId tid;
+  HeapFile f;
+  List<List<Integer>> tuples;
+
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    tuples = new ArrayList<>();
+    f = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, new HashMap<>(), tuples);
+  }
+
+  private SeqScan scan() {
+    return new SeqScan(tid, f.getId(), "");
+  }
+
+  private static int count(OpIterator it) throws Exception {
+    int n = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /**
+   * Unit test for Exchange.gather() over several producers
+   */
+  @Test public void gather() throws Exception {
+    List<List<Integer>> expected = new ArrayList<>(tuples);
+    expected.addAll(tuples);
+    expected.addAll(tuples);
+    SystemTestUtil.matchTuples(Exchange.gather(scan(), scan(), scan()), expected);
+  }
+
+  /**
+   * Unit test for Exchange.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    Exchange ex = Exchange.gather(scan(), scan());
+    ex.open();
+    for (int i = 0; i < 10; i++) {
+      ex.next();
+    }
+    ex.rewind();
+    int n = 0;
+    while (ex.hasNext()) {
+      ex.next();
+      n++;
+    }
+    assertEquals(2 * ROWS, n);
+    ex.close();
+  }
+
+  /**
+   * A hash partitioned exchange sends equal values to the same consumer, so
+   * a grouped aggregate per consumer under a gather computes the whole
+   * aggregate: Filter and Aggregate run in parallel without knowing it.
+   */
+  @Test public void hashPartitionedAggregate() throws Exception {
+    Exchange[] parts = Exchange.hashPartition(new OpIterator[] { scan(), scan() }, 0, CONSUMERS);
+    OpIterator[] pipelines = new OpIterator[CONSUMERS];
+    Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50));
+    for (int i = 0; i < CONSUMERS; i++) {
+      assertEquals(i, parts[i].getConsumerIndex());
+      pipelines[i] = new Aggregate(new Filter(p, parts[i]), 1, 0, Aggregator.Op.COUNT);
+    }
+    Map<Integer, Integer> expected = new HashMap<>();
+    for (List<Integer> t : tuples) {
+      if (t.get(1) < 50) {
+        expected.merge(t.get(0), 2, Integer::sum);
+      }
+    }
+
+    Exchange gather = Exchange.gather(pipelines);
+    Map<Integer, Integer> actual = new HashMap<>();
+    gather.open();
+    while (gather.hasNext()) {
+      Tuple t = gather.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      // each group is computed by exactly one consumer
+      assertEquals(null, actual.put(key, ((IntField) t.getField(1)).getValue()));
+    }
+    assertEquals(expected, actual);
+
+    // rewinding the gather restarts the pipelines and the partitioning
+    gather.rewind();
+    actual.clear();
+    while (gather.hasNext()) {
+      Tuple t = gather.next();
+      actual.put(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+    }
+    assertEquals(expected, actual);
+    gather.close();
+  }
+
+  /**
+   * Unit test for Exchange.roundRobin() and Exchange.broadcast()
+   */
+  @Test public void roundRobinAndBroadcast() throws Exception {
+    assertEquals(2 * ROWS, count(Exchange.gather(
+        Exchange.roundRobin(new OpIterator[] { scan(), scan() }, CONSUMERS))));
+    assertEquals(CONSUMERS * ROWS, count(Exchange.gather(
+        Exchange.broadcast(new OpIterator[] { scan() }, CONSUMERS))));
+  }
+
+  /**
+   * Closing an exchange before reading all of its tuples stops producers
+   * blocked on a full queue.
+   */
+  @Test public void closeEarly() throws Exception {
+    Exchange ex = Exchange.gather(scan(), scan(), scan());
+    ex.open();
+    ex.next();
+    Thread.sleep(50);
+    ex.close();
+    assertEquals(3 * ROWS, count(ex));
+  }
+
+  /**
+   * An exception thrown by a producer is rethrown to the consumer.
+   */
+  @Test public void producerFailure() throws Exception {
+    OpIterator failing = new Operator() {
+      private static final long serialVersionUID = 1L;
+      int n = 0;
+      @Override protected Tuple fetchNext() throws TransactionAbortedException {
+        if (n++ == 100) {
+          throw new TransactionAbortedException();
+        }
+        Tuple t = new Tuple(getTupleDesc());
+        t.setField(0, new IntField(n));
+        t.setField(1, new IntField(n));
+        return t;
+      }
+      @Override public OpIterator[] getChildren() { return new OpIterator[0]; }
+      @Override public void setChildren(OpIterator[] children) { }
+      @Override public TupleDesc getTupleDesc() { return f.getTupleDesc(); }
+      @Override public void rewind() { n = 0; }
+    };
+    Exchange ex = Exchange.gather(scan(), failing);
+    ex.open();
+    try {
+      while (ex.hasNext()) {
+        ex.next();
+      }
+      fail("expected TransactionAbortedException");
+    } catch (TransactionAbortedException e) {
+      // expected
+    }
+    ex.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
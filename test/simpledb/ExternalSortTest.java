@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.ExternalSort;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+  private List<Tuple> sort(int maxTuples, boolean spills) throws Exception {
+    return sort(maxTuples, 0, spills);
+  }
+
+  /** Sorts 500 tuples on field 0, keeping the insertion order in field 1 */
+  private List<Tuple> sort(int maxTuples, int threads, boolean spills) throws Exception {
+    ExternalSort sort = new ExternalSort(Utility.getTupleDesc(2), ExternalSort.byField(0, true),
+        maxTuples, threads);
+    for (int i = 0; i < 500; i++) {
+      sort.add(Utility.getHeapTuple(new int[] { (i * 37) % 11, i }));
+    }
+    assertEquals(spills, sort.hasSpilled());
+    List<Tuple> result = new ArrayList<>();
+    DbFileIterator it = sort.iterator();
+    for (int pass = 0; pass < 2; pass++) {
+      result.clear();
+      it.open();
+      while (it.hasNext()) {
+        result.add(it.next());
+      }
+      it.close();
+    }
+    sort.delete();
+    return result;
+  }
+
+  private void checkSorted(List<Tuple> tuples) {
+    assertEquals(500, tuples.size());
+    for (int i = 1; i < tuples.size(); i++) {
+      int k0 = ((IntField) tuples.get(i - 1).getField(0)).getValue();
+      int k1 = ((IntField) tuples.get(i).getField(0)).getValue();
+      assertTrue(k0 <= k1);
+      if (k0 == k1) {
+        // stable: equal keys keep their insertion order
+        assertTrue(((IntField) tuples.get(i - 1).getField(1)).getValue()
+            < ((IntField) tuples.get(i).getField(1)).getValue());
+      }
+    }
+  }
+
+  @Test public void inMemory() throws Exception {
+    checkSorted(sort(ExternalSort.DEFAULT_MAX_TUPLES, false));
+  }
+
+  @Test public void spilled() throws Exception {
+    checkSorted(sort(50, true));
+  }
+
+  /**
+   * More runs than can be merged at once are merged in several passes
+   */
+  @Test public void multiPass() throws Exception {
+    assertTrue(500 / 3 > ExternalSort.MAX_FAN_IN);
+    checkSorted(sort(3, true));
+  }
+
+  /**
+   * Runs sorted and written by background threads merge as if written in order
+   */
+  @Test public void parallelRuns() throws Exception {
+    checkSorted(sort(3, 2, true));
+    checkSorted(sort(50, 4, true));
+  }
+
+  @Test public void empty() throws Exception {
+    ExternalSort sort = new ExternalSort(Utility.getTupleDesc(2), ExternalSort.byField(0, true), 10);
+    DbFileIterator it = sort.iterator();
+    it.open();
+    assertFalse(it.hasNext());
+    it.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExternalSortTest.class);
+  }
+}
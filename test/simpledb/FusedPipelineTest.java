@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class FusedPipelineTest extends SimpleDbTestBase {
+
+  private static final Aggregator.Op[] OPS = {
+      Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+      Aggregator.Op.AVG, Aggregator.Op.COUNT, Aggregator.Op.SUM_COUNT };
+
+  private HeapFile table;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    table = SystemTestUtil.createRandomHeapFile(4, 3000, 100, new HashMap<>(), new ArrayList<>());
+    tid = new TransactionId();
+  }
+
+  /**
+   * Filter(c3 &lt; 70, Project(c3, c1, c0, Filter(c2 &gt;= 10, scan))): the
+   * Filters above and below the Project refer to different numberings of
+   * the fields
+   */
+  private OpIterator pipeline(SeqScan scan) {
+    Filter below = new Filter(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10)), scan);
+    Project project = new Project(Arrays.asList(3, 1, 0),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE }, below);
+    return new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(70)), project);
+  }
+
+  /** @return the result of the aggregate, which is fused if fused is true */
+  private Set<String> run(Aggregate agg, boolean fused) throws Exception {
+    agg.setFusionEnabled(fused);
+    agg.open();
+    assertEquals(fused, agg.isFused());
+    Set<String> result = IntegerAggregatorTest.drain(agg);
+    // a fused aggregate rewinds without reading the table again
+    agg.rewind();
+    assertEquals(result, IntegerAggregatorTest.drain(agg));
+    agg.close();
+    assertFalse(agg.isFused());
+    return result;
+  }
+
+  private void check(int gfield, int maxGroups) throws Exception {
+    int[] afields = { 1, 2, 1, 2, 0, 1 };
+    Set<String> expected = run(new Aggregate(pipeline(new SeqScan(tid, table.getId())),
+        afields, OPS, gfield, maxGroups), false);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, run(new Aggregate(pipeline(new SeqScan(tid, table.getId())),
+        afields, OPS, gfield, maxGroups), true));
+  }
+
+  /**
+   * A fused scan-filter-project-aggregate pipeline returns the same groups
+   * as the operators it replaces
+   */
+  @Test public void grouped() throws Exception {
+    check(0, IntegerAggregator.DEFAULT_MAX_GROUPS);
+  }
+
+  @Test public void ungrouped() throws Exception {
+    check(Aggregator.NO_GROUPING, IntegerAggregator.DEFAULT_MAX_GROUPS);
+  }
+
+  /** Groups that do not fit in memory are spilled as without fusion */
+  @Test public void spilled() throws Exception {
+    check(0, 10);
+  }
+
+  /** An Aggregate directly over a scan is fused too */
+  @Test public void scanOnly() throws Exception {
+    Aggregate agg = new Aggregate(new SeqScan(tid, table.getId()), 1, 0, Aggregator.Op.SUM);
+    Set<String> expected = run(agg, false);
+    assertEquals(expected, run(agg, true));
+  }
+
+  /**
+   * Children that are not a chain of Filters and Projects over a SeqScan of
+   * a heap file are not fused
+   */
+  @Test public void notFused() throws Exception {
+    Aggregate overParallel = new Aggregate(pipeline(new ParallelSeqScan(tid, table.getId(), "t", 2)),
+        1, 0, Aggregator.Op.SUM);
+    overParallel.open();
+    assertFalse(overParallel.isFused());
+    overParallel.close();
+
+    OpIterator list = TestUtil.createTupleList(2, new int[] { 1, 2, 1, 3, 2, 4 });
+    Aggregate overList = new Aggregate(new Filter(
+        new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0)), list), 1, 0, Aggregator.Op.SUM);
+    overList.open();
+    assertFalse(overList.isFused());
+    assertEquals(2, IntegerAggregatorTest.drain(overList).size());
+    overList.close();
+  }
+
+  /**
+   * The Aggregate of a parsed single-table query is fused with its scan and
+   * filters
+   */
+  @Test public void parsed() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile t = SystemTestUtil.createRandomHeapFile(3, 2000, 30, new HashMap<>(), tuples, "c");
+    Database.getCatalog().addTable(t, "fused_t");
+    TableStats.setTableStats("fused_t", new TableStats(t.getId(), 1));
+    OpIterator plan = new Parser().generateLogicalPlan(tid,
+        "SELECT fused_t.c0, SUM(fused_t.c1) FROM fused_t WHERE fused_t.c2 < 10 GROUP BY fused_t.c0;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    Aggregate agg = (Aggregate) ((Operator) plan).getChildren()[0];
+
+    Map<Integer, Integer> sums = new HashMap<>();
+    for (List<Integer> row : tuples)
+      if (row.get(2) < 10)
+        sums.merge(row.get(0), row.get(1), Integer::sum);
+    Set<String> expected = new HashSet<>();
+    for (Map.Entry<Integer, Integer> e : sums.entrySet())
+      expected.add(e.getKey() + "\t" + e.getValue());
+    plan.open();
+    assertTrue(agg.isFused());
+    assertEquals(expected, IntegerAggregatorTest.drain(plan));
+    plan.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FusedPipelineTest.class);
+  }
+}
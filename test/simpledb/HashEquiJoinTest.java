@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  TransactionId tid;
+  HeapFile left;
+  HeapFile right;
+  List<List<Integer>> leftTuples;
+  List<List<Integer>> rightTuples;
+
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    leftTuples = new ArrayList<>();
+    rightTuples = new ArrayList<>();
+    left = SystemTestUtil.createRandomHeapFile(2, 1000, 500, new HashMap<>(), leftTuples);
+    right = SystemTestUtil.createRandomHeapFile(2, 1000, 500, new HashMap<>(), rightTuples);
+  }
+
+  /** @return the tuples of the join of l and r on l.0 = r.1, computed naively */
+  private static List<List<Integer>> join(List<List<Integer>> l, List<List<Integer>> r) {
+    List<List<Integer>> result = new ArrayList<>();
+    for (List<Integer> a : l) {
+      for (List<Integer> b : r) {
+        if (a.get(0).equals(b.get(1))) {
+          List<Integer> t = new ArrayList<>(a);
+          t.addAll(b);
+          result.add(t);
+        }
+      }
+    }
+    return result;
+  }
+
+  private HashEquiJoin join(HeapFile l, HeapFile r, int budget) {
+    return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        new SeqScan(tid, l.getId(), "l"), new SeqScan(tid, r.getId(), "r"), budget);
+  }
+
+  /**
+   * A join whose left side fits in memory does not spill
+   */
+  @Test public void inMemory() throws Exception {
+    HashEquiJoin op = join(left, right, HashEquiJoin.MAP_SIZE);
+    SystemTestUtil.matchTuples(op, join(leftTuples, rightTuples));
+    assertFalse(op.hasSpilled());
+  }
+
+  /**
+   * A left side 20 times the memory budget is partitioned to disk
+   */
+  @Test public void spilled() throws Exception {
+    HashEquiJoin op = join(left, right, 50);
+    SystemTestUtil.matchTuples(op, join(leftTuples, rightTuples));
+    assertTrue(op.hasSpilled());
+  }
+
+  /**
+   * Keys too frequent to fit in memory even after partitioning again
+   */
+  @Test public void skewed() throws Exception {
+    Map<Integer, Integer> sameKey = new HashMap<>();
+    sameKey.put(0, 7);
+    List<List<Integer>> l = new ArrayList<>();
+    HeapFile skewedLeft = SystemTestUtil.createRandomHeapFile(2, 300, sameKey, l);
+    sameKey.clear();
+    sameKey.put(1, 7);
+    List<List<Integer>> r = new ArrayList<>();
+    HeapFile skewedRight = SystemTestUtil.createRandomHeapFile(2, 20, sameKey, r);
+    SystemTestUtil.matchTuples(join(skewedLeft, skewedRight, 64), join(l, r));
+  }
+
+  /**
+   * Unit test for HashEquiJoin.rewind() after spilling
+   */
+  @Test public void rewind() throws Exception {
+    HashEquiJoin op = join(left, right, 50);
+    int expected = join(leftTuples, rightTuples).size();
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertEquals(expected, n);
+    op.rewind();
+    n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertEquals(expected, n);
+    op.close();
+  }
+
+  /** @return the joined rows of op as lists, with op left open */
+  private static List<List<Integer>> read(OpIterator op) throws Exception {
+    List<List<Integer>> result = new ArrayList<>();
+    while (op.hasNext())
+      result.add(SystemTestUtil.tupleToList(op.next()));
+    return result;
+  }
+
+  /**
+   * The keys of a small left side are handed to the scan of the right side,
+   * below a filter, which drops the rows that cannot match
+   */
+  @Test public void runtimeFilter() throws Exception {
+    List<List<Integer>> smallTuples = new ArrayList<>();
+    HeapFile small = SystemTestUtil.createRandomHeapFile(2, 20, 500, new HashMap<>(), smallTuples);
+    List<List<Integer>> filtered = new ArrayList<>();
+    for (List<Integer> t : rightTuples)
+      if (t.get(0) > 100)
+        filtered.add(t);
+    List<List<Integer>> expected = join(smallTuples, filtered);
+
+    SeqScan scan = new SeqScan(tid, right.getId(), "r");
+    HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        new SeqScan(tid, small.getId(), "l"),
+        new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(100)), scan));
+    op.open();
+    assertTrue(scan.hasRuntimeFilter());
+    List<List<Integer>> result = read(op);
+    assertEquals(expected.size(), result.size());
+    assertTrue(result.containsAll(expected));
+    assertTrue(scan.runtimeFilteredRows() > 0);
+    // the filter is built again from the new hash table
+    op.rewind();
+    result = read(op);
+    assertEquals(expected.size(), result.size());
+    assertTrue(result.containsAll(expected));
+    op.close();
+    assertFalse(scan.hasRuntimeFilter());
+  }
+
+  /**
+   * A left side that spills does not filter the right side
+   */
+  @Test public void noRuntimeFilterWhenSpilled() throws Exception {
+    SeqScan scan = new SeqScan(tid, right.getId(), "r");
+    HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        new SeqScan(tid, left.getId(), "l"), scan, 50);
+    op.open();
+    assertFalse(scan.hasRuntimeFilter());
+    assertEquals(join(leftTuples, rightTuples).size(), read(op).size());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
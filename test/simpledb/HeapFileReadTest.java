@@ -6,6 +6,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.RandomAccessFile;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -125,6 +126,35 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPages(): runs of pages read together match
+     * readPage, and a page the file ends within is an error for both
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 1100, null, null);
+        List<PageId> pids = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            pids.add(new HeapPageId(threePageFile.getId(), i));
+        List<Page> pages = threePageFile.readPages(pids);
+        for (int i = 0; i < 3; i++)
+            assertArrayEquals(threePageFile.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+
+        try (RandomAccessFile raf = new RandomAccessFile(threePageFile.getFile(), "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        try {
+            threePageFile.readPage(pids.get(2));
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            threePageFile.readPages(pids);
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  TransactionId tid;
+  HeapFile left;
+  BTreeFile right;
+  List<List<Integer>> leftTuples;
+  List<List<Integer>> rightTuples;
+
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    leftTuples = new ArrayList<>();
+    rightTuples = new ArrayList<>();
+    left = SystemTestUtil.createRandomHeapFile(2, 60, 300, new HashMap<>(), leftTuples);
+    // an index on field 1 with duplicate keys
+    right = BTreeUtility.createRandomBTreeFile(2, 600, 300, null, rightTuples, 1);
+    Database.getCatalog().addTable(right, SystemTestUtil.getUUID());
+  }
+
+  /** @return the tuples of the join of l and r on l.0 op r.1, computed naively */
+  private static List<List<Integer>> join(List<List<Integer>> l, Predicate.Op op,
+                                          List<List<Integer>> r) {
+    List<List<Integer>> result = new ArrayList<>();
+    for (List<Integer> a : l) {
+      for (List<Integer> b : r) {
+        if (new IntField(a.get(0)).compare(op, new IntField(b.get(1)))) {
+          List<Integer> t = new ArrayList<>(a);
+          t.addAll(b);
+          result.add(t);
+        }
+      }
+    }
+    return result;
+  }
+
+  private IndexNestedLoopJoin join(Predicate.Op op, int block) {
+    return new IndexNestedLoopJoin(new JoinPredicate(0, op, 1),
+        new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"), block);
+  }
+
+  /**
+   * Equality and range joins, with blocks smaller and larger than the outer input
+   */
+  @Test public void probe() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ }) {
+      for (int block : new int[] { 7, IndexNestedLoopJoin.DEFAULT_BLOCK_TUPLES }) {
+        SystemTestUtil.matchTuples(join(op, block), join(leftTuples, op, rightTuples));
+      }
+    }
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    IndexNestedLoopJoin op = join(Predicate.Op.EQUALS, 7);
+    int expected = join(leftTuples, Predicate.Op.EQUALS, rightTuples).size();
+    for (int pass = 0; pass < 2; pass++) {
+      if (pass == 0)
+        op.open();
+      else
+        op.rewind();
+      int n = 0;
+      while (op.hasNext()) {
+        op.next();
+        n++;
+      }
+      assertEquals(expected, n);
+    }
+    op.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    join(Predicate.Op.NOT_EQUALS, 7);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void notIndexed() {
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+  }
+
+  /**
+   * The index join is cheaper than reading the inner table only for small outer inputs
+   */
+  @Test public void cost() {
+    int card2 = 100000, pages2 = 1000;
+    double cost2 = pages2 * 1000.0, sel = 1.0 / card2;
+    assertTrue(JoinOptimizer.estimateIndexJoinCost(10, 0, card2, cost2, pages2, sel)
+        < JoinOptimizer.estimateHashJoinCost(10, 0, card2, cost2));
+    assertTrue(JoinOptimizer.estimateIndexJoinCost(50000, 0, card2, cost2, pages2, sel)
+        > JoinOptimizer.estimateHashJoinCost(50000, 0, card2, cost2));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -1,8 +1,16 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -182,6 +190,118 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * @return the remaining tuples of it as strings, checking that there are
+   *         no duplicates
+   */
+  static Set<String> drain(OpIterator it) throws Exception {
+    Set<String> tuples = new HashSet<>();
+    while (it.hasNext()) {
+      assertTrue(tuples.add(it.next().toString()));
+    }
+    return tuples;
+  }
+
+  /**
+   * Aggregate rows of (key, value, count) with every operator, one at a time
+   * and then all of them in a single aggregator, and check the results
+   * against a naive computation. SC_AVG reads value and count as a partial
+   * sum and count; the other operators read value.
+   */
+  private void checkManyGroups(int maxGroups, boolean spills) throws Exception {
+    int rows = 20000;
+    int[] data = new int[rows * 3];
+    Map<Integer, long[]> expected = new HashMap<>(); // sum, count, min, max, sum of counts
+    Random r = new Random(42);
+    for (int i = 0; i < rows; i++) {
+      int key = r.nextInt(5000) - 2500, value = r.nextInt(2000) - 1000, count = r.nextInt(3) + 1;
+      data[3 * i] = key;
+      data[3 * i + 1] = value;
+      data[3 * i + 2] = count;
+      long[] e = expected.computeIfAbsent(key,
+          k -> new long[] { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE, 0 });
+      e[0] += value;
+      e[1]++;
+      e[2] = Math.min(e[2], value);
+      e[3] = Math.max(e[3], value);
+      e[4] += count;
+    }
+    Aggregator.Op[] ops = Aggregator.Op.values();
+    for (Aggregator.Op op : ops) {
+      checkAggregator(new IntegerAggregator(0, Type.INT_TYPE, 1, op, maxGroups), data,
+          new Aggregator.Op[] { op }, expected, spills);
+    }
+    int[] afields = new int[ops.length];
+    Arrays.fill(afields, 1);
+    checkAggregator(new IntegerAggregator(0, Type.INT_TYPE, afields, ops, maxGroups), data,
+        ops, expected, spills);
+  }
+
+  private void checkAggregator(IntegerAggregator agg, int[] data, Aggregator.Op[] ops,
+      Map<Integer, long[]> expected, boolean spills) throws Exception {
+    OpIterator input = TestUtil.createTupleList(3, data);
+    input.open();
+    while (input.hasNext())
+      agg.mergeTupleIntoGroup(input.next());
+    input.close();
+    assertEquals(spills, agg.hasSpilled());
+
+    Set<String> result = new HashSet<>();
+    for (Map.Entry<Integer, long[]> e : expected.entrySet()) {
+      long[] v = e.getValue();
+      String row = e.getKey().toString();
+      for (Aggregator.Op op : ops) {
+        switch (op) {
+        case MIN: row += "\t" + v[2]; break;
+        case MAX: row += "\t" + v[3]; break;
+        case SUM: row += "\t" + v[0]; break;
+        case AVG: row += "\t" + v[0] / v[1]; break;
+        case COUNT: row += "\t" + v[1]; break;
+        case SUM_COUNT: row += "\t" + v[0] + "\t" + v[1]; break;
+        case SC_AVG: row += "\t" + v[0] / v[4]; break;
+        }
+      }
+      result.add(row);
+    }
+    String name = Arrays.toString(ops);
+    OpIterator it = agg.iterator();
+    it.open();
+    assertEquals(name, result, drain(it));
+    // the spilled partitions are aggregated again after a rewind
+    it.rewind();
+    assertEquals(name, result, drain(it));
+    it.close();
+  }
+
+  /**
+   * Test every operator over enough groups, including negative keys, for the
+   * group table to grow several times
+   */
+  @Test public void manyGroups() throws Exception {
+    checkManyGroups(IntegerAggregator.DEFAULT_MAX_GROUPS, false);
+  }
+
+  /**
+   * Test every operator with a memory budget of a fraction of the groups,
+   * so that rows are spilled and partitions are spilled again
+   */
+  @Test public void spill() throws Exception {
+    checkManyGroups(100, true);
+  }
+
+  /**
+   * Without grouping, COUNT of no rows is a single 0 and the other
+   * aggregates have no rows
+   */
+  @Test public void noRows() throws Exception {
+    OpIterator it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.COUNT).iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 0 }), it);
+    it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.SUM).iterator();
+    it.open();
+    assertFalse(it.hasNext());
+  }
+
   /**
    * JUnit suite target
    */
@@ -5,17 +5,28 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.io.File;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.Filter;
 import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 public class JoinTest extends SimpleDbTestBase {
 
@@ -112,6 +123,65 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with outer blocks smaller than child1, and
+   * with a block per outer tuple
+   */
+  @Test public void blockJoin() throws Exception {
+    for (int block : new int[] { 1, 3 }) {
+      JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+      Join op = new Join(pred, scan1, scan2, block);
+      assertEquals(block, op.getBlockTuples());
+      op.open();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      op.close();
+      gtJoin.close();
+    }
+  }
+
+  /**
+   * child2 is scanned once per block of outer tuples, not once per tuple
+   */
+  @Test public void innerScans() throws Exception {
+    final int[] rewinds = { 0 };
+    OpIterator counted = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(Integer.MIN_VALUE)), scan2) {
+      private static final long serialVersionUID = 1L;
+
+      public void rewind() throws DbException, TransactionAbortedException {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+    Join op = new Join(pred, scan1, counted, 2);
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+    }
+    op.close();
+    // four outer tuples in blocks of two
+    assertEquals(2, rewinds[0]);
+  }
+
+  /**
+   * The default outer block holds DEFAULT_BLOCK_PAGES pages of the table
+   * scanned by child1, in that table's page size
+   */
+  @Test public void blockPageSize() throws Exception {
+    File f = File.createTempFile("join", "dat");
+    f.deleteOnExit();
+    TupleDesc td = Utility.getTupleDesc(width1);
+    HeapFile file = new HeapFile(f, td, 4 * BufferPool.getPageSize());
+    Database.getCatalog().addTable(file, "join_block_pages");
+    OpIterator outer = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(0)), new SeqScan(new TransactionId(), file.getId()));
+    Join op = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), outer, scan2);
+    assertEquals(Join.DEFAULT_BLOCK_PAGES * 4 * BufferPool.getPageSize() / td.getSize(),
+        op.getBlockTuples());
+  }
+
   /**
    * JUnit suite target
    */
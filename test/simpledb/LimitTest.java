@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TopN;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  TransactionId tid;
+  List<List<Integer>> tuples;
+
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    tuples = new ArrayList<>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 200, 1000, new HashMap<>(), tuples, "c");
+    Database.getCatalog().addTable(table, "limit_t");
+  }
+
+  /** A child that counts how many tuples are read from it */
+  private static class CountingIterator extends TupleIterator {
+    private static final long serialVersionUID = 1L;
+    int read = 0;
+
+    CountingIterator(int n) {
+      super(Utility.getTupleDesc(1), tuples(n));
+    }
+
+    private static List<Tuple> tuples(int n) {
+      List<Tuple> l = new ArrayList<>();
+      for (int i = 0; i < n; i++)
+        l.add(Utility.getHeapTuple(i));
+      return l;
+    }
+
+    public Tuple next() {
+      read++;
+      return super.next();
+    }
+  }
+
+  private static List<List<Integer>> read(OpIterator op) throws Exception {
+    List<List<Integer>> result = new ArrayList<>();
+    op.open();
+    while (op.hasNext())
+      result.add(SystemTestUtil.tupleToList(op.next()));
+    op.close();
+    return result;
+  }
+
+  /**
+   * Limit skips offset tuples, returns limit, and reads no further
+   */
+  @Test public void limitOffset() throws Exception {
+    CountingIterator child = new CountingIterator(100);
+    Limit op = new Limit(5, 10, child);
+    List<List<Integer>> result = read(op);
+    assertEquals(5, result.size());
+    assertEquals(10, (int) result.get(0).get(0));
+    assertEquals(15, child.read);
+
+    assertEquals(3, read(new Limit(10, 97, new CountingIterator(100))).size());
+    assertEquals(0, read(new Limit(0, 0, new CountingIterator(100))).size());
+  }
+
+  /**
+   * Unit test for Limit.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    Limit op = new Limit(5, 10, new CountingIterator(100));
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.rewind();
+    assertTrue(op.hasNext());
+    assertEquals(10, ((IntField) op.next().getField(0)).getValue());
+    op.close();
+  }
+
+  /** @return true if plan has an operator of class c */
+  private static boolean contains(OpIterator plan, Class<?> c) {
+    if (c.isInstance(plan))
+      return true;
+    if (plan instanceof Operator)
+      for (OpIterator child : ((Operator) plan).getChildren())
+        if (child != null && contains(child, c))
+          return true;
+    return false;
+  }
+
+  /**
+   * ORDER BY ... LIMIT ... OFFSET is parsed and planned as a TopN
+   */
+  @Test public void parseOrderByLimit() throws Exception {
+    Parser p = new Parser();
+    OpIterator plan = p.generateLogicalPlan(tid,
+        "SELECT * FROM limit_t ORDER BY limit_t.c0 DESC LIMIT 7 OFFSET 3;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(contains(plan, TopN.class));
+    assertFalse(contains(plan, OrderBy.class));
+
+    List<Integer> keys = new ArrayList<>();
+    for (List<Integer> t : tuples)
+      keys.add(t.get(0));
+    keys.sort(Comparator.reverseOrder());
+    List<List<Integer>> result = read(plan);
+    assertEquals(7, result.size());
+    for (int i = 0; i < 7; i++)
+      assertEquals(keys.get(3 + i), result.get(i).get(0));
+  }
+
+  /**
+   * A B+ tree scan is already in key order: no sort, and Limit stops early
+   */
+  @Test public void parseLimitOnIndex() throws Exception {
+    List<List<Integer>> bt = new ArrayList<>();
+    BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 500, 1000, null, bt, 0);
+    File file = f.getFile();
+    Database.getCatalog().addTable(new BTreeFile(file, 0, Utility.getTupleDesc(2, "c")), "limit_bt");
+    Parser p = new Parser();
+    OpIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM limit_bt ORDER BY limit_bt.c0 LIMIT 4;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertFalse(contains(plan, TopN.class));
+    assertFalse(contains(plan, OrderBy.class));
+    assertTrue(contains(plan, Limit.class));
+
+    List<Integer> keys = new ArrayList<>();
+    for (List<Integer> t : bt)
+      keys.add(t.get(0));
+    keys.sort(Comparator.naturalOrder());
+    List<List<Integer>> result = read(plan);
+    assertEquals(4, result.size());
+    for (int i = 0; i < 4; i++)
+      assertEquals(keys.get(i), result.get(i).get(0));
+  }
+
+  @Test public void limitClause() throws Exception {
+    Parser.LimitClause l = Parser.LimitClause.find("SELECT * FROM t LIMIT 10 OFFSET 5;");
+    assertEquals(10, l.limit);
+    assertEquals(5, l.offset);
+    assertEquals("SELECT * FROM t;", Parser.LimitClause.strip("SELECT * FROM t LIMIT 10 OFFSET 5;"));
+    assertEquals(0, Parser.LimitClause.find("select * from t limit 3").offset);
+    assertEquals(null, Parser.LimitClause.find("SELECT * FROM t;"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
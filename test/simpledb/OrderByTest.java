@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.ExternalSort;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  TransactionId tid;
+  HeapFile table;
+  List<List<Integer>> tuples;
+
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    tuples = new ArrayList<>();
+    table = SystemTestUtil.createRandomHeapFile(2, 2000, 100, new HashMap<>(), tuples);
+  }
+
+  /** @return the values of field of every tuple of op, after rewinding it once */
+  private List<Integer> read(OrderBy op, int field) throws Exception {
+    List<Integer> values = new ArrayList<>();
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      values.clear();
+      if (pass > 0)
+        op.rewind();
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        values.add(((IntField) t.getField(field)).getValue());
+      }
+    }
+    return values;
+  }
+
+  private List<Integer> expected(int field, boolean asc) {
+    List<Integer> values = new ArrayList<>();
+    for (List<Integer> t : tuples)
+      values.add(t.get(field));
+    values.sort(asc ? Comparator.naturalOrder() : Comparator.reverseOrder());
+    return values;
+  }
+
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(1, false, new SeqScan(tid, table.getId(), "t"));
+    assertEquals(expected(1, false), read(op, 1));
+    assertFalse(op.hasSpilled());
+    op.close();
+  }
+
+  /**
+   * An input 40 times the memory budget is sorted in runs on disk, and rewind
+   * replays the merged runs
+   */
+  @Test public void spilled() throws Exception {
+    OrderBy op = new OrderBy(0, true, new SeqScan(tid, table.getId(), "t"), 50, 0);
+    assertEquals(expected(0, true), read(op, 0));
+    assertTrue(op.hasSpilled());
+    op.close();
+  }
+
+  @Test public void parallelRuns() throws Exception {
+    OrderBy op = new OrderBy(0, true, new SeqScan(tid, table.getId(), "t"), 50, 2);
+    assertEquals(expected(0, true), read(op, 0));
+    op.close();
+  }
+
+  /**
+   * Reopening sorts the child again rather than appending to the last sort
+   */
+  @Test public void reopen() throws Exception {
+    OrderBy op = new OrderBy(0, true, new SeqScan(tid, table.getId(), "t"),
+        ExternalSort.DEFAULT_MAX_TUPLES, 0);
+    read(op, 0);
+    op.close();
+    assertEquals(expected(0, true), read(op, 0));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageIoSchedulerTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private PageIoScheduler io;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        // 2 int columns fit 504 rows per page, so this is 4 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        io = new PageIoScheduler(2, 4);
+    }
+
+    /**
+     * Reads submitted out of order (and more than fit in the queue) return
+     * the same pages as HeapFile.readPage().
+     */
+    @Test
+    public void readPages() throws Exception {
+        List<CompletableFuture<Page>> reads = new ArrayList<>();
+        int[] order = {3, 1, 0, 2, 1, 3};
+        for (int pgNo : order) {
+            reads.add(io.submitRead(hf, new HeapPageId(hf.getId(), pgNo)));
+        }
+        for (int i = 0; i < order.length; i++) {
+            Page page = PageIoScheduler.await(reads.get(i));
+            HeapPageId pid = new HeapPageId(hf.getId(), order[i]);
+            assertEquals(pid, page.getId());
+            assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+        }
+        assertEquals(order.length, io.getReadLatency().getTotal());
+        assertEquals(0, io.getQueueDepth());
+        assertTrue(io.getMaxQueueDepth() >= 1);
+    }
+
+    /**
+     * A write is visible to a read submitted after it.
+     */
+    @Test
+    public void writeThenRead() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+
+        CompletableFuture<Page> write = io.submitWrite(hf, page);
+        CompletableFuture<Page> read = io.submitRead(hf, pid);
+        PageIoScheduler.await(write);
+        HeapPage reread = (HeapPage) PageIoScheduler.await(read);
+
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertEquals(1, io.getWriteLatency().getTotal());
+    }
+
+    /**
+     * A read or write that fails with an Error still completes its future
+     * and stops counting as pending.
+     */
+    @Test
+    public void failedRequests() throws Exception {
+        HeapFile broken = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            public List<Page> readPages(List<PageId> ids) {
+                throw new AssertionError("read failed");
+            }
+
+            @Override
+            public void writePages(List<Page> pages) {
+                throw new AssertionError("write failed");
+            }
+        };
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        List<CompletableFuture<Page>> requests = new ArrayList<>();
+        requests.add(io.submitRead(broken, pid));
+        requests.add(io.submitWrite(broken, hf.readPage(pid)));
+        for (CompletableFuture<Page> f : requests) {
+            try {
+                PageIoScheduler.await(f);
+                fail("expected the request to fail");
+            } catch (AssertionError e) {
+                assertTrue(e.getMessage().endsWith("failed"));
+            }
+        }
+        assertEquals(0, io.getQueueDepth());
+    }
+
+    /**
+     * Once a table id is released and handed to another file, pages read
+     * through the same buffer pool come from the new file.
+     */
+    @Test
+    public void recycledTableId() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] old = pool.getPage(tid, pid, Permissions.READ_ONLY).getPageData();
+        pool.transactionComplete(tid);
+        for (int i = 0; i < hf.numPages(); i++) {
+            pool.discardPage(new HeapPageId(hf.getId(), i));
+        }
+        Database.getCatalog().removeTable(hf.getId());
+        Catalog.releaseTableIdForFile(hf.getFile());
+
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        assertEquals(hf.getId(), other.getId());
+        tid = new TransactionId();
+        byte[] read = pool.getPage(tid, pid, Permissions.READ_ONLY).getPageData();
+        pool.transactionComplete(tid);
+        assertArrayEquals(other.readPage(pid).getPageData(), read);
+        assertFalse(Arrays.equals(old, read));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageIoSchedulerTest.class);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int BIG_PAGE = 4 * BufferPool.getPageSize();
+
+    private HeapFile small;
+    private HeapFile big;
+    private List<List<Integer>> tuples;
+
+    /**
+     * Set up a table using the default page size and one using pages four
+     * times as large, holding the same 5000 tuples.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        small = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BIG_PAGE, 2);
+        big = new HeapFile(f, Utility.getTupleDesc(2), BIG_PAGE);
+        Database.getCatalog().addTable(big, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Each file reads pages of its own size.
+     */
+    @Test
+    public void readPage() throws Exception {
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(small.getId()));
+        assertEquals(BIG_PAGE, Database.getCatalog().getPageSize(big.getId()));
+        assertEquals(10, small.numPages());
+        assertEquals(3, big.numPages());
+
+        HeapPage page = (HeapPage) big.readPage(new HeapPageId(big.getId(), 0));
+        assertEquals(BIG_PAGE, page.getPageData().length);
+        assertEquals(2016, page.getNumEmptySlots() + countTuples(page));
+    }
+
+    /**
+     * Both tables scan back the same tuples.
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(small, tuples);
+        SystemTestUtil.matchTuples(big, tuples);
+    }
+
+    /**
+     * A large page takes as many frames of the buffer pool as it needs.
+     */
+    @Test
+    public void bufferPoolFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(big.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(isCached(bp, tid, big, 0));
+
+        // the large page fills all four frames, so it must make way
+        bp.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        assertFalse(isCached(bp, tid, big, 0));
+
+        // while four default-size pages fit together
+        bp = Database.resetBufferPool(4);
+        for (int i = 0; i < 4; i++) {
+            bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue(isCached(bp, tid, small, i));
+        }
+    }
+
+    private static int countTuples(HeapPage page) {
+        int n = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /** Whether reading the page again leaves the file untouched. */
+    private static boolean isCached(BufferPool bp, TransactionId tid, HeapFile f, int pgNo)
+            throws Exception {
+        long before = bp.getIoScheduler().getReadLatency().getTotal();
+        bp.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+        long after = bp.getIoScheduler().getReadLatency().getTotal();
+        return before == after;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
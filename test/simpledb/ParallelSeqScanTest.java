@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 5000;
+
+  TransactionId tid;
+  HeapFile f;
+  List<List<Integer>> tuples;
+
+  /**
+   * Create a table spanning several morsels
+   */
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    tuples = new ArrayList<>();
+    f = SystemTestUtil.createRandomHeapFile(10, ROWS, new HashMap<>(), tuples);
+    assertTrue(f.numPages() > 2 * ParallelSeqScan.MORSEL_PAGES);
+  }
+
+  /**
+   * Unit test for ParallelSeqScan returning every tuple exactly once
+   */
+  @Test public void scan() throws Exception {
+    SystemTestUtil.matchTuples(new ParallelSeqScan(tid, f.getId(), "", 4), tuples);
+    SystemTestUtil.matchTuples(new ParallelSeqScan(tid, f.getId(), "", 1), tuples);
+  }
+
+  /**
+   * Unit test for ParallelSeqScan.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "", 4);
+    scan.open();
+    for (int i = 0; i < 100; i++) {
+      scan.next();
+    }
+    scan.rewind();
+    int count = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      count++;
+    }
+    assertEquals(ROWS, count);
+    scan.close();
+  }
+
+  /**
+   * Unit test for ParallelSeqScan.nextBatch()
+   */
+  @Test public void nextBatch() throws Exception {
+    ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "", 4);
+    scan.open();
+    int count = 0;
+    TupleBatch b;
+    while ((b = scan.nextBatch()) != null) {
+      count += b.numSelected();
+    }
+    assertEquals(ROWS, count);
+    scan.close();
+  }
+
+  /**
+   * Closing a scan that has not been read to the end stops its workers and
+   * leaves the transaction holding only locks on pages it read.
+   */
+  @Test public void closeEarly() throws Exception {
+    // a pool too small for the table makes the workers evict pages
+    Database.resetBufferPool(ParallelSeqScan.MORSEL_PAGES);
+    ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "", 4);
+    scan.open();
+    assertTrue(scan.hasNext());
+    scan.next();
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+
+    TransactionId tid2 = new TransactionId();
+    scan = new ParallelSeqScan(tid2, f.getId(), "", 4);
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      count++;
+    }
+    assertFalse(scan.hasNext());
+    assertEquals(ROWS, count);
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid2);
+  }
+
+  /** @return the rows of it, opened and closed here, sorted */
+  private static List<String> rows(OpIterator it) throws Exception {
+    List<String> result = new ArrayList<>();
+    it.open();
+    while (it.hasNext())
+      result.add(it.next().toString());
+    it.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /** @return scan, returning only the rows whose field 0 is below 20000 */
+  private SeqScan narrow(SeqScan scan) {
+    scan.pushDown(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20000)));
+    return scan;
+  }
+
+  /**
+   * A parallel scan returns the fields it was given of the rows that satisfy
+   * its pushed down predicates, a row or a batch at a time, and so do the
+   * parts of it
+   */
+  @Test public void columnsAndPredicates() throws Exception {
+    int[] columns = { 3, 1 };
+    List<String> expected = rows(narrow(new SeqScan(tid, f.getId(), "t", columns)));
+    assertTrue(expected.size() > 0 && expected.size() < ROWS);
+
+    SeqScan scan = narrow(new ParallelSeqScan(tid, f.getId(), "t", columns, 4));
+    assertEquals(2, scan.getTupleDesc().numFields());
+    assertEquals(expected, rows(scan));
+
+    scan.open();
+    List<String> batched = new ArrayList<>();
+    for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch()) {
+      assertEquals(2, b.getTupleDesc().numFields());
+      for (int i = 0; i < b.numSelected(); i++)
+        batched.add(b.getTuple(b.selection()[i]).toString());
+    }
+    scan.close();
+    Collections.sort(batched);
+    assertEquals(expected, batched);
+
+    // Aggregate.parallel scans the parts of the scan in threads of its own
+    Aggregate count = Aggregate.parallel(scan, 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT, 3);
+    assertEquals(Collections.singletonList(Integer.toString(expected.size())), rows(count));
+  }
+
+  /**
+   * A hash join hands the keys of its build side to a parallel scan on its
+   * probe side, which drops the rows that cannot match
+   */
+  @Test public void runtimeFilter() throws Exception {
+    HeapFile small = SystemTestUtil.createRandomHeapFile(2, 20, new HashMap<>(), new ArrayList<>());
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = rows(new HashEquiJoin(p, new SeqScan(tid, small.getId(), "l"),
+        new SeqScan(tid, f.getId(), "r")));
+
+    ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "r", 4);
+    HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, small.getId(), "l"), scan);
+    join.open();
+    assertTrue(scan.hasRuntimeFilter());
+    List<String> result = new ArrayList<>();
+    while (join.hasNext())
+      result.add(join.next().toString());
+    assertTrue(scan.runtimeFilteredRows() > 0);
+    join.close();
+    Collections.sort(result);
+    assertEquals(expected, result);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+  }
+}
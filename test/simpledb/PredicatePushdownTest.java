@@ -0,0 +1,207 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.SlotPredicate;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PredicatePushdownTest extends SimpleDbTestBase {
+
+  private List<List<Integer>> rows;
+  private HeapFile table;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    rows = new ArrayList<>();
+    table = SystemTestUtil.createRandomHeapFile(3, 3000, 100, new HashMap<>(), rows, "c");
+    tid = new TransactionId();
+  }
+
+  /** @return the rows that satisfy c1 &lt; 30 and c2 &gt;= 60, sorted */
+  private List<String> expected() {
+    List<String> result = new ArrayList<>();
+    for (List<Integer> row : rows)
+      if (row.get(1) < 30 && row.get(2) >= 60)
+        result.add(row.get(0) + "\t" + row.get(1) + "\t" + row.get(2));
+    Collections.sort(result);
+    return result;
+  }
+
+  /** @return the rows of an open iterator, sorted */
+  private static List<String> drain(OpIterator it) throws Exception {
+    List<String> result = new ArrayList<>();
+    while (it.hasNext())
+      result.add(it.next().toString());
+    Collections.sort(result);
+    return result;
+  }
+
+  private static void pushDown(SeqScan scan) {
+    scan.pushDown(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)));
+    scan.pushDown(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(60)));
+  }
+
+  /**
+   * A slot predicate tested against the bytes of a page agrees with the
+   * predicates tested against the decoded tuples, for INT and STRING fields
+   * and every operator
+   */
+  @Test public void slotPredicate() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    File f = File.createTempFile("pushdown", "dat");
+    f.deleteOnExit();
+    HeapFile file = new HeapFile(f, td);
+    Database.getCatalog().addTable(file, "pushdown_strings");
+    HeapPageId pid = new HeapPageId(file.getId(), 0);
+    HeapPage written = new HeapPage(pid, HeapPage.createEmptyPageData());
+    String[] strings = { "", "a", "ab", "abc", "b", "ba", "zz", "été" };
+    for (int i = 0; i < 20; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i - 10));
+      t.setField(1, new StringField(strings[i % strings.length], Type.STRING_LEN));
+      written.insertTuple(t);
+    }
+    byte[] data = written.getPageData();
+    // a page that has not been decoded is written as it was read
+    assertTrue(Arrays.equals(data, new HeapPage(pid, data).getPageData()));
+
+    Field[] constants = { new IntField(0), new IntField(-10), new IntField(9),
+        new StringField("", Type.STRING_LEN), new StringField("ab", Type.STRING_LEN),
+        new StringField("b", Type.STRING_LEN), new StringField("été", Type.STRING_LEN) };
+    for (Field c : constants) {
+      for (Predicate.Op op : Predicate.Op.values()) {
+        Predicate p = new Predicate(c.getType() == Type.INT_TYPE ? 0 : 1, op, c);
+        SlotPredicate sp = new SlotPredicate(td, p);
+        HeapPage decoded = new HeapPage(pid, data);
+        HeapPage raw = new HeapPage(pid, data);
+        for (int i = 0; i < decoded.getNumSlots(); i++) {
+          Tuple t = decoded.getTuple(i);
+          Tuple matched = raw.getTuple(i, sp);
+          String msg = op + " " + c + " on " + t;
+          if (t == null || !p.filter(t)) {
+            assertEquals(msg, null, matched);
+          } else {
+            assertEquals(msg, t.toString(), matched.toString());
+            assertEquals(msg, t.getRecordId(), matched.getRecordId());
+          }
+        }
+        // once decoded, the page tests its tuples
+        Tuple first = raw.getTuple(0);
+        assertEquals(p.filter(first), raw.getTuple(0, sp) == first);
+      }
+    }
+  }
+
+  /** A scan returns only the rows that satisfy its pushed down predicates */
+  @Test public void scan() throws Exception {
+    SeqScan scan = new SeqScan(tid, table.getId());
+    pushDown(scan);
+    assertEquals(2, scan.getPushedPredicates().size());
+    scan.open();
+    assertEquals(expected(), drain(scan));
+
+    scan.rewind();
+    List<String> result = new ArrayList<>();
+    for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch())
+      for (int i = 0; i < b.numSelected(); i++)
+        result.add(b.getTuple(b.selection()[i]).toString());
+    scan.close();
+    Collections.sort(result);
+    assertEquals(expected(), result);
+  }
+
+  /**
+   * The predicates of a narrow scan may test fields it does not return, and
+   * a parallel scan tests them in each of its threads
+   */
+  @Test public void narrowAndParallel() throws Exception {
+    SeqScan narrow = new SeqScan(tid, table.getId(), "t", new int[] { 0 });
+    pushDown(narrow);
+    narrow.open();
+    List<String> result = drain(narrow);
+    narrow.close();
+    List<String> firsts = new ArrayList<>();
+    for (String row : expected())
+      firsts.add(row.split("\t")[0]);
+    Collections.sort(firsts);
+    assertEquals(firsts, result);
+
+    SeqScan parallel = new ParallelSeqScan(tid, table.getId(), "t", 2);
+    pushDown(parallel);
+    parallel.open();
+    assertEquals(expected(), drain(parallel));
+    parallel.close();
+  }
+
+  /** @return true if op or an operator below it is a Filter */
+  private static boolean hasFilter(OpIterator op) {
+    if (op instanceof Filter)
+      return true;
+    if (op instanceof Operator)
+      for (OpIterator child : ((Operator) op).getChildren())
+        if (hasFilter(child))
+          return true;
+    return false;
+  }
+
+  /**
+   * The planner pushes the filters of a query over a heap file down into
+   * its scan
+   */
+  @Test public void parsed() throws Exception {
+    Database.getCatalog().addTable(table, "pushdown_t");
+    TableStats.setTableStats("pushdown_t", new TableStats(table.getId(), 1));
+    OpIterator plan = new Parser().generateLogicalPlan(tid,
+        "SELECT * FROM pushdown_t WHERE pushdown_t.c1 < 30 AND pushdown_t.c2 >= 60;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertFalse(hasFilter(plan));
+    plan.open();
+    assertEquals(expected(), drain(plan));
+    plan.close();
+
+    String tree = new QueryPlanVisualizer().getQueryPlanTree(plan);
+    assertTrue(tree, tree.contains("pushdown_t.c1<30"));
+    assertTrue(tree, tree.contains("pushdown_t.c2>=60"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PredicatePushdownTest.class);
+  }
+}
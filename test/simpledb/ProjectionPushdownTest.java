@@ -0,0 +1,199 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ProjectionPushdownTest extends SimpleDbTestBase {
+
+  private List<List<Integer>> rows;
+  private HeapFile table;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    rows = new ArrayList<>();
+    table = SystemTestUtil.createRandomHeapFile(5, 2000, 50, new HashMap<>(), rows, "c");
+    tid = new TransactionId();
+  }
+
+  /** @return the given fields of each row, sorted */
+  private static List<String> project(List<List<Integer>> rows, int... fields) {
+    List<String> result = new ArrayList<>();
+    for (List<Integer> row : rows) {
+      StringBuilder sb = new StringBuilder();
+      for (int f : fields)
+        sb.append(sb.length() == 0 ? "" : "\t").append(row.get(f));
+      result.add(sb.toString());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /** @return the rows of an open iterator, sorted */
+  private static List<String> drain(OpIterator it) throws Exception {
+    List<String> result = new ArrayList<>();
+    while (it.hasNext())
+      result.add(it.next().toString());
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * A scan returns only the fields it was given, in that order, and keeps
+   * the record id of each row
+   */
+  @Test public void scan() throws Exception {
+    SeqScan scan = new SeqScan(tid, table.getId(), "t", new int[] { 3, 1 });
+    TupleDesc td = scan.getTupleDesc();
+    assertEquals(2, td.numFields());
+    assertEquals("t.c3", td.getFieldName(0));
+    assertEquals("t.c1", td.getFieldName(1));
+    assertArrayEquals(new int[] { 3, 1 }, scan.getColumns());
+    assertNull(new SeqScan(tid, table.getId()).getColumns());
+
+    scan.open();
+    List<String> result = new ArrayList<>();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      result.add(t.toString());
+      // the other fields can still be fetched through the record id
+      RecordId rid = t.getRecordId();
+      assertNotNull(rid);
+      HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+      assertEquals(t.getField(0), page.getTuple(rid.getTupleNumber()).getField(3));
+    }
+    Collections.sort(result);
+    assertEquals(project(rows, 3, 1), result);
+
+    // and so does a batch at a time
+    scan.rewind();
+    result.clear();
+    for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch()) {
+      assertEquals(2, b.getTupleDesc().numFields());
+      for (int i = 0; i < b.numSelected(); i++) {
+        int row = b.selection()[i];
+        assertNotNull(b.getRecordId(row));
+        result.add(b.getField(0, row) + "\t" + b.getField(1, row));
+      }
+    }
+    scan.close();
+    Collections.sort(result);
+    assertEquals(project(rows, 3, 1), result);
+  }
+
+  /**
+   * The runtime filter a hash join pushes into a narrow scan tests the
+   * join field among those the scan returns
+   */
+  @Test public void runtimeFilter() throws Exception {
+    List<List<Integer>> leftRows = new ArrayList<>();
+    HeapFile left = SystemTestUtil.createRandomHeapFile(2, 30, 50, new HashMap<>(), leftRows);
+    HashEquiJoin full = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 2),
+        new SeqScan(tid, left.getId()), new SeqScan(tid, table.getId()));
+    full.open();
+    List<String> expected = new ArrayList<>();
+    while (full.hasNext()) {
+      Tuple t = full.next();
+      expected.add(t.getField(0) + "\t" + t.getField(1) + "\t" + t.getField(6) + "\t" + t.getField(4));
+    }
+    full.close();
+    Collections.sort(expected);
+
+    SeqScan narrow = new SeqScan(tid, table.getId(), "t", new int[] { 4, 2 });
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        new SeqScan(tid, left.getId()), narrow);
+    join.open();
+    assertEquals(expected, drain(join));
+    join.close();
+  }
+
+  /** @return the scan of alias below op */
+  private static SeqScan findScan(OpIterator op, String alias) {
+    if (op instanceof SeqScan)
+      return alias.equals(((SeqScan) op).getAlias()) ? (SeqScan) op : null;
+    if (op instanceof Operator)
+      for (OpIterator child : ((Operator) op).getChildren()) {
+        SeqScan s = findScan(child, alias);
+        if (s != null)
+          return s;
+      }
+    return null;
+  }
+
+  /**
+   * The planner scans only the fields that a query's joins and select list
+   * refer to
+   */
+  @Test public void parsed() throws Exception {
+    List<List<Integer>> otherRows = new ArrayList<>();
+    HeapFile other = SystemTestUtil.createRandomHeapFile(4, 300, 50, new HashMap<>(), otherRows, "d");
+    Database.getCatalog().addTable(table, "pp_a");
+    Database.getCatalog().addTable(other, "pp_b");
+    TableStats.setTableStats("pp_a", new TableStats(table.getId(), 1));
+    TableStats.setTableStats("pp_b", new TableStats(other.getId(), 1));
+
+    OpIterator plan = new Parser().generateLogicalPlan(tid,
+        "SELECT pp_a.c1, pp_b.d3 FROM pp_a, pp_b WHERE pp_a.c0 = pp_b.d0 AND pp_a.c2 < 10;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    // pp_a.c2 is tested by the scan before it narrows the rows
+    assertArrayEquals(new int[] { 0, 1 }, findScan(plan, "pp_a").getColumns());
+    assertArrayEquals(new int[] { 0, 3 }, findScan(plan, "pp_b").getColumns());
+
+    Map<Integer, List<Integer>> byKey = new HashMap<>();
+    for (List<Integer> row : otherRows)
+      byKey.computeIfAbsent(row.get(0), k -> new ArrayList<>()).add(row.get(3));
+    List<String> expected = new ArrayList<>();
+    for (List<Integer> row : rows)
+      if (row.get(2) < 10)
+        for (int d3 : byKey.getOrDefault(row.get(0), Collections.emptyList()))
+          expected.add(row.get(1) + "\t" + d3);
+    Collections.sort(expected);
+    plan.open();
+    assertEquals(expected, drain(plan));
+    plan.close();
+
+    // a * needs every field
+    plan = new Parser().generateLogicalPlan(tid,
+        "SELECT * FROM pp_a, pp_b WHERE pp_a.c0 = pp_b.d0;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertNull(findScan(plan, "pp_a").getColumns());
+    assertNull(findScan(plan, "pp_b").getColumns());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ProjectionPushdownTest.class);
+  }
+}
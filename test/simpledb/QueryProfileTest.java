@@ -0,0 +1,171 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.ProfiledOpIterator;
+import simpledb.execution.Query;
+import simpledb.execution.QueryProfile;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class QueryProfileTest extends SimpleDbTestBase {
+
+  private List<List<Integer>> leftRows, rightRows;
+  private HeapFile left, right;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    leftRows = new ArrayList<>();
+    rightRows = new ArrayList<>();
+    left = SystemTestUtil.createRandomHeapFile(2, 300, 100, new HashMap<>(), leftRows);
+    right = SystemTestUtil.createRandomHeapFile(2, 2000, 100, new HashMap<>(), rightRows);
+    tid = new TransactionId();
+  }
+
+  /** @return the rows of an open iterator, sorted */
+  private static List<String> drain(OpIterator it) throws Exception {
+    List<String> rows = new ArrayList<>();
+    while (it.hasNext())
+      rows.add(it.next().toString());
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /** SELECT * FROM left, right WHERE left.c0 = right.c0 AND left.c1 &lt; 50 */
+  private HashEquiJoin plan(SeqScan leftScan, SeqScan rightScan) {
+    Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)), leftScan);
+    return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), filter, rightScan);
+  }
+
+  /**
+   * Each operator of a profiled plan reports the rows it returned, and the
+   * plan returns the same rows as without profiling
+   */
+  @Test public void rows() throws Exception {
+    OpIterator unprofiled = plan(new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+    unprofiled.open();
+    List<String> expected = drain(unprofiled);
+    unprofiled.close();
+
+    SeqScan leftScan = new SeqScan(tid, left.getId());
+    SeqScan rightScan = new SeqScan(tid, right.getId());
+    HashEquiJoin join = plan(leftScan, rightScan);
+    OpIterator filter = join.getChildren()[0];
+    Query q = new Query(join, tid);
+    q.setProfiled(true);
+    q.start();
+    List<String> actual = drain(q.getProfile().root());
+    q.close();
+    assertEquals(expected, actual);
+
+    QueryProfile profile = q.getProfile();
+    int matching = 0;
+    for (List<Integer> l : leftRows)
+      if (l.get(1) < 50)
+        matching++;
+    assertEquals(expected.size(), profile.get(join).getRows());
+    assertEquals(matching, profile.get(filter).getRows());
+    assertEquals(leftRows.size(), profile.get(leftScan).getRows());
+    // the runtime filter of the join still reaches the scan below it, which
+    // may then return fewer rows than the table has
+    assertTrue(profile.get(rightScan).getRows() <= rightRows.size());
+
+    for (OpIterator op : new OpIterator[] { join, filter, leftScan, rightScan }) {
+      ProfiledOpIterator p = profile.get(op);
+      assertEquals(1, p.getOpens());
+      assertTrue(p.getNextSelfNanos() >= 0);
+      assertTrue(p.getNextSelfNanos() <= p.getNextNanos());
+      assertTrue(p.getOpenSelfNanos() <= p.getOpenNanos());
+    }
+    // the join's own time excludes that of its children
+    ProfiledOpIterator j = profile.get(join);
+    assertTrue(j.getOpenNanos() + j.getNextNanos() >= j.getOpenSelfNanos() + j.getNextSelfNanos()
+        + profile.get(filter).getOpenNanos() + profile.get(filter).getNextNanos());
+
+    // the wrappers are taken out again
+    assertSame(filter, join.getChildren()[0]);
+    assertSame(rightScan, join.getChildren()[1]);
+    assertSame(leftScan, ((Filter) filter).getChildren()[0]);
+    assertTrue(profile.peakHeapBytes() > 0);
+  }
+
+  /** Pages are charged to the scans that request them */
+  @Test public void pages() throws Exception {
+    Database.resetBufferPool(left.numPages() + right.numPages() + 10);
+    SeqScan leftScan = new SeqScan(tid, left.getId());
+    SeqScan rightScan = new SeqScan(tid, right.getId());
+    HashEquiJoin join = plan(leftScan, rightScan);
+    Query q = new Query(join, tid);
+    q.setProfiled(true);
+    q.start();
+    drain(q.getProfile().root());
+    q.close();
+
+    QueryProfile profile = q.getProfile();
+    assertEquals(left.numPages(), profile.get(leftScan).getPageMisses());
+    assertEquals(right.numPages(), profile.get(rightScan).getPageMisses());
+    assertEquals(0, profile.get(join).getPageMisses() + profile.get(join).getPageHits());
+    OpIterator filter = join.getChildren()[0];
+    assertEquals(0, profile.get(filter).getPageMisses() + profile.get(filter).getPageHits());
+  }
+
+  /**
+   * The plan tree shows the actual rows next to the estimates, and an
+   * Aggregate is not fused with the scan below it so that the scan's rows
+   * are counted
+   */
+  @Test public void visualize() throws Exception {
+    SeqScan scan = new SeqScan(tid, right.getId());
+    Aggregate agg = new Aggregate(scan, 1, 0, Aggregator.Op.SUM);
+    Query q = new Query(agg, tid);
+    q.setProfiled(true);
+    q.start();
+    int groups = drain(q.getProfile().root()).size();
+    assertFalse(agg.isFused());
+    q.close();
+
+    String tree = new QueryPlanVisualizer().getQueryPlanTree(q.getProfile());
+    assertTrue(tree, tree.contains(",rows:" + groups + ","));
+    assertTrue(tree, tree.contains(",rows:" + rightRows.size() + ","));
+    // without a profile, only the estimates are shown
+    assertFalse(new QueryPlanVisualizer().getQueryPlanTree(agg).contains("rows:"));
+
+    Query plain = new Query(agg, tid);
+    plain.start();
+    plain.close();
+    assertNull(plain.getProfile());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(QueryProfileTest.class);
+  }
+}
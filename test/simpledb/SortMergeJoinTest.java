@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.execution.ExternalSort;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  TransactionId tid;
+  HeapFile left;
+  HeapFile right;
+  List<List<Integer>> leftTuples;
+  List<List<Integer>> rightTuples;
+
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    leftTuples = new ArrayList<>();
+    rightTuples = new ArrayList<>();
+    // few distinct keys, so that every key has a run of duplicates
+    left = SystemTestUtil.createRandomHeapFile(2, 150, 40, new HashMap<>(), leftTuples);
+    right = SystemTestUtil.createRandomHeapFile(2, 100, 40, new HashMap<>(), rightTuples);
+  }
+
+  /** @return the tuples of the join of l and r on l.0 op r.1, computed naively */
+  private static List<List<Integer>> join(List<List<Integer>> l, Predicate.Op op,
+                                          List<List<Integer>> r) {
+    List<List<Integer>> result = new ArrayList<>();
+    for (List<Integer> a : l) {
+      for (List<Integer> b : r) {
+        if (new IntField(a.get(0)).compare(op, new IntField(b.get(1)))) {
+          List<Integer> t = new ArrayList<>(a);
+          t.addAll(b);
+          result.add(t);
+        }
+      }
+    }
+    return result;
+  }
+
+  private OpIterator scan(HeapFile f, String alias) {
+    return new SeqScan(tid, f.getId(), alias);
+  }
+
+  /**
+   * Every operator but LIKE, on unsorted inputs sorted in memory
+   */
+  @Test public void allOps() throws Exception {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      if (op == Predicate.Op.LIKE)
+        continue;
+      SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, op, 1),
+          scan(left, "l"), scan(right, "r"));
+      SystemTestUtil.matchTuples(j, join(leftTuples, op, rightTuples));
+    }
+  }
+
+  /**
+   * Inputs bigger than the sort memory budget are sorted through disk
+   */
+  @Test public void spilledSort() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ }) {
+      SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, op, 1),
+          scan(left, "l"), scan(right, "r"), false, false, 7);
+      SystemTestUtil.matchTuples(j, join(leftTuples, op, rightTuples));
+    }
+  }
+
+  /**
+   * Inputs flagged as sorted are read without sorting them again
+   */
+  @Test public void sortedInputs() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN_OR_EQ,
+        Predicate.Op.LESS_THAN }) {
+      SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, op, 1),
+          new OrderBy(0, true, scan(left, "l")), new OrderBy(1, true, scan(right, "r")),
+          true, true, ExternalSort.DEFAULT_MAX_TUPLES);
+      SystemTestUtil.matchTuples(j, join(leftTuples, op, rightTuples));
+    }
+  }
+
+  /**
+   * The sorted inner input of an inequality join is read once, not once per
+   * outer tuple
+   */
+  @Test public void innerReadOnce() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.GREATER_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.NOT_EQUALS }) {
+      final int[] rewinds = { 0 };
+      OpIterator[] sorted = new OpIterator[2];
+      for (int i = 0; i < 2; i++) {
+        sorted[i] = new OrderBy(i, true, scan(i == 0 ? left : right, i == 0 ? "l" : "r")) {
+          private static final long serialVersionUID = 1L;
+
+          public void rewind() throws DbException, TransactionAbortedException {
+            rewinds[0]++;
+            super.rewind();
+          }
+        };
+      }
+      SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, op, 1), sorted[0], sorted[1],
+          true, true, ExternalSort.DEFAULT_MAX_TUPLES);
+      SystemTestUtil.matchTuples(j, join(leftTuples, op, rightTuples));
+      assertEquals(op.toString(), 0, rewinds[0]);
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    SortMergeJoin op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        scan(left, "l"), scan(right, "r"), false, false, 7);
+    int expected = join(leftTuples, Predicate.Op.EQUALS, rightTuples).size();
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertEquals(expected, n);
+    op.rewind();
+    n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertEquals(expected, n);
+    op.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void like() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LIKE, 1), scan(left, "l"), scan(right, "r"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import simpledb.common.Type;
 import simpledb.execution.Aggregator;
+import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
 import simpledb.execution.StringAggregator;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -109,6 +110,51 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test grouping on a string field with enough groups for the group table to
+   * grow several times
+   */
+  @Test public void manyStringGroups() throws Exception {
+    checkManyStringGroups(IntegerAggregator.DEFAULT_MAX_GROUPS, false);
+  }
+
+  /**
+   * Test grouping on a string field with a memory budget of a fraction of
+   * the groups
+   */
+  @Test public void spill() throws Exception {
+    checkManyStringGroups(100, true);
+  }
+
+  private void checkManyStringGroups(int maxGroups, boolean spills) throws Exception {
+    int rows = 20000;
+    Object[] data = new Object[rows * 2];
+    Map<String, Integer> expected = new HashMap<>();
+    Random r = new Random(42);
+    for (int i = 0; i < rows; i++) {
+      String key = "g" + r.nextInt(5000);
+      data[2 * i] = i;
+      data[2 * i + 1] = key;
+      expected.merge(key, 1, Integer::sum);
+    }
+    StringAggregator agg = new StringAggregator(1, Type.STRING_TYPE, 1, Aggregator.Op.COUNT, maxGroups);
+    OpIterator input = TestUtil.createTupleList(2, data);
+    input.open();
+    while (input.hasNext())
+      agg.mergeTupleIntoGroup(input.next());
+    input.close();
+    assertEquals(spills, agg.hasSpilled());
+
+    Set<String> result = new HashSet<>();
+    for (Map.Entry<String, Integer> e : expected.entrySet()) {
+      result.add(e.getKey() + "\t" + e.getValue());
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    assertEquals(result, IntegerAggregatorTest.drain(it));
+    it.close();
+  }
+
   /**
    * JUnit suite target
    */
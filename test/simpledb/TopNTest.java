@@ -0,0 +1,81 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  TransactionId tid;
+  HeapFile table;
+
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    // few distinct keys, so that ties must be broken as OrderBy does
+    table = SystemTestUtil.createRandomHeapFile(2, 1000, 50, new HashMap<>(), new ArrayList<>());
+  }
+
+  /** @return at most n tuples of op, as lists of values */
+  private static List<List<Integer>> read(OpIterator op, int n) throws Exception {
+    List<List<Integer>> result = new ArrayList<>();
+    op.open();
+    while (op.hasNext() && result.size() < n)
+      result.add(SystemTestUtil.tupleToList(op.next()));
+    op.close();
+    return result;
+  }
+
+  /**
+   * TopN returns the first n tuples OrderBy returns, in the same order
+   */
+  @Test public void sameAsOrderBy() throws Exception {
+    for (boolean asc : new boolean[] { true, false }) {
+      for (int n : new int[] { 0, 1, 10, 999, 1000, 5000 }) {
+        List<List<Integer>> expected = read(new OrderBy(0, asc, new SeqScan(tid, table.getId())), n);
+        List<List<Integer>> actual = read(new TopN(0, asc, n, new SeqScan(tid, table.getId())),
+            Integer.MAX_VALUE);
+        assertEquals(expected, actual);
+      }
+    }
+  }
+
+  /**
+   * Unit test for TopN.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    TopN op = new TopN(1, true, 20, new SeqScan(tid, table.getId()));
+    op.open();
+    List<List<Integer>> first = new ArrayList<>();
+    while (op.hasNext())
+      first.add(SystemTestUtil.tupleToList(op.next()));
+    op.rewind();
+    List<List<Integer>> second = new ArrayList<>();
+    while (op.hasNext())
+      second.add(SystemTestUtil.tupleToList(op.next()));
+    op.close();
+    assertEquals(20, first.size());
+    assertEquals(first, second);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
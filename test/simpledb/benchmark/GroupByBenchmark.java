@@ -0,0 +1,100 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregator;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.StringAggregator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * Times GROUP BY throughput of {@link IntegerAggregator} (SUM and AVG over
+ * an INT_TYPE key) and {@link StringAggregator} (COUNT over a STRING_TYPE
+ * key) for a range of numbers of groups, and prints the rows aggregated per
+ * second. The input is built in memory beforehand so that only the
+ * aggregators are timed.
+ * <p>
+ * Usage: java simpledb.benchmark.GroupByBenchmark [rows] [runs]
+ */
+public class GroupByBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        for (int groups : new int[] { 10, 1000, 100000 }) {
+            Tuple[] ints = intTuples(rows, groups);
+            Tuple[] strings = stringTuples(rows, groups);
+            for (int i = 0; i < runs; i++) {
+                double sum = rate(rows, () -> run(
+                        new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM), ints));
+                double avg = rate(rows, () -> run(
+                        new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG), ints));
+                double count = rate(rows, () -> run(
+                        new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT), strings));
+                System.out.printf("%d groups, run %d: int SUM %.2fM rows/s, int AVG %.2fM rows/s,"
+                        + " string COUNT %.2fM rows/s%n", groups, i, sum / 1e6, avg / 1e6, count / 1e6);
+            }
+        }
+    }
+
+    private static Tuple[] intTuples(int rows, int groups) {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+        Random r = new Random(1);
+        Tuple[] tuples = new Tuple[rows];
+        for (int i = 0; i < rows; i++) {
+            tuples[i] = new Tuple(td);
+            tuples[i].setField(0, new IntField(r.nextInt(groups)));
+            tuples[i].setField(1, new IntField(r.nextInt(100000)));
+        }
+        return tuples;
+    }
+
+    private static Tuple[] stringTuples(int rows, int groups) {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.STRING_TYPE });
+        Random r = new Random(1);
+        StringField[] keys = new StringField[groups];
+        for (int i = 0; i < groups; i++) {
+            keys[i] = new StringField("group-" + i, Type.STRING_LEN);
+        }
+        StringField value = new StringField("x", Type.STRING_LEN);
+        Tuple[] tuples = new Tuple[rows];
+        for (int i = 0; i < rows; i++) {
+            tuples[i] = new Tuple(td);
+            // a new field per row, as a scan would produce
+            tuples[i].setField(0, new StringField(keys[r.nextInt(groups)].getValue(), Type.STRING_LEN));
+            tuples[i].setField(1, value);
+        }
+        return tuples;
+    }
+
+    private static int run(Aggregator agg, Tuple[] input) throws Exception {
+        for (Tuple t : input) {
+            agg.mergeTupleIntoGroup(t);
+        }
+        int n = 0;
+        OpIterator groups = agg.iterator();
+        groups.open();
+        while (groups.hasNext()) {
+            groups.next();
+            n++;
+        }
+        groups.close();
+        return n;
+    }
+
+    private interface Run {
+        int run() throws Exception;
+    }
+
+    private static double rate(int rows, Run r) throws Exception {
+        long start = System.nanoTime();
+        r.run();
+        return rows * 1e9 / (System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times HashEquiJoin with a left (build) side that fits in memory and with
+ * left sides 10 to 100 times its memory budget, and prints the cost per
+ * input row.
+ * <p>
+ * Usage: java simpledb.benchmark.HashJoinBenchmark [leftRows] [rightRows]
+ */
+public class HashJoinBenchmark {
+
+    private static final int[] RATIOS = { 1, 10, 30, 100 };
+
+    public static void main(String[] args) throws Exception {
+        int leftRows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rightRows = args.length > 1 ? Integer.parseInt(args[1]) : 400000;
+
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, leftRows, leftRows,
+                new HashMap<>(), new ArrayList<>());
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, rightRows, leftRows,
+                new HashMap<>(), new ArrayList<>());
+        Database.resetBufferPool(left.numPages() + right.numPages() + 16);
+        TransactionId tid = new TransactionId();
+
+        // warm up the buffer pool and the JIT
+        run(tid, left, right, leftRows);
+        for (int ratio : RATIOS) {
+            int budget = Math.max(1, leftRows / ratio);
+            long best = Long.MAX_VALUE;
+            long rows = 0;
+            for (int i = 0; i < 3; i++) {
+                long start = System.nanoTime();
+                rows = run(tid, left, right, budget);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("left = %3dx budget (%7d tuples): %8.1f ns/input row, %d result rows%n",
+                    ratio, budget, (double) best / (leftRows + rightRows), rows);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static long run(TransactionId tid, HeapFile left, HeapFile right, int budget)
+            throws Exception {
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"), budget);
+        long n = 0;
+        join.open();
+        TupleBatch b;
+        while ((b = join.nextBatch()) != null) {
+            n += b.numSelected();
+        }
+        join.close();
+        return n;
+    }
+}
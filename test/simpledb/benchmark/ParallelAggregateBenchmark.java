@@ -0,0 +1,82 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times SELECT c0, AVG(c1) FROM t GROUP BY c0 with a single Aggregate over a
+ * SeqScan and with {@link Aggregate#parallel} over a ParallelSeqScan at
+ * increasing numbers of threads, and prints the rows aggregated per second.
+ * The whole table is kept in the buffer pool, so the rates show CPU scaling.
+ * <p>
+ * Usage: java simpledb.benchmark.ParallelAggregateBenchmark [rows] [groups] [maxThreads]
+ */
+public class ParallelAggregateBenchmark {
+
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, groups,
+                new HashMap<>(), new ArrayList<>());
+        Database.resetBufferPool(f.numPages() + 16);
+        System.out.printf("%d rows, %d groups, %d pages%n", rows, groups, f.numPages());
+
+        // warm up the buffer pool and the JIT
+        for (int i = 0; i < RUNS; i++) {
+            run(serial(f));
+            run(parallel(f, 2));
+        }
+        time("Aggregate", () -> serial(f), rows);
+        for (int w = 1; w <= maxThreads; w *= 2) {
+            final int threads = w;
+            time("Aggregate.parallel x" + w, () -> parallel(f, threads), rows);
+        }
+    }
+
+    private static OpIterator serial(HeapFile f) {
+        return new Aggregate(new SeqScan(new TransactionId(), f.getId(), "t"),
+                1, 0, Aggregator.Op.AVG);
+    }
+
+    private static OpIterator parallel(HeapFile f, int threads) {
+        return Aggregate.parallel(new ParallelSeqScan(new TransactionId(), f.getId(), "t", threads),
+                1, 0, Aggregator.Op.AVG, threads);
+    }
+
+    private static int run(OpIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private static void time(String name, Supplier<OpIterator> plan, int rows) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            run(plan.get());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-24s %8.2f Mrows/s%n", name, rows * 1000.0 / best);
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times a full scan of a table with SeqScan and with ParallelSeqScan at
+ * increasing numbers of workers, and prints the scan rate of each.
+ * <p>
+ * Usage: java simpledb.benchmark.ParallelScanBenchmark [rows] [maxWorkers] [cached]
+ * <p>
+ * If cached is true the whole table fits in the buffer pool and the first
+ * scan warms it, so the rates show CPU scaling; otherwise every scan reads
+ * the table from the file.
+ */
+public class ParallelScanBenchmark {
+
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int maxWorkers = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        boolean cached = args.length <= 2 || Boolean.parseBoolean(args[2]);
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, rows,
+                new HashMap<>(), new ArrayList<>());
+        int poolPages = cached ? f.numPages() + 16 : 64;
+        System.out.printf("%d rows, %d pages%n", rows, f.numPages());
+
+        Database.resetBufferPool(poolPages);
+        // warm up the buffer pool and the JIT for both operators
+        for (int i = 0; i < RUNS; i++) {
+            scan(new SeqScan(new TransactionId(), f.getId(), "t"));
+            scan(new ParallelSeqScan(new TransactionId(), f.getId(), "t", 1));
+        }
+        time("SeqScan", () -> new SeqScan(new TransactionId(), f.getId(), "t"),
+                rows, cached, poolPages);
+        for (int w = 1; w <= maxWorkers; w *= 2) {
+            final int workers = w;
+            time("ParallelSeqScan x" + w,
+                    () -> new ParallelSeqScan(new TransactionId(), f.getId(), "t", workers),
+                    rows, cached, poolPages);
+        }
+    }
+
+    private static int scan(OpIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** Prints the best rate of RUNS scans by operators made by plan. */
+    private static void time(String name, Supplier<OpIterator> plan, int rows,
+            boolean cached, int poolPages) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            if (!cached) {
+                Database.resetBufferPool(poolPages);
+            }
+            long start = System.nanoTime();
+            int n = scan(plan.get());
+            best = Math.min(best, System.nanoTime() - start);
+            if (n != rows) {
+                throw new IllegalStateException(name + " returned " + n + " rows");
+            }
+        }
+        System.out.printf("%-20s %8.2f Mrows/s%n", name, rows * 1000.0 / best);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times aggregate queries over a table of four random int columns, as in the
+ * aggregate and filter system tests, with the Aggregate reading its child
+ * through the operators and with the child fused into one loop over the
+ * pages of the table. It prints the rows read per second for each query.
+ * The table is kept in the buffer pool, so the rates show the CPU cost of
+ * the plans.
+ * <p>
+ * Usage: java simpledb.benchmark.PipelineBenchmark [rows]
+ */
+public class PipelineBenchmark {
+
+    private static final int RUNS = 5;
+
+    private interface Plan {
+        Aggregate build(SeqScan scan);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, rows, 1000,
+                new HashMap<>(), new ArrayList<>());
+        Database.resetBufferPool(table.numPages() + 16);
+        TransactionId tid = new TransactionId();
+        System.out.printf("%d rows%n", rows);
+
+        String[] names = {
+                "SELECT SUM(c1)",
+                "SELECT c0, SUM(c1) GROUP BY c0",
+                "SELECT c0, AVG(c1) WHERE c2 < 100 GROUP BY c0",
+                "SELECT c0, MIN(c1), MAX(c1), COUNT(c1) WHERE c2 >= 100 AND c3 < 900 GROUP BY c0",
+                "SELECT c3, SUM(c1) FROM (SELECT c3, c1 WHERE c2 < 500) GROUP BY c3" };
+        Plan[] plans = {
+                scan -> new Aggregate(scan, 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM),
+                scan -> new Aggregate(scan, 1, 0, Aggregator.Op.SUM),
+                scan -> new Aggregate(lessThan(2, 100, scan), 1, 0, Aggregator.Op.AVG),
+                scan -> new Aggregate(lessThan(3, 900,
+                        new Filter(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)), scan)),
+                        new int[] { 1, 1, 1 },
+                        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.COUNT }, 0),
+                scan -> new Aggregate(new Project(Arrays.asList(3, 1),
+                        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, lessThan(2, 500, scan)),
+                        1, 0, Aggregator.Op.SUM) };
+
+        // warm up the buffer pool and the JIT
+        for (int i = 0; i < RUNS; i++) {
+            for (Plan plan : plans) {
+                run(plan.build(new SeqScan(tid, table.getId())), true);
+                run(plan.build(new SeqScan(tid, table.getId())), false);
+            }
+        }
+        for (int q = 0; q < plans.length; q++) {
+            long fused = Long.MAX_VALUE, interpreted = Long.MAX_VALUE;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                int groups = run(plans[q].build(new SeqScan(tid, table.getId())), false);
+                interpreted = Math.min(interpreted, System.nanoTime() - start);
+                start = System.nanoTime();
+                if (run(plans[q].build(new SeqScan(tid, table.getId())), true) != groups) {
+                    throw new IllegalStateException("fused plan returned other groups");
+                }
+                fused = Math.min(fused, System.nanoTime() - start);
+            }
+            System.out.printf("%-80s %7.2f -> %7.2f Mrows/s%n", names[q],
+                    rows * 1000.0 / interpreted, rows * 1000.0 / fused);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static OpIterator lessThan(int field, int bound, OpIterator child) {
+        return new Filter(new Predicate(field, Predicate.Op.LESS_THAN, new IntField(bound)), child);
+    }
+
+    /** @return the number of groups */
+    private static int run(Aggregate agg, boolean fused) throws Exception {
+        agg.setFusionEnabled(fused);
+        agg.open();
+        int n = 0;
+        while (agg.hasNext()) {
+            agg.next();
+            n++;
+        }
+        agg.close();
+        return n;
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.common.Utility;
+import simpledb.execution.CompiledJoinPredicate;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+
+/**
+ * Times the evaluation of a chain of three int predicates over batches, one
+ * Predicate.filter at a time and as a {@link CompiledPredicate}, and of a
+ * join predicate between a block of tuples and inner tuples, with
+ * JoinPredicate.filter and a {@link CompiledJoinPredicate}, and prints the
+ * rows (or pairs) evaluated per second.
+ * <p>
+ * Usage: java simpledb.benchmark.PredicateBenchmark [rows] [runs]
+ */
+public class PredicateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Random r = new Random(1);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(1000), r.nextInt(1000), r.nextInt(1000) }));
+        }
+        Predicate[] chain = {
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(100)),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(800)),
+                new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(5)) };
+        CompiledPredicate compiled = CompiledPredicate.compile(chain);
+
+        JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        CompiledJoinPredicate cjp = new CompiledJoinPredicate(jp);
+        List<Tuple> block = tuples.subList(0, 1000);
+        List<Tuple> inner = tuples.subList(0, Math.min(rows, 1000));
+        long pairs = (long) block.size() * inner.size();
+
+        for (int i = 0; i < runs; i++) {
+            // filtering shrinks the selection of the batches, so each pass
+            // gets batches of its own
+            List<TupleBatch> batches = batches(tuples);
+            long start = System.nanoTime();
+            long kept = 0;
+            for (TupleBatch batch : batches) {
+                for (Predicate p : chain) {
+                    p.filter(batch);
+                }
+                kept += batch.numSelected();
+            }
+            long interpreted = System.nanoTime() - start;
+
+            batches = batches(tuples);
+            start = System.nanoTime();
+            long keptCompiled = 0;
+            for (TupleBatch batch : batches) {
+                keptCompiled += compiled.filter(batch);
+            }
+            long compiledTime = System.nanoTime() - start;
+            if (kept != keptCompiled) {
+                throw new IllegalStateException(kept + " != " + keptCompiled);
+            }
+
+            start = System.nanoTime();
+            long matches = 0;
+            for (Tuple t2 : inner) {
+                for (Tuple t1 : block) {
+                    if (jp.filter(t1, t2)) {
+                        matches++;
+                    }
+                }
+            }
+            long joinInterpreted = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long compiledMatches = 0;
+            cjp.load(block);
+            for (Tuple t2 : inner) {
+                for (int j = cjp.next(t2, 0); j < block.size(); j = cjp.next(t2, j + 1)) {
+                    compiledMatches++;
+                }
+            }
+            long joinCompiled = System.nanoTime() - start;
+            if (matches != compiledMatches) {
+                throw new IllegalStateException(matches + " != " + compiledMatches);
+            }
+
+            System.out.printf("run %d: filter chain %.1f -> %.1f Mrows/s, join predicate %.1f -> %.1f Mpairs/s%n",
+                    i, rows * 1e3 / interpreted, rows * 1e3 / compiledTime,
+                    pairs * 1e3 / joinInterpreted, pairs * 1e3 / joinCompiled);
+        }
+    }
+
+    private static List<TupleBatch> batches(List<Tuple> tuples) {
+        List<TupleBatch> batches = new ArrayList<>();
+        TupleBatch b = null;
+        for (Tuple t : tuples) {
+            if (b == null || b.isFull()) {
+                b = new TupleBatch(t.getTupleDesc());
+                batches.add(b);
+            }
+            b.addTuple(t);
+        }
+        return batches;
+    }
+}
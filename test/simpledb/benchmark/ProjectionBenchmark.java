@@ -0,0 +1,75 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times SELECT l.c1, r.c1 FROM l, r WHERE l.c0 = r.c0 over two wide tables,
+ * with scans that return every field and with scans that return only the
+ * two fields the query refers to, and prints the rows read per second. The
+ * tables are kept in the buffer pool, so the rates show the cost of copying
+ * fields through the join.
+ * <p>
+ * Usage: java simpledb.benchmark.ProjectionBenchmark [columns] [leftRows] [rightRows]
+ */
+public class ProjectionBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int leftRows = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int rightRows = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        HeapFile left = SystemTestUtil.createRandomHeapFile(columns, leftRows, leftRows,
+                new HashMap<>(), new ArrayList<>());
+        HeapFile right = SystemTestUtil.createRandomHeapFile(columns, rightRows, leftRows,
+                new HashMap<>(), new ArrayList<>());
+        Database.resetBufferPool(left.numPages() + right.numPages() + 16);
+        TransactionId tid = new TransactionId();
+        int[] narrow = { 0, 1 };
+
+        // warm up the buffer pool and the JIT
+        run(tid, left, right, null);
+        run(tid, left, right, narrow);
+        long full = Long.MAX_VALUE, pushed = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            long rows = run(tid, left, right, null);
+            full = Math.min(full, System.nanoTime() - start);
+            start = System.nanoTime();
+            if (run(tid, left, right, narrow) != rows) {
+                throw new IllegalStateException("narrow scans returned other rows");
+            }
+            pushed = Math.min(pushed, System.nanoTime() - start);
+        }
+        System.out.printf("%d columns: %7.2f -> %7.2f Mrows/s%n", columns,
+                (leftRows + rightRows) * 1000.0 / full, (leftRows + rightRows) * 1000.0 / pushed);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the number of rows joined, scanning the given fields of each table */
+    private static long run(TransactionId tid, HeapFile left, HeapFile right, int[] fields)
+            throws Exception {
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l", fields), new SeqScan(tid, right.getId(), "r", fields));
+        long n = 0;
+        join.open();
+        TupleBatch b;
+        while ((b = join.nextBatch()) != null) {
+            n += b.numSelected();
+        }
+        join.close();
+        return n;
+    }
+}
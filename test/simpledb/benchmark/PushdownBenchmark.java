@@ -0,0 +1,92 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times SELECT * FROM t WHERE c1 &lt; bound over a table of eight random int
+ * columns, with a Filter above the scan and with the predicate pushed down
+ * into the scan, for predicates that keep 1%, 10% and 50% of the rows. It
+ * prints the rows read per second. Cold runs start from an empty buffer
+ * pool, so that each page is read and decoded; warm runs read pages that
+ * are already decoded in the buffer pool.
+ * <p>
+ * Usage: java simpledb.benchmark.PushdownBenchmark [rows]
+ */
+public class PushdownBenchmark {
+
+    private static final int RUNS = 5;
+    private static final int MAX_VALUE = 1000;
+    private static final int[] PERCENTS = { 1, 10, 50 };
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        HeapFile table = SystemTestUtil.createRandomHeapFile(8, rows, MAX_VALUE,
+                new HashMap<>(), new ArrayList<>());
+        int poolPages = table.numPages() + 16;
+        TransactionId tid = new TransactionId();
+        System.out.printf("%d rows%n", rows);
+
+        for (boolean cold : new boolean[] { true, false }) {
+            for (int percent : PERCENTS) {
+                Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE * percent / 100));
+                // warm up the JIT, and the buffer pool for warm runs
+                run(tid, table, p, false);
+                run(tid, table, p, true);
+                long filtered = Long.MAX_VALUE, pushed = Long.MAX_VALUE;
+                for (int i = 0; i < RUNS; i++) {
+                    if (cold) {
+                        Database.getBufferPool().transactionComplete(tid);
+                        Database.resetBufferPool(poolPages);
+                    }
+                    long start = System.nanoTime();
+                    long n = run(tid, table, p, false);
+                    filtered = Math.min(filtered, System.nanoTime() - start);
+                    if (cold) {
+                        Database.getBufferPool().transactionComplete(tid);
+                        Database.resetBufferPool(poolPages);
+                    }
+                    start = System.nanoTime();
+                    if (run(tid, table, p, true) != n) {
+                        throw new IllegalStateException("pushed down predicate returned other rows");
+                    }
+                    pushed = Math.min(pushed, System.nanoTime() - start);
+                }
+                System.out.printf("%s, %2d%% of rows: %7.2f -> %7.2f Mrows/s%n", cold ? "cold" : "warm",
+                        percent, rows * 1000.0 / filtered, rows * 1000.0 / pushed);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the number of rows that satisfy p */
+    private static long run(TransactionId tid, HeapFile table, Predicate p, boolean pushDown)
+            throws Exception {
+        SeqScan scan = new SeqScan(tid, table.getId());
+        OpIterator plan;
+        if (pushDown) {
+            scan.pushDown(p);
+            plan = scan;
+        } else {
+            plan = new Filter(p, scan);
+        }
+        long n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+}
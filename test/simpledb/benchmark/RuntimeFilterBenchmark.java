@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times a star-schema join, SELECT * FROM dim, fact WHERE dim.c0 = fact.c0
+ * AND dim.c1 &lt; x AND fact.c1 &gt;= 0, as a HashEquiJoin built on the
+ * filtered dimension table, with and without handing its keys to the scan of
+ * the fact table as a Bloom filter. It prints the fact rows read per second
+ * for dimension filters of decreasing selectivity. Both tables are kept in
+ * the buffer pool, so the rates show the CPU cost of the probe side.
+ * <p>
+ * Usage: java simpledb.benchmark.RuntimeFilterBenchmark [factRows] [dimRows]
+ */
+public class RuntimeFilterBenchmark {
+
+    private static final int RUNS = 3;
+    private static final double[] SELECTIVITIES = { 0.001, 0.01, 0.1, 0.5, 1.0 };
+
+    public static void main(String[] args) throws Exception {
+        int factRows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int dimRows = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        HeapFile dim = SystemTestUtil.createRandomHeapFile(2, dimRows, dimRows,
+                new HashMap<>(), new ArrayList<>());
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, factRows, dimRows,
+                new HashMap<>(), new ArrayList<>());
+        Database.resetBufferPool(dim.numPages() + fact.numPages() + 16);
+        TransactionId tid = new TransactionId();
+        System.out.printf("%d fact rows, %d dimension rows%n", factRows, dimRows);
+
+        // warm up the buffer pool and the JIT
+        for (int i = 0; i < RUNS; i++) {
+            run(tid, dim, fact, dimRows / 10, true);
+            run(tid, dim, fact, dimRows / 10, false);
+        }
+        for (double s : SELECTIVITIES) {
+            int bound = (int) (dimRows * s);
+            long with = Long.MAX_VALUE, without = Long.MAX_VALUE;
+            long rows = 0;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                rows = run(tid, dim, fact, bound, true);
+                with = Math.min(with, System.nanoTime() - start);
+                start = System.nanoTime();
+                run(tid, dim, fact, bound, false);
+                without = Math.min(without, System.nanoTime() - start);
+            }
+            System.out.printf("dim.c1 < %-6d (%5.1f%%): %7.2f Mrows/s without filter,"
+                    + " %7.2f Mrows/s with filter, %d result rows%n", bound, s * 100,
+                    factRows * 1000.0 / without, factRows * 1000.0 / with, rows);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static long run(TransactionId tid, HeapFile dim, HeapFile fact, int bound,
+                            boolean runtimeFilter) throws Exception {
+        Filter dims = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(bound)),
+                new SeqScan(tid, dim.getId(), "dim"));
+        Filter facts = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                new SeqScan(tid, fact.getId(), "fact"));
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), dims, facts);
+        join.setRuntimeFilterEnabled(runtimeFilter);
+        long n = 0;
+        join.open();
+        TupleBatch b;
+        while ((b = join.nextBatch()) != null) {
+            n += b.numSelected();
+        }
+        join.close();
+        return n;
+    }
+}
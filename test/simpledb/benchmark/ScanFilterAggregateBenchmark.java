@@ -0,0 +1,99 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times SELECT SUM(c1) FROM t WHERE c1 &lt; 50000 GROUP BY c0 with the scan
+ * and filter read tuple at a time into
+ * {@link Aggregator#mergeTupleIntoGroup}, and batch at a time into
+ * {@link Aggregator#mergeBatchIntoGroup}, and prints the cost per input row.
+ * <p>
+ * Usage: java simpledb.benchmark.ScanFilterAggregateBenchmark [rows] [runs]
+ */
+public class ScanFilterAggregateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 100000,
+                new HashMap<>(), new ArrayList<>());
+        // keep the whole table in memory so that only the operators are timed
+        Database.resetBufferPool(f.numPages() + 16);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < runs; i++) {
+            long tuples = time(() -> runTuples(tid, f.getId()));
+            long batches = time(() -> runBatches(tid, f.getId()));
+            System.out.printf("run %d: tuple at a time %.1f ns/row, batch at a time %.1f ns/row%n",
+                    i, (double) tuples / rows, (double) batches / rows);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Filter plan(TransactionId tid, int tableId) {
+        OpIterator scan = new SeqScan(tid, tableId, "t");
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50000));
+        return new Filter(p, scan);
+    }
+
+    private static int runTuples(TransactionId tid, int tableId) throws Exception {
+        Aggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+        OpIterator it = plan(tid, tableId);
+        it.open();
+        while (it.hasNext()) {
+            agg.mergeTupleIntoGroup(it.next());
+        }
+        it.close();
+        return count(agg);
+    }
+
+    private static int runBatches(TransactionId tid, int tableId) throws Exception {
+        Aggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+        Filter it = plan(tid, tableId);
+        it.open();
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null) {
+            agg.mergeBatchIntoGroup(b);
+        }
+        it.close();
+        return count(agg);
+    }
+
+    private static int count(Aggregator agg) throws Exception {
+        int n = 0;
+        OpIterator groups = agg.iterator();
+        groups.open();
+        while (groups.hasNext()) {
+            groups.next();
+            n++;
+        }
+        groups.close();
+        return n;
+    }
+
+    private interface Run {
+        int run() throws Exception;
+    }
+
+    private static long time(Run r) throws Exception {
+        long start = System.nanoTime();
+        r.run();
+        return System.nanoTime() - start;
+    }
+}
@@ -6,11 +6,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
+import simpledb.execution.IntegerAggregator;
 import simpledb.execution.SeqScan;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
@@ -20,12 +23,23 @@ import simpledb.transaction.TransactionId;
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, List<List<Integer>> expectedResult)
             throws DbException, TransactionAbortedException {
+        validateAggregate(table, operation, aggregateColumn, groupColumn, expectedResult,
+                IntegerAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @return true if the aggregate spilled groups to disk
+     */
+    public boolean validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn,
+                                     List<List<Integer>> expectedResult, int maxGroups)
+            throws DbException, TransactionAbortedException {
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, table.getId(), "");
-        Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
+        Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation, maxGroups);
 
         SystemTestUtil.matchTuples(ag, expectedResult);
         Database.getBufferPool().transactionComplete(tid);
+        return ag.hasSpilled();
     }
 
     private int computeAggregate(List<Integer> values, Aggregator.Op operation) {
@@ -121,6 +135,20 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /**
+     * Group a table with more groups than the memory budget holds
+     */
+    @Test public void testSpill() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+        for (Aggregator.Op operation : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.AVG,
+                Aggregator.Op.COUNT }) {
+            List<List<Integer>> expected = aggregate(createdTuples, operation, 0);
+            assertTrue(validateAggregate(table, operation, 1, 0, expected, 4));
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
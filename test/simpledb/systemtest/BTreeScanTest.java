@@ -15,6 +15,7 @@ import simpledb.common.Utility;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
 import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
 import simpledb.index.BTreeScan;
 import simpledb.index.BTreeUtility;
 import simpledb.storage.*;
@@ -66,16 +67,16 @@ public class BTreeScanTest extends SimpleDbTestBase {
         }
     }
     
-    /** Counts the number of readPage operations. */
+    /** Counts the number of pages read from disk. */
     static class InstrumentedBTreeFile extends BTreeFile {
         public InstrumentedBTreeFile(File f, int keyField, TupleDesc td) {
             super(f, keyField, td);
         }
 
         @Override
-        public Page readPage(PageId pid) throws NoSuchElementException {
+        protected Page createPage(BTreePageId pid, byte[] data) throws IOException {
             readCount += 1;
-            return super.readPage(pid);
+            return super.createPage(pid, data);
         }
 
         public int readCount = 0;
@@ -12,7 +12,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.Random;
 
 import org.junit.Test;
@@ -77,16 +76,16 @@ public class ScanTest extends SimpleDbTestBase {
      * @throws TransactionAbortedException
      * @throws DbException */
     @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /* Counts the number of readPage operations. */
+        /* Counts the number of pages read from disk. */
         class InstrumentedHeapFile extends HeapFile {
             public InstrumentedHeapFile(File f, TupleDesc td) {
                 super(f, td);
             }
 
             @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
+            protected Page createPage(PageId pid, byte[] data) throws IOException {
                 readCount += 1;
-                return super.readPage(pid);
+                return super.createPage(pid, data);
             }
 
             public int readCount = 0;